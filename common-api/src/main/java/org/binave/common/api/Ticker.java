@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.api;
+
+/**
+ * 时钟
+ *
+ * 替代直接调用 {@link System#currentTimeMillis()}、{@link System#nanoTime()}，
+ * 可以换成缓存的时钟降低热点路径的开销，或换成手动时钟使依赖时间的逻辑可以确定地测试。
+ *
+ * 实现见 org.binave.common.util.TickerUtil
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public interface Ticker {
+
+    /**
+     * 系统时钟
+     */
+    Ticker SYSTEM = new Ticker() {
+
+        @Override
+        public long millis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long nanos() {
+            return System.nanoTime();
+        }
+
+    };
+
+    /**
+     * 距离 1970 年的毫秒值
+     */
+    long millis();
+
+    /**
+     * 纳秒值，只用于计算时间差
+     */
+    long nanos();
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.benchmark;
+
+import org.binave.common.collection.proxy.ConcurrentExpireMapProxy;
+import org.binave.common.collection.proxy.ExpireMapProxy;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程读写混合的吞吐量，默认 95% 读
+ *
+ * 使用 -t 指定线程数，观察随线程数的扩展：
+ *
+ *      java -jar target/benchmarks.jar ExpireMap -t 1
+ *      java -jar target/benchmarks.jar ExpireMap -t 32
+ *
+ * CONCURRENT_HASH_MAP 不过期，作为上限；
+ * SYNCHRONIZED 为加锁的 ExpireMapProxy，作为下限
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ExpireMapBenchmark {
+
+    // 读取的比例，百分比
+    @Param({"95"})
+    private int readPercent;
+
+    @Param({"CONCURRENT_EXPIRE_MAP", "SYNCHRONIZED", "CONCURRENT_HASH_MAP"})
+    private String type;
+
+    @Param({"100000"})
+    private int size;
+
+    // 默认过期时间，写入会不断续期，测试过程中过期的很少
+    @Param({"60000"})
+    private long expireMillis;
+
+    private Map<Integer, Object> map;
+
+    private Integer[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        switch (type) {
+            case "CONCURRENT_EXPIRE_MAP":
+                map = new ConcurrentExpireMapProxy<>(size, expireMillis);
+                break;
+            case "SYNCHRONIZED":
+                map = Collections.synchronizedMap(new ExpireMapProxy<>(expireMillis));
+                break;
+            case "CONCURRENT_HASH_MAP":
+                map = new ConcurrentHashMap<>(size);
+                break;
+            default:
+                throw new IllegalArgumentException("type=" + type);
+        }
+        keys = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = i;
+            map.put(keys[i], MapType.VALUE);
+        }
+    }
+
+    @Benchmark
+    public Object readWrite() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Integer key = keys[random.nextInt(keys.length)];
+        return random.nextInt(100) < readPercent ? map.get(key) : map.put(key, MapType.VALUE);
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.benchmark;
+
+import org.binave.common.api.Ticker;
+import org.binave.common.collection.ExpireMap;
+import org.binave.common.collection.StatsCounter;
+import org.binave.common.collection.proxy.ConcurrentExpireMapProxy;
+import org.binave.common.collection.proxy.ConcurrentStatsCounter;
+import org.binave.common.collection.proxy.ExpireMapProxy;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 统计的开销
+ *
+ * stats=false 不传入统计，应与改动前的 get 耗时一致；stats=true 为 ConcurrentStatsCounter。
+ * 使用 -t 观察多线程同时记录时的开销
+ *
+ *      java -jar target/benchmarks.jar ExpireMapStats
+ *      java -jar target/benchmarks.jar ExpireMapStats -p type=CONCURRENT -t 8
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ExpireMapStatsBenchmark {
+
+    @Param({"LOCAL", "CONCURRENT"})
+    private String type;
+
+    @Param({"false", "true"})
+    private boolean stats;
+
+    @Param({"100000"})
+    private int size;
+
+    private ExpireMap<Integer, Object> map;
+
+    private Integer[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        StatsCounter counter = stats ? new ConcurrentStatsCounter() : null;
+        switch (type) {
+            case "LOCAL":
+                map = new ExpireMapProxy<>(new HashMap<>(), 600_000, Ticker.SYSTEM, null, counter);
+                break;
+            case "CONCURRENT":
+                map = new ConcurrentExpireMapProxy<>(size, 600_000, Ticker.SYSTEM, null, counter);
+                break;
+            default:
+                throw new IllegalArgumentException("type=" + type);
+        }
+        keys = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = i;
+            map.put(keys[i], MapType.VALUE);
+        }
+    }
+
+    /**
+     * 命中
+     */
+    @Benchmark
+    public Object getHit() {
+        return map.get(keys[ThreadLocalRandom.current().nextInt(keys.length)]);
+    }
+
+    /**
+     * 未命中
+     */
+    @Benchmark
+    public Object getMiss() {
+        return map.get(-1 - ThreadLocalRandom.current().nextInt(keys.length));
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.benchmark;
+
+import org.binave.common.collection.ExpireMap;
+import org.binave.common.collection.proxy.ConcurrentExpireMapProxy;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link ConcurrentExpireMapProxy} 的多线程校验
+ *
+ *      lost update  多个线程 merge 同一批 key，总和与次数一致
+ *      putIfAbsent  同一个 key 所有线程看到同一个胜者
+ *      resurrect    value 为过期时间点的上限，读到的 value 不能早于读取开始的时间
+ *      expire       停止写入并等待过期后，size() 为 0，遍历为空
+ *
+ * 失败时以非 0 退出，可以直接放在 CI 的脚本中。
+ * 构建不运行测试（surefire skipTests），修改 ConcurrentExpireMapProxy 后需要运行此校验
+ *
+ *      java -cp target/benchmarks.jar org.binave.common.benchmark.ExpireMapStress [threads] [seconds]
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public class ExpireMapStress {
+
+    private static final int KEYS = 1 << 12;
+
+    // 短过期时间，测试过程中不断过期
+    private static final long TTL = 20;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 5;
+
+        boolean ok = lostUpdate(threads, seconds);
+        ok &= putIfAbsent(threads);
+        ok &= resurrect(threads, seconds);
+
+        System.out.println(ok ? "PASSED" : "FAILED");
+        if (!ok) System.exit(1);
+    }
+
+    private static boolean lostUpdate(int threads, long seconds) throws InterruptedException {
+        ExpireMap<Integer, Long> map = new ConcurrentExpireMapProxy<>(60_000);
+        AtomicLong total = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000 / 2;
+        run(threads, id -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long count = 0;
+            while (System.nanoTime() < deadline) {
+                int key = random.nextInt(KEYS);
+                switch (random.nextInt(4)) {
+                    case 0:
+                        map.compute(key, (k, v) -> v == null ? 1L : v + 1);
+                        break;
+                    case 1:
+                        if (map.putIfAbsent(key, 1L) != null) map.merge(key, 1L, Long::sum);
+                        break;
+                    default:
+                        map.merge(key, 1L, Long::sum);
+                }
+                ++count;
+            }
+            total.addAndGet(count);
+        });
+        long sum = 0;
+        for (Long v : map.values()) sum += v;
+        boolean ok = sum == total.get();
+        System.out.printf("lost update  %s  updates=%d sum=%d%n", ok ? "ok  " : "FAIL", total.get(), sum);
+        return ok;
+    }
+
+    private static boolean putIfAbsent(int threads) throws InterruptedException {
+        ExpireMap<Integer, Integer> map = new ConcurrentExpireMapProxy<>(60_000);
+        AtomicReferenceArray<Integer> winners = new AtomicReferenceArray<>(KEYS);
+        AtomicLong conflicts = new AtomicLong();
+        run(threads, id -> {
+            for (int key = 0; key < KEYS; key++) {
+                Integer old = map.putIfAbsent(key, 1000L, id);
+                Integer winner = old == null ? id : old;
+                if (!winners.compareAndSet(key, null, winner) && !winner.equals(winners.get(key)))
+                    conflicts.incrementAndGet();
+            }
+        });
+        boolean ok = conflicts.get() == 0;
+        System.out.printf("putIfAbsent  %s  conflicts=%d%n", ok ? "ok  " : "FAIL", conflicts.get());
+        return ok;
+    }
+
+    private static boolean resurrect(int threads, long seconds) throws InterruptedException {
+        ExpireMap<Integer, AtomicLong> map = new ConcurrentExpireMapProxy<>(TTL);
+        AtomicLong reads = new AtomicLong(), stale = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000 / 2;
+        run(threads, id -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long count = 0, bad = 0;
+            while (System.nanoTime() < deadline) {
+                int key = random.nextInt(KEYS);
+                int op = random.nextInt(100);
+                long now = System.currentTimeMillis();
+                if (op < 90) {
+                    AtomicLong expire = map.get(key);
+                    if (expire != null && expire.get() <= now) ++bad;
+                    ++count;
+                } else if (op < 95) {
+                    // 写入完成后才能确定过期时间的上限，之前为最大值
+                    long delta = 1 + random.nextInt((int) TTL * 2);
+                    AtomicLong expire = new AtomicLong(Long.MAX_VALUE);
+                    map.put(key, delta, expire);
+                    expire.set(System.currentTimeMillis() + delta);
+                } else if (op < 98) {
+                    // 只缩短，value 仍为上限
+                    map.addExpire(key, -random.nextInt((int) TTL));
+                } else {
+                    map.remove(key);
+                }
+            }
+            reads.addAndGet(count);
+            stale.addAndGet(bad);
+        });
+        boolean ok = stale.get() == 0;
+        System.out.printf("resurrect    %s  reads=%d stale=%d%n", ok ? "ok  " : "FAIL", reads.get(), stale.get());
+
+        Thread.sleep(TTL * 3);
+        int size = map.size();
+        boolean empty = size == 0 && !map.keySet().iterator().hasNext();
+        System.out.printf("expire       %s  size=%d%n", empty ? "ok  " : "FAIL", size);
+        return ok && empty;
+    }
+
+    private interface Task {
+        void run(int id);
+    }
+
+    private static void run(int threads, Task task) throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            int id = i;
+            workers[i] = new Thread(() -> task.run(id));
+            workers[i].start();
+        }
+        for (Thread worker : workers) worker.join();
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.benchmark;
+
+import org.binave.common.collection.proxy.BoundedExpireMapProxy;
+import org.binave.common.collection.proxy.ConcurrentExpireMapProxy;
+import org.binave.common.collection.proxy.ExpireMapProxy;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 命中率模拟
+ *
+ * 按 Zipf 分布生成访问序列，未命中时写入，统计命中率：
+ *      zipf       纯 Zipf 分布
+ *      zipf+scan  每隔一段插入一次顺序扫描，扫描的 key 只出现一次
+ *
+ * LRU 为 accessOrder 的 LinkedHashMap，作为对照。
+ * 同时检查整理后的元素个数不超过上限
+ *
+ *      java -cp target/benchmarks.jar org.binave.common.benchmark.HitRateSimulation [universe] [accesses]
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public class HitRateSimulation {
+
+    private static final long TTL = 3_600_000;
+
+    public static void main(String[] args) {
+        int universe = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int accesses = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+
+        System.out.printf("%-10s %-6s %-9s %10s %10s %14s %8s%n",
+                "trace", "skew", "capacity", "LRU", "W-TinyLFU", "W-TinyLFU(C)", "size");
+        boolean ok = true;
+        for (String trace : new String[]{"zipf", "zipf+scan"})
+            for (double skew : new double[]{0.8, 1.0, 1.2})
+                for (int percent : new int[]{1, 5}) {
+                    int capacity = universe * percent / 100;
+                    int[] keys = trace(trace, universe, accesses, skew);
+
+                    BoundedExpireMapProxy<Integer, Integer> local =
+                            new BoundedExpireMapProxy<>(new ExpireMapProxy<>(TTL), capacity);
+                    BoundedExpireMapProxy<Integer, Integer> concurrent =
+                            new BoundedExpireMapProxy<>(new ConcurrentExpireMapProxy<>(TTL), capacity);
+
+                    double lru = hitRate(lru(capacity), keys);
+                    double tinyLfu = hitRate(local, keys);
+                    double tinyLfuConcurrent = hitRate(concurrent, keys);
+
+                    local.trim();
+                    concurrent.trim();
+                    int size = Math.max(local.size(), concurrent.size());
+                    ok &= size <= capacity;
+                    System.out.printf("%-10s %-6.1f %-9s %9.2f%% %9.2f%% %13.2f%% %8d%n",
+                            trace, skew, percent + "%", lru * 100, tinyLfu * 100, tinyLfuConcurrent * 100, size);
+                }
+        System.out.println(ok ? "size bound ok" : "size bound EXCEEDED");
+        if (!ok) System.exit(1);
+    }
+
+    private static Map<Integer, Integer> lru(int capacity) {
+        return new LinkedHashMap<Integer, Integer>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    private static double hitRate(Map<Integer, Integer> cache, int[] keys) {
+        long hits = 0;
+        for (int key : keys) {
+            if (cache.get(key) != null) ++hits;
+            else cache.put(key, key);
+        }
+        return (double) hits / keys.length;
+    }
+
+    /**
+     * 访问序列，热点 key 随机分布在 [0, universe) 中
+     * 扫描使用 universe 之外的 key，每次扫描长度为 universe 的 5%
+     */
+    private static int[] trace(String trace, int universe, int accesses, double skew) {
+        Random random = new Random(universe ^ accesses ^ Double.doubleToLongBits(skew));
+        Zipf zipf = new Zipf(universe, skew, random);
+
+        // 按排名打乱，避免热点 key 连续
+        int[] ranks = new int[universe];
+        for (int i = 0; i < universe; i++) ranks[i] = i;
+        for (int i = universe - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1), tmp = ranks[i];
+            ranks[i] = ranks[j];
+            ranks[j] = tmp;
+        }
+
+        int[] keys = new int[accesses];
+        boolean scan = "zipf+scan".equals(trace);
+        int scanLength = universe / 20, scanKey = universe;
+        for (int i = 0; i < accesses; ) {
+            // 每 10 个扫描长度中有 1 个是扫描
+            if (scan && random.nextInt(10) == 0) {
+                for (int j = 0; j < scanLength && i < accesses; j++) keys[i++] = scanKey++;
+            } else {
+                for (int j = 0; j < scanLength && i < accesses; j++) keys[i++] = ranks[zipf.next()];
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Zipf 分布的排名，0 最热
+     */
+    private static final class Zipf {
+
+        private final double[] cdf;
+
+        private final Random random;
+
+        Zipf(int n, double skew, Random random) {
+            this.random = random;
+            this.cdf = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) cdf[i] = sum += 1 / Math.pow(i + 1, skew);
+            for (int i = 0; i < n; i++) cdf[i] /= sum;
+        }
+
+        int next() {
+            int i = Arrays.binarySearch(cdf, random.nextDouble());
+            return Math.min(i < 0 ? -i - 1 : i, cdf.length - 1);
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.benchmark;
+
+import org.binave.common.collection.ImmutableHashMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ImmutableHashMap（探测、完美哈希）与 HashMap 的读取对比
+ *
+ * key 为 String，hit 命中，miss 未命中（未命中的 key 同样预先生成，hashCode 已缓存）
+ *
+ *      java -jar target/benchmarks.jar ImmutableHashMap
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ImmutableHashMapBenchmark {
+
+    @Param({"1000", "100000", "2000000"})
+    private int size;
+
+    @Param({"HASH_MAP", "PROBING", "PERFECT"})
+    private String type;
+
+    private Map<String, Object> map;
+
+    private String[] hits, misses;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Map<String, Object> source = new HashMap<>();
+        hits = new String[size];
+        misses = new String[size];
+        for (int i = 0; i < size; i++) {
+            source.put(hits[i] = "config.key." + i, MapType.VALUE);
+            (misses[i] = "config.miss." + i).hashCode();
+        }
+        switch (type) {
+            case "HASH_MAP":
+                map = source;
+                break;
+            case "PROBING":
+                map = ImmutableHashMap.copyOf(source);
+                break;
+            default:
+                map = ImmutableHashMap.<String, Object>builder().putAll(source).perfectHash().build();
+        }
+    }
+
+    @Benchmark
+    public Object hit() {
+        return map.get(hits[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    @Benchmark
+    public Object miss() {
+        return map.get(misses[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+}
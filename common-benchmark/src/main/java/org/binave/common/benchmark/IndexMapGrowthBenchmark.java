@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.benchmark;
+
+import org.binave.common.collection.GrowthPolicy;
+import org.binave.common.collection.IndexMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link IndexMap} 扩容策略
+ *
+ * 结果为装载 size 个元素的总耗时，除以 size 即为单次 put 的均摊耗时。
+ * 如果 size 增大 100 倍，总耗时也只增大 100 倍左右，即为均摊 O(1)
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexMapGrowthBenchmark {
+
+    @Param({"1000", "100000"})
+    private int size;
+
+    @Param({"GEOMETRIC", "LINEAR", "EXACT"})
+    private String growth;
+
+    @Param({"ASCENDING", "DESCENDING", "RANDOM"})
+    private String order;
+
+    private GrowthPolicy policy;
+
+    private int[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() throws ReflectiveOperationException {
+        policy = (GrowthPolicy) GrowthPolicy.class.getField(growth).get(null);
+        keys = new int[size];
+        for (int i = 0; i < size; i++) keys[i] = i;
+        switch (order) {
+            case "DESCENDING":
+                for (int i = 0; i < size; i++) keys[i] = size - 1 - i;
+                break;
+            case "RANDOM":
+                // 区间内随机
+                Random random = new Random(size);
+                for (int i = size - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1), tmp = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = tmp;
+                }
+                break;
+        }
+    }
+
+    @Benchmark
+    public IndexMap<Integer> put() {
+        IndexMap<Integer> map = new IndexMap<>(0, false, policy);
+        for (int key : keys) map.put(key, key);
+        return map;
+    }
+
+    // 确认装载结果
+    @TearDown(Level.Iteration)
+    public void check() {
+        if (put().size() != size) throw new IllegalStateException("size");
+    }
+
+}
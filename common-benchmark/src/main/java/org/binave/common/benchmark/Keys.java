@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 基准测试使用的 key
+ *
+ * 分布：
+ *      DENSE  连续的 key，[0, size)
+ *      SPARSE 每 8 个位置中随机一个，key 跨度为 size 的 8 倍
+ *
+ * 顺序：
+ *      ASCENDING 升序
+ *      RANDOM    打乱
+ *
+ * 使用固定的随机种子，同样的参数得到同样的 key
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+final class Keys {
+
+    static final int SPARSE_STRIDE = 8;
+
+    private Keys() {
+    }
+
+    /**
+     * 生成 size 个不重复的 key
+     *
+     * @param distribution DENSE、SPARSE
+     * @param order        ASCENDING、RANDOM
+     */
+    static int[] generate(String distribution, String order, int size) {
+        Random random = new Random(size);
+        int[] keys = new int[size];
+        switch (distribution) {
+            case "DENSE":
+                for (int i = 0; i < size; i++) keys[i] = i;
+                break;
+            case "SPARSE":
+                for (int i = 0; i < size; i++) keys[i] = i * SPARSE_STRIDE + random.nextInt(SPARSE_STRIDE);
+                break;
+            default:
+                throw new IllegalArgumentException("distribution=" + distribution);
+        }
+        return order(keys, order, random);
+    }
+
+    /**
+     * 从已有的 key 中取样
+     * ASCENDING 时取一段连续的 key，RANDOM 时随机抽取
+     *
+     * @param keys 升序的 key
+     */
+    static int[] hits(int[] keys, String order, int count) {
+        Random random = new Random(keys.length + count);
+        int[] sample = new int[count];
+        if ("ASCENDING".equals(order)) {
+            int from = random.nextInt(Math.max(keys.length - count, 1));
+            for (int i = 0; i < count; i++) sample[i] = keys[(from + i) % keys.length];
+        } else {
+            for (int i = 0; i < count; i++) sample[i] = keys[random.nextInt(keys.length)];
+        }
+        return sample;
+    }
+
+    /**
+     * 不存在的 key
+     * 有空位时一半在 key 的跨度之内，一半在跨度之外；连续时全部在跨度之外
+     *
+     * @param keys 升序的 key
+     */
+    static int[] misses(int[] keys, String order, int count) {
+        Random random = new Random(keys.length - count);
+        int first = keys[0], last = keys[keys.length - 1];
+        boolean gaps = last - first + 1 > keys.length;
+        int[] sample = new int[count];
+        for (int i = 0; i < count; ) {
+            int key;
+            if (gaps && i % 2 == 0) {
+                key = first + random.nextInt(last - first + 1);
+            } else {
+                key = random.nextBoolean() ?
+                        first - 1 - random.nextInt(keys.length) :
+                        last + 1 + random.nextInt(keys.length);
+            }
+            if (Arrays.binarySearch(keys, key) < 0) sample[i++] = key;
+        }
+        if ("ASCENDING".equals(order)) Arrays.sort(sample);
+        return sample;
+    }
+
+    static int[] sorted(int[] keys) {
+        int[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static int[] order(int[] keys, String order, Random random) {
+        switch (order) {
+            case "ASCENDING":
+                return keys;
+            case "RANDOM":
+                for (int i = keys.length - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1), tmp = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = tmp;
+                }
+                return keys;
+            default:
+                throw new IllegalArgumentException("order=" + order);
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.benchmark;
+
+import org.binave.common.collection.LongExpireMap;
+import org.binave.common.collection.proxy.ExpireMapProxy;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 以 IdWorker 生成的 id 为 key 的过期 Map
+ *
+ * LONG 为 LongExpireMap，BOXED 为 ExpireMapProxy&lt;Long, Object&gt;。
+ * key 按 IdWorker 的格式生成：时间戳、机器号、序列号
+ *
+ *      java -jar target/benchmarks.jar LongExpireMap -prof gc
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class LongExpireMapBenchmark {
+
+    @Param({"LONG", "BOXED"})
+    private String type;
+
+    @Param({"100000", "1000000"})
+    private int size;
+
+    private LongExpireMap<Object> longMap;
+
+    private ExpireMapProxy<Long, Object> boxedMap;
+
+    private long[] ids;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ids = ids(size);
+        switch (type) {
+            case "LONG":
+                longMap = new LongExpireMap<>(size, 600_000);
+                for (long id : ids) longMap.put(id, MapType.VALUE);
+                break;
+            case "BOXED":
+                boxedMap = new ExpireMapProxy<>(600_000);
+                for (long id : ids) boxedMap.put(id, MapType.VALUE);
+                break;
+            default:
+                throw new IllegalArgumentException("type=" + type);
+        }
+    }
+
+    /**
+     * IdWorker 格式的 id：每毫秒 256 个，分布在 4 台机器上，升序
+     */
+    static long[] ids(int size) {
+        long[] ids = new long[size];
+        long timestamp = 1_000_000_000L;
+        for (int i = 0; i < size; i++) {
+            if ((i & 255) == 0) ++timestamp;
+            ids[i] = timestamp << 22 | (long) (i & 3) << 12 | (i & 255) >>> 2;
+        }
+        return ids;
+    }
+
+    /**
+     * 命中
+     */
+    @Benchmark
+    public Object getHit() {
+        long id = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+        return longMap != null ? longMap.get(id) : boxedMap.get(id);
+    }
+
+    /**
+     * 未命中
+     */
+    @Benchmark
+    public Object getMiss() {
+        long id = ids[ThreadLocalRandom.current().nextInt(ids.length)] + 1024;
+        return longMap != null ? longMap.get(id) : boxedMap.get(id);
+    }
+
+    /**
+     * 覆盖写入
+     */
+    @Benchmark
+    public Object put() {
+        long id = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+        return longMap != null ? longMap.put(id, MapType.VALUE) : boxedMap.put(id, MapType.VALUE);
+    }
+
+}
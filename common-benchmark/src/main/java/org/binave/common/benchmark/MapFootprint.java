@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.benchmark;
+
+import org.binave.common.collection.ImmutableHashMap;
+import org.binave.common.collection.LongExpireMap;
+import org.binave.common.collection.PersistentHashMap;
+import org.binave.common.collection.proxy.ExpireMapProxy;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 内存占用
+ *
+ * 使用 JOL 统计 map 可以到达的所有对象，包括装箱的 key。
+ * 所有 key 共用一个 value，不计入每个元素的开销。
+ * 之后对比以 IdWorker 格式的 id 为 key 的 LongExpireMap 与 ExpireMapProxy；
+ * 以及保留多个版本（每个版本修改一个 key）时，PersistentHashMap 与复制 HashMap 每个版本增加的内存；
+ * 最后是 String 为 key 时 ImmutableHashMap 与 HashMap 的结构开销，不计 key
+ *
+ *      java -cp target/benchmarks.jar org.binave.common.benchmark.MapFootprint [size ...]
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public class MapFootprint {
+
+    private static final int VERSIONS = 16;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length == 0 ? new int[]{1000, 100000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+
+        System.out.printf("%-20s %-8s %-10s %-10s %14s %12s%n",
+                "type", "keys", "order", "size", "total(byte)", "per entry");
+        for (int size : sizes)
+            for (String distribution : new String[]{"DENSE", "SPARSE"})
+                for (String order : new String[]{"ASCENDING", "RANDOM"})
+                    for (MapType type : MapType.values()) {
+                        Object map = type.create(Keys.generate(distribution, order, size)).unwrap();
+                        long total = GraphLayout.parseInstance(map).totalSize() -
+                                GraphLayout.parseInstance(MapType.VALUE).totalSize();
+                        System.out.printf("%-20s %-8s %-10s %-10d %14d %12.1f%n",
+                                type, distribution, order, size, total, (double) total / size);
+                    }
+
+        System.out.println();
+        System.out.printf("%-20s %-10s %14s %12s%n", "type", "size", "total(byte)", "per entry");
+        for (int size : sizes) {
+            LongExpireMap<Object> longMap = new LongExpireMap<>(600_000);
+            ExpireMapProxy<Long, Object> boxedMap = new ExpireMapProxy<>(600_000);
+            for (long id : LongExpireMapBenchmark.ids(size)) {
+                longMap.put(id, MapType.VALUE);
+                boxedMap.put(id, MapType.VALUE);
+            }
+            print("LongExpireMap", size, longMap);
+            print("ExpireMapProxy", size, boxedMap);
+        }
+
+        System.out.println();
+        System.out.printf("%-20s %-10s %-10s %14s %12s%n", "type", "size", "versions", "total(byte)", "per version");
+        for (int size : sizes) {
+            Map<Integer, Object> map = new HashMap<>();
+            for (int i = 0; i < size; i++) map.put(i, MapType.VALUE);
+            Object[] persistent = new Object[VERSIONS], copies = new Object[VERSIONS];
+            PersistentHashMap<Integer, Object> version = PersistentHashMap.copyOf(map);
+            Map<Integer, Object> copy = map;
+            for (int i = 0; i < VERSIONS; i++) {
+                Integer key = i * (size / VERSIONS);
+                persistent[i] = version = version.with(key, Boolean.TRUE);
+                copies[i] = copy = new HashMap<>(copy);
+                copy.put(key, Boolean.TRUE);
+            }
+            printVersions("PersistentHashMap", size, persistent);
+            printVersions("HashMap", size, copies);
+        }
+
+        System.out.println();
+        System.out.printf("%-20s %-10s %14s %12s%n", "type (String key)", "size", "total(byte)", "per entry");
+        for (int size : sizes) {
+            String[] keys = new String[size];
+            Map<String, Object> map = new HashMap<>();
+            for (int i = 0; i < size; i++) map.put(keys[i] = "config.key." + i, MapType.VALUE);
+            printExcluding("HashMap", size, map, keys);
+            printExcluding("ImmutableHashMap", size, ImmutableHashMap.copyOf(map), keys);
+            printExcluding("ImmutableHashMap(P)", size, ImmutableHashMap.builder().putAll(map).perfectHash().build(), keys);
+        }
+    }
+
+    private static void printExcluding(String type, int size, Object map, String[] keys) {
+        long total = GraphLayout.parseInstance(map)
+                .subtract(GraphLayout.parseInstance((Object[]) keys))
+                .subtract(GraphLayout.parseInstance(MapType.VALUE))
+                .totalSize();
+        System.out.printf("%-20s %-10d %14d %12.1f%n", type, size, total, (double) total / size);
+    }
+
+    // 多出第一个版本的部分均摊到之后的每个版本
+    private static void printVersions(String type, int size, Object[] versions) {
+        long first = GraphLayout.parseInstance(versions[0]).totalSize();
+        long total = GraphLayout.parseInstance(versions).totalSize();
+        System.out.printf("%-20s %-10d %-10d %14d %12.1f%n",
+                type, size, versions.length, total, (double) (total - first) / (versions.length - 1));
+    }
+
+    private static void print(String type, int size, Object map) {
+        long total = GraphLayout.parseInstance(map).totalSize() -
+                GraphLayout.parseInstance(MapType.VALUE).totalSize();
+        System.out.printf("%-20s %-10d %14d %12.1f%n", type, size, total, (double) total / size);
+    }
+
+}
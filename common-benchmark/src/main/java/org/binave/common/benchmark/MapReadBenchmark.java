@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读取：get 命中、get 未命中、全量遍历、区间遍历
+ *
+ * get、subMap 的结果为单次操作的耗时；
+ * iterate、forEach 的结果为遍历整个 map 的耗时，除以 size 即为单个元素的耗时
+ *
+ * order 为查找顺序：ASCENDING 为一段连续的 key，RANDOM 为随机的 key
+ * 分配速率使用 -prof gc 查看
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class MapReadBenchmark {
+
+    private static final int LOOKUPS = 1024;
+
+    private static final int RANGES = 16;
+
+    // 区间遍历时，key 的跨度
+    private static final int RANGE_SPAN = 1024;
+
+    @Param({"INDEX_MAP", "IMMUTABLE_INDEX_MAP", "TREE_MAP", "HASH_MAP", "INT2OBJECT_MAP"})
+    private MapType type;
+
+    @Param({"1000", "100000", "10000000"})
+    private int size;
+
+    @Param({"DENSE", "SPARSE"})
+    private String distribution;
+
+    @Param({"ASCENDING", "RANDOM"})
+    private String order;
+
+    private MapType.Subject map;
+
+    private int[] hits, misses, rangeFrom;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int[] keys = Keys.generate(distribution, "RANDOM", size);
+        map = type.create(keys);
+        keys = Keys.sorted(keys);
+        hits = Keys.hits(keys, order, LOOKUPS);
+        misses = Keys.misses(keys, order, LOOKUPS);
+
+        Random random = new Random(size);
+        rangeFrom = new int[RANGES];
+        for (int i = 0; i < RANGES; i++)
+            rangeFrom[i] = keys[random.nextInt(keys.length)];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void get(Blackhole bh) {
+        for (int key : hits) bh.consume(map.get(key));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void getMiss(Blackhole bh) {
+        for (int key : misses) bh.consume(map.get(key));
+    }
+
+    @Benchmark
+    public void iterate(Blackhole bh) {
+        map.iterate(bh);
+    }
+
+    @Benchmark
+    public void forEach(Blackhole bh) {
+        map.forEach(bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RANGES)
+    public void subMap(Blackhole bh) {
+        for (int from : rangeFrom) map.range(from, from + RANGE_SPAN, bh);
+    }
+
+}
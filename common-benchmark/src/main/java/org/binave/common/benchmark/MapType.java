@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.benchmark;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import org.binave.common.collection.ImmutableIndexMap;
+import org.binave.common.collection.IndexMap;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * 参与对比的 map
+ *
+ * 统一成 int key 的接口，每个 fork 只使用一种实现，调用点是单态的。
+ * 每种 map 使用各自最快的遍历方式：
+ *      entrySet 为通用写法，forEach 为各自的专用接口
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public enum MapType {
+
+    INDEX_MAP {
+        @Override
+        Subject create(int[] keys) {
+            IndexMap<Object> map = new IndexMap<>();
+            for (int key : keys) map.put(key, VALUE);
+            return new JdkSubject(map) {
+                @Override
+                public void forEach(Blackhole bh) {
+                    map.forEachEntry((k, v) -> bh.consume(k));
+                }
+            };
+        }
+    },
+
+    /**
+     * 只读，不参与写入测试
+     */
+    IMMUTABLE_INDEX_MAP {
+        @Override
+        Subject create(int[] keys) {
+            ImmutableIndexMap.Builder<Object> builder = ImmutableIndexMap.builder(keys.length);
+            for (int key : keys) builder.put(key, VALUE);
+            ImmutableIndexMap<Object> map = builder.build();
+            return new JdkSubject(map) {
+                @Override
+                public Object get(int key) {
+                    return map.get(key);
+                }
+
+                @Override
+                public void forEach(Blackhole bh) {
+                    map.forEachEntry((k, v) -> bh.consume(k));
+                }
+            };
+        }
+    },
+
+    TREE_MAP {
+        @Override
+        Subject create(int[] keys) {
+            TreeMap<Integer, Object> map = new TreeMap<>();
+            for (int key : keys) map.put(key, VALUE);
+            return new JdkSubject(map);
+        }
+    },
+
+    HASH_MAP {
+        @Override
+        Subject create(int[] keys) {
+            HashMap<Integer, Object> map = new HashMap<>();
+            for (int key : keys) map.put(key, VALUE);
+            return new JdkSubject(map) {
+                // 无序，逐个查找区间内的 key
+                @Override
+                public void range(int from, int to, Blackhole bh) {
+                    for (int key = from; key < to; key++) {
+                        Object v = map.get(key);
+                        if (v != null) bh.consume(v);
+                    }
+                }
+            };
+        }
+    },
+
+    /**
+     * fastutil 的开放寻址 map，key 不装箱
+     */
+    INT2OBJECT_MAP {
+        @Override
+        Subject create(int[] keys) {
+            Int2ObjectOpenHashMap<Object> map = new Int2ObjectOpenHashMap<>();
+            for (int key : keys) map.put(key, VALUE);
+            return new Subject() {
+                @Override
+                public Object get(int key) {
+                    return map.get(key);
+                }
+
+                @Override
+                public Object put(int key, Object value) {
+                    return map.put(key, value);
+                }
+
+                @Override
+                public Object remove(int key) {
+                    return map.remove(key);
+                }
+
+                @Override
+                public void iterate(Blackhole bh) {
+                    for (Int2ObjectMap.Entry<Object> entry : map.int2ObjectEntrySet())
+                        bh.consume(entry.getIntKey());
+                }
+
+                @Override
+                public void forEach(Blackhole bh) {
+                    map.int2ObjectEntrySet().fastForEach(entry -> bh.consume(entry.getIntKey()));
+                }
+
+                @Override
+                public void range(int from, int to, Blackhole bh) {
+                    for (int key = from; key < to; key++) {
+                        Object v = map.get(key);
+                        if (v != null) bh.consume(v);
+                    }
+                }
+
+                @Override
+                public Object unwrap() {
+                    return map;
+                }
+            };
+        }
+    };
+
+    /**
+     * 所有 key 共用一个 value，内存占用中只计算一次
+     */
+    static final Object VALUE = new Object();
+
+    /**
+     * 按给定顺序写入 keys
+     */
+    abstract Subject create(int[] keys);
+
+    /**
+     * 被测试的 map
+     */
+    interface Subject {
+
+        Object get(int key);
+
+        Object put(int key, Object value);
+
+        Object remove(int key);
+
+        // 通过 entrySet 遍历
+        void iterate(Blackhole bh);
+
+        // 通过专用接口遍历
+        void forEach(Blackhole bh);
+
+        // 遍历 [from, to) 区间
+        void range(int from, int to, Blackhole bh);
+
+        // 原始的 map，用于统计内存占用
+        Object unwrap();
+    }
+
+    private static class JdkSubject implements Subject {
+
+        private final Map<Integer, Object> delegate;
+
+        JdkSubject(Map<Integer, Object> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object get(int key) {
+            return delegate.get(key);
+        }
+
+        @Override
+        public Object put(int key, Object value) {
+            return delegate.put(key, value);
+        }
+
+        @Override
+        public Object remove(int key) {
+            return delegate.remove(key);
+        }
+
+        @Override
+        public void iterate(Blackhole bh) {
+            for (Map.Entry<Integer, Object> entry : delegate.entrySet()) bh.consume(entry.getKey());
+        }
+
+        @Override
+        public void forEach(Blackhole bh) {
+            delegate.forEach((k, v) -> bh.consume(k));
+        }
+
+        // 有序 map 使用 subMap
+        @Override
+        public void range(int from, int to, Blackhole bh) {
+            for (Object v : ((SortedMap<Integer, Object>) delegate).subMap(from, to).values())
+                bh.consume(v);
+        }
+
+        @Override
+        public Object unwrap() {
+            return delegate;
+        }
+    }
+
+}
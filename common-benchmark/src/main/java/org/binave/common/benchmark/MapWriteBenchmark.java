@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写入：覆盖已有的 key、删除后写回、从空 map 装载
+ *
+ * put、remove 的结果为单次操作的耗时，测试过程中 map 的大小不变；
+ * load 的结果为装载 size 个元素的总耗时
+ *
+ * order 为写入顺序
+ * 分配速率使用 -prof gc 查看
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class MapWriteBenchmark {
+
+    private static final int LOOKUPS = 1024;
+
+    // 只读的 IMMUTABLE_INDEX_MAP 不参与
+    @Param({"INDEX_MAP", "TREE_MAP", "HASH_MAP", "INT2OBJECT_MAP"})
+    private MapType type;
+
+    @Param({"1000", "100000", "10000000"})
+    private int size;
+
+    @Param({"DENSE", "SPARSE"})
+    private String distribution;
+
+    @Param({"ASCENDING", "RANDOM"})
+    private String order;
+
+    private MapType.Subject map;
+
+    private int[] keys, hits;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keys = Keys.generate(distribution, order, size);
+        map = type.create(keys);
+        hits = Keys.hits(Keys.sorted(keys), order, LOOKUPS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void put(Blackhole bh) {
+        for (int key : hits) bh.consume(map.put(key, MapType.VALUE));
+    }
+
+    // 删除后立即写回，map 的大小保持不变
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void remove(Blackhole bh) {
+        for (int key : hits) {
+            bh.consume(map.remove(key));
+            map.put(key, MapType.VALUE);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object load() {
+        return type.create(keys).unwrap();
+    }
+
+}
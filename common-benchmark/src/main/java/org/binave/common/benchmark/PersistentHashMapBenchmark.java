@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.benchmark;
+
+import org.binave.common.collection.PersistentHashMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PersistentHashMap 与 HashMap 对比
+ *
+ * with 与复制后 put 为生成一个修改了一个 key 的新版本；
+ * build 为从 HashMap 批量构建，对照为 HashMap 的复制构造
+ *
+ *      java -jar target/benchmarks.jar PersistentHashMap -prof gc
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class PersistentHashMapBenchmark {
+
+    @Param({"100000", "2000000"})
+    private int size;
+
+    private Map<Integer, Integer> map;
+
+    private PersistentHashMap<Integer, Integer> persistent;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        map = new HashMap<>();
+        for (int i = 0; i < size; i++) map.put(i, i);
+        persistent = PersistentHashMap.copyOf(map);
+    }
+
+    @Benchmark
+    public Object with() {
+        int key = ThreadLocalRandom.current().nextInt(size);
+        return persistent = persistent.with(key, -key);
+    }
+
+    @Benchmark
+    public Object copyPut() {
+        int key = ThreadLocalRandom.current().nextInt(size);
+        Map<Integer, Integer> copy = new HashMap<>(map);
+        copy.put(key, -key);
+        return copy;
+    }
+
+    @Benchmark
+    public Object getPersistent() {
+        return persistent.get(ThreadLocalRandom.current().nextInt(size));
+    }
+
+    @Benchmark
+    public Object getHashMap() {
+        return map.get(ThreadLocalRandom.current().nextInt(size));
+    }
+
+    @Benchmark
+    public Object build() {
+        return PersistentHashMap.<Integer, Integer>builder().putAll(map).build();
+    }
+
+    @Benchmark
+    public Object copyHashMap() {
+        return new HashMap<>(map);
+    }
+
+}
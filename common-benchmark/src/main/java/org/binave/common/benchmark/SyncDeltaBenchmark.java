@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.benchmark;
+
+import org.binave.common.collection.proxy.MapProxy;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 修改一个 key 时，增量更新与复制整个 Map 后替换的对比
+ *
+ * syncApply 在当前实例上叠加修改；syncUpdate 复制、修改后整体替换。
+ * get 为经过 size/16 次增量更新后的读取耗时，与 HashMap 对比
+ *
+ *      java -jar target/benchmarks.jar SyncDelta -prof gc
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class SyncDeltaBenchmark {
+
+    @Param({"100000", "2000000"})
+    private int size;
+
+    private Map<Integer, Integer> map;
+
+    private MapProxy<Integer, Integer> proxy;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        map = new HashMap<>();
+        for (int i = 0; i < size; i++) map.put(i, i);
+        proxy = new MapProxy<>();
+        proxy.syncUpdate(new HashMap<>(map));
+        // 未达到合并的阈值，读取需要经过叠加的各层
+        for (int i = 0; i < size >> 4; i++) {
+            int key = ThreadLocalRandom.current().nextInt(size);
+            proxy.syncApply(Collections.singletonMap(key, -key), Collections.emptyList());
+        }
+    }
+
+    @Benchmark
+    public Object syncApply() {
+        int key = ThreadLocalRandom.current().nextInt(size);
+        return proxy.syncApply(Collections.singletonMap(key, -key), Collections.emptyList());
+    }
+
+    @Benchmark
+    public Object syncUpdate() {
+        int key = ThreadLocalRandom.current().nextInt(size);
+        Map<Integer, Integer> copy = new HashMap<>(proxy);
+        copy.put(key, -key);
+        proxy.syncUpdate(copy);
+        return copy;
+    }
+
+    @Benchmark
+    public Object getProxy() {
+        return proxy.get(ThreadLocalRandom.current().nextInt(size));
+    }
+
+    @Benchmark
+    public Object getHashMap() {
+        return map.get(ThreadLocalRandom.current().nextInt(size));
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 写时复制的线程安全 {@link IndexMap}
+ *
+ * 读：只读取一次 volatile 快照，不加锁、不等待
+ * 写：加锁，复制快照、修改副本后整体发布
+ *
+ * 单个 key 的写入也会复制整个数组，批量修改请使用 {@link #bulkUpdate}，
+ * 一批修改只复制、发布一次。
+ *
+ * 注意：
+ *      keySet、values、entrySet、subMap 等视图是调用时快照的只读视图，
+ *      不会反映之后的修改。需要多次读取保持一致时，使用 {@link #snapshot()}
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public class ConcurrentIndexMap<V> implements SortedMap<Integer, V> {
+
+    private volatile IndexMap<V> map;
+
+    private final Object lock = new Object();
+
+    /**
+     * @see IndexMap#IndexMap(int, float, GrowthPolicy)
+     */
+    public ConcurrentIndexMap(int initialCapacity, float trimFactor, GrowthPolicy growth) {
+        this.map = new IndexMap<>(initialCapacity, trimFactor, growth);
+    }
+
+    public ConcurrentIndexMap() {
+        this.map = new IndexMap<>();
+    }
+
+    public ConcurrentIndexMap(Map<? extends Integer, ? extends V> m) {
+        this.map = new IndexMap<>(m);
+    }
+
+    /**
+     * 批量修改，所有修改完成后发布一个新快照
+     *
+     * 回调中的 IndexMap 是私有副本，不要在回调之外持有。
+     * 回调抛出异常时，不发布任何修改
+     *
+     * @param action 修改操作
+     */
+    public void bulkUpdate(Consumer<IndexMap<V>> action) {
+        write(m -> {
+            action.accept(m);
+            return null;
+        });
+    }
+
+    /**
+     * 获得当前快照的只读视图，多次读取结果一致
+     */
+    public SortedMap<Integer, V> snapshot() {
+        return Collections.unmodifiableSortedMap(map);
+    }
+
+    // 复制、修改、发布
+    private <R> R write(Function<IndexMap<V>, R> action) {
+        synchronized (lock) {
+            IndexMap<V> copy = map.copy();
+            R r = action.apply(copy);
+            map = copy;
+            return r;
+        }
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return map.containsValue(value);
+    }
+
+    @Override
+    public V get(Object key) {
+        return map.get(key);
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        return map.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public V put(Integer key, V value) {
+        return write(m -> m.put(key, value));
+    }
+
+    @Override
+    public V remove(Object key) {
+        // 不存在时不复制
+        if (!map.containsKey(key)) return null;
+        return write(m -> m.remove(key));
+    }
+
+    @Override
+    public void putAll(Map<? extends Integer, ? extends V> m) {
+        write(c -> {
+            c.putAll(m);
+            return null;
+        });
+    }
+
+    @Override
+    public void clear() {
+        write(m -> {
+            m.clear();
+            return null;
+        });
+    }
+
+    @Override
+    public V putIfAbsent(Integer key, V value) {
+        V v = map.get(key);
+        return v != null ? v : write(m -> m.putIfAbsent(key, value));
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return map.containsKey(key) && write(m -> m.remove(key, value));
+    }
+
+    @Override
+    public boolean replace(Integer key, V oldValue, V newValue) {
+        return map.containsKey(key) && write(m -> m.replace(key, oldValue, newValue));
+    }
+
+    @Override
+    public V replace(Integer key, V value) {
+        return map.containsKey(key) ? write(m -> m.replace(key, value)) : null;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super Integer, ? super V, ? extends V> function) {
+        write(m -> {
+            m.replaceAll(function);
+            return null;
+        });
+    }
+
+    @Override
+    public V computeIfAbsent(Integer key, Function<? super Integer, ? extends V> mappingFunction) {
+        V v = map.get(key);
+        return v != null ? v : write(m -> m.computeIfAbsent(key, mappingFunction));
+    }
+
+    @Override
+    public V computeIfPresent(Integer key, BiFunction<? super Integer, ? super V, ? extends V> remappingFunction) {
+        return map.containsKey(key) ? write(m -> m.computeIfPresent(key, remappingFunction)) : null;
+    }
+
+    @Override
+    public V compute(Integer key, BiFunction<? super Integer, ? super V, ? extends V> remappingFunction) {
+        return write(m -> m.compute(key, remappingFunction));
+    }
+
+    @Override
+    public V merge(Integer key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        return write(m -> m.merge(key, value, remappingFunction));
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super Integer, ? super V> action) {
+        map.forEach(action);
+    }
+
+    @Override
+    public Comparator<? super Integer> comparator() {
+        return map.comparator();
+    }
+
+    @Override
+    public SortedMap<Integer, V> subMap(Integer fromKey, Integer toKey) {
+        return Collections.unmodifiableSortedMap(map.subMap(fromKey, toKey));
+    }
+
+    @Override
+    public SortedMap<Integer, V> headMap(Integer toKey) {
+        return Collections.unmodifiableSortedMap(map.headMap(toKey));
+    }
+
+    @Override
+    public SortedMap<Integer, V> tailMap(Integer fromKey) {
+        return Collections.unmodifiableSortedMap(map.tailMap(fromKey));
+    }
+
+    @Override
+    public Integer firstKey() {
+        return map.firstKey();
+    }
+
+    @Override
+    public Integer lastKey() {
+        return map.lastKey();
+    }
+
+    @Override
+    public Set<Integer> keySet() {
+        return Collections.unmodifiableSet(map.keySet());
+    }
+
+    @Override
+    public Collection<V> values() {
+        return Collections.unmodifiableCollection(map.values());
+    }
+
+    @Override
+    public Set<Entry<Integer, V>> entrySet() {
+        return Collections.unmodifiableSet(map.entrySet());
+    }
+
+    @Override
+    public int hashCode() {
+        return map.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj == this || map.equals(obj);
+    }
+
+    @Override
+    public String toString() {
+        return map.toString();
+    }
+}
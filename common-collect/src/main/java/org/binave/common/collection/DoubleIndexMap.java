@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection;
+
+import org.binave.common.util.ArrayUtil;
+
+import java.util.Objects;
+
+/**
+ * 值为 double 的 {@link IndexMap}
+ *
+ * 键、值均不装箱，使用位图记录是否有值，任何 double 值都可以存储。
+ * 不存在的键返回 missingValue（默认为 0.0）
+ *
+ * 注意：
+ *      此 Map 不是线程安全的
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public class DoubleIndexMap extends PrimitiveIndexMap {
+
+    private double[] elementData;
+
+    private final double missingValue; // 键不存在时的返回值
+
+    /**
+     * @param initialCapacity the initial capacity of the array
+     * @param missingValue    键不存在时的返回值
+     * @param growth          扩容策略
+     */
+    public DoubleIndexMap(int initialCapacity, double missingValue, GrowthPolicy growth) {
+        super(initialCapacity, growth);
+        this.missingValue = missingValue;
+        init();
+    }
+
+    public DoubleIndexMap(int initialCapacity) {
+        this(initialCapacity, 0.0, GrowthPolicy.GEOMETRIC);
+    }
+
+    public DoubleIndexMap() {
+        this(0);
+    }
+
+    /**
+     * 键不存在时的返回值
+     */
+    public double getMissingValue() {
+        return missingValue;
+    }
+
+    public double get(int key) {
+        int index = indexOf(key);
+        return index < 0 ? missingValue : elementData[index];
+    }
+
+    public double getOrDefault(int key, double defaultValue) {
+        int index = indexOf(key);
+        return index < 0 ? defaultValue : elementData[index];
+    }
+
+    /**
+     * @return 原来的值，不存在则返回 missingValue
+     */
+    public double put(int key, double value) {
+        int index = putIndex(key);
+        if (index < 0) {
+            elementData[~index] = value;
+            return missingValue;
+        }
+        double v = elementData[index];
+        elementData[index] = value;
+        return v;
+    }
+
+    /**
+     * 在原来的值上增加，不存在时视为 0
+     *
+     * @return 增加后的值
+     */
+    public double addTo(int key, double delta) {
+        int index = putIndex(key);
+        return index < 0 ? (elementData[~index] = delta) : (elementData[index] += delta);
+    }
+
+    /**
+     * @return 被删除的值，不存在则返回 missingValue
+     */
+    public double remove(int key) {
+        int index = removeIndex(key);
+        return index < 0 ? missingValue : elementData[index];
+    }
+
+    /**
+     * 按 key 升序遍历，遍历中不可修改
+     */
+    public void forEach(IntDoubleConsumer action) {
+        Objects.requireNonNull(action);
+        for (int i = first(); i >= 0; i = next(i + 1))
+            action.accept(key(i), elementData[i]);
+    }
+
+    @Override
+    int length() {
+        return elementData.length;
+    }
+
+    @Override
+    void allocate(int length) {
+        elementData = new double[length];
+    }
+
+    @Override
+    void resize(int offsetPlus, int newLength) {
+        elementData = ArrayUtil.offsetCopyOf(elementData, offsetPlus, newLength);
+    }
+
+    @Override
+    int hashAt(int index) {
+        return Double.hashCode(elementData[index]);
+    }
+
+    @Override
+    boolean sameAt(int index, PrimitiveIndexMap m, int mIndex) {
+        return Double.compare(elementData[index], ((DoubleIndexMap) m).elementData[mIndex]) == 0;
+    }
+
+    @Override
+    void appendAt(StringBuilder sb, int index) {
+        sb.append(elementData[index]);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj == this || obj instanceof DoubleIndexMap && sameEntries((DoubleIndexMap) obj);
+    }
+
+    /**
+     * 遍历键值对
+     */
+    @FunctionalInterface
+    public interface IntDoubleConsumer {
+
+        void accept(int key, double value);
+
+    }
+
+}
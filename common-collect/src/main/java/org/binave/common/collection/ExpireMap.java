@@ -53,6 +53,13 @@ public interface ExpireMap<K, V> extends Map<K, V> {
      */
     void setDefaultExpire(long timeMillis);
 
+    /**
+     * 统计的快照，未开启统计时为 {@link ExpireMapStats#EMPTY}
+     */
+    default ExpireMapStats stats() {
+        return ExpireMapStats.EMPTY;
+    }
+
     V getOrDefault(Object key, V defaultValue);
 
     void forEach(BiConsumer<? super K, ? super V> action);
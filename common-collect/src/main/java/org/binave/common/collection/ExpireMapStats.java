@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection;
+
+import java.util.Arrays;
+
+/**
+ * {@link ExpireMap} 统计的快照，不可变
+ *
+ * 时间单位均为纳秒
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public final class ExpireMapStats {
+
+    private static final RemovalCause[] CAUSES = RemovalCause.values();
+
+    /**
+     * 未开启统计
+     */
+    public static final ExpireMapStats EMPTY = new ExpireMapStats(
+            0, 0, 0, 0, 0, new long[CAUSES.length], 0, 0, 0
+    );
+
+    private final long hitCount, missCount;
+
+    private final long loadSuccessCount, loadFailureCount, totalLoadTime;
+
+    // 按 RemovalCause 的序号
+    private final long[] removalCounts;
+
+    private final long sweepCount, totalSweepTime, maxSweepTime;
+
+    /**
+     * @param removalCounts 按 {@link RemovalCause#ordinal()} 排列的移除次数
+     */
+    public ExpireMapStats(long hitCount, long missCount,
+                          long loadSuccessCount, long loadFailureCount, long totalLoadTime,
+                          long[] removalCounts,
+                          long sweepCount, long totalSweepTime, long maxSweepTime) {
+        if (removalCounts.length != CAUSES.length) {
+            throw new IllegalArgumentException("removal counts must have " + CAUSES.length + " causes");
+        }
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.removalCounts = removalCounts.clone();
+        this.sweepCount = sweepCount;
+        this.totalSweepTime = totalSweepTime;
+        this.maxSweepTime = maxSweepTime;
+    }
+
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    public long hitCount() {
+        return hitCount;
+    }
+
+    public long missCount() {
+        return missCount;
+    }
+
+    /**
+     * 没有请求时为 1
+     */
+    public double hitRate() {
+        long requests = requestCount();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    public double missRate() {
+        long requests = requestCount();
+        return requests == 0 ? 0.0 : (double) missCount / requests;
+    }
+
+    public long loadCount() {
+        return loadSuccessCount + loadFailureCount;
+    }
+
+    public long loadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long loadFailureCount() {
+        return loadFailureCount;
+    }
+
+    public long totalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /**
+     * 平均每次加载的耗时
+     */
+    public double averageLoadPenalty() {
+        long loads = loadCount();
+        return loads == 0 ? 0.0 : (double) totalLoadTime / loads;
+    }
+
+    public long removalCount(RemovalCause cause) {
+        return removalCounts[cause.ordinal()];
+    }
+
+    /**
+     * 过期与淘汰的次数
+     */
+    public long evictionCount() {
+        return removalCount(RemovalCause.EXPIRED) + removalCount(RemovalCause.EVICTED);
+    }
+
+    public long sweepCount() {
+        return sweepCount;
+    }
+
+    public long totalSweepTime() {
+        return totalSweepTime;
+    }
+
+    public long maxSweepTime() {
+        return maxSweepTime;
+    }
+
+    public double averageSweepTime() {
+        return sweepCount == 0 ? 0.0 : (double) totalSweepTime / sweepCount;
+    }
+
+    /**
+     * 合并两份统计，用于代理与被代理的 map 各自记录的情况
+     */
+    public ExpireMapStats plus(ExpireMapStats other) {
+        long[] removals = removalCounts.clone();
+        for (int i = 0; i < removals.length; i++) removals[i] += other.removalCounts[i];
+        return new ExpireMapStats(
+                hitCount + other.hitCount, missCount + other.missCount,
+                loadSuccessCount + other.loadSuccessCount, loadFailureCount + other.loadFailureCount,
+                totalLoadTime + other.totalLoadTime,
+                removals,
+                sweepCount + other.sweepCount, totalSweepTime + other.totalSweepTime,
+                Math.max(maxSweepTime, other.maxSweepTime)
+        );
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ExpireMapStats)) return false;
+        ExpireMapStats that = (ExpireMapStats) o;
+        return hitCount == that.hitCount && missCount == that.missCount
+                && loadSuccessCount == that.loadSuccessCount && loadFailureCount == that.loadFailureCount
+                && totalLoadTime == that.totalLoadTime && Arrays.equals(removalCounts, that.removalCounts)
+                && sweepCount == that.sweepCount && totalSweepTime == that.totalSweepTime
+                && maxSweepTime == that.maxSweepTime;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = Long.hashCode(hitCount);
+        h = 31 * h + Long.hashCode(missCount);
+        h = 31 * h + Long.hashCode(loadSuccessCount);
+        h = 31 * h + Long.hashCode(loadFailureCount);
+        h = 31 * h + Long.hashCode(totalLoadTime);
+        h = 31 * h + Arrays.hashCode(removalCounts);
+        h = 31 * h + Long.hashCode(sweepCount);
+        h = 31 * h + Long.hashCode(totalSweepTime);
+        return 31 * h + Long.hashCode(maxSweepTime);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ExpireMapStats{")
+                .append("hits=").append(hitCount)
+                .append(", misses=").append(missCount)
+                .append(", hitRate=").append(String.format("%.4f", hitRate()))
+                .append(", loadSuccess=").append(loadSuccessCount)
+                .append(", loadFailure=").append(loadFailureCount)
+                .append(", totalLoadTime=").append(totalLoadTime);
+        for (RemovalCause cause : CAUSES) {
+            sb.append(", ").append(cause.name().toLowerCase()).append('=').append(removalCount(cause));
+        }
+        return sb.append(", sweeps=").append(sweepCount)
+                .append(", totalSweepTime=").append(totalSweepTime)
+                .append(", maxSweepTime=").append(maxSweepTime)
+                .append('}').toString();
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection;
+
+/**
+ * 数组扩容策略
+ *
+ * 用于 {@link IndexMap} 的头部、尾部扩容。
+ * 返回值小于 minLength 时，按 minLength 处理
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+@FunctionalInterface
+public interface GrowthPolicy {
+
+    /**
+     * 几何增长，每次扩大到原长度的 1.5 倍
+     * 顺序写入时均摊 O(1)
+     *
+     * @see java.util.ArrayList#grow
+     */
+    GrowthPolicy GEOMETRIC = (length, minLength) -> {
+        int newLength = length + (length >> 1);
+        return newLength - minLength < 0 ? minLength : newLength;
+    };
+
+    /**
+     * 线性增长，补齐到 10 的整数倍（旧版本的行为）
+     * 内存紧凑，但是顺序写入时会频繁复制数组
+     */
+    GrowthPolicy LINEAR = (length, minLength) -> {
+        int diff = minLength - length;
+        // 去除个位数，加 10，如果个位大于 6 ，再加 10
+        return length + (diff / 10 + 1) * 10 + (diff % 10 > 6 ? 10 : 0);
+    };
+
+    /**
+     * 精确增长，不预留空位
+     * 适用于一次性装载后只读的场景
+     */
+    GrowthPolicy EXACT = (length, minLength) -> minLength;
+
+    /**
+     * 计算扩容后的数组长度
+     *
+     * @param length    当前数组长度
+     * @param minLength 需要的最小长度
+     * @return 新长度
+     */
+    int grow(int length, int minLength);
+
+}
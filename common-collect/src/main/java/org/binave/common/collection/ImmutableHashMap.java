@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collector;
+
+/**
+ * 只读的哈希 Map，读取优化
+ *
+ * 开放寻址，没有节点对象，键值交替存放在一个数组中 [k0, v0, k1, v1, ...]，
+ * 命中时 key、value 通常在同一个缓存行。两种布局：
+ *      探测：Robin Hood 线性探测，负载约 0.6。另有预先计算的 hash 数组，
+ *           探测时先比较 int，hash 相同才调用 equals；未命中时遇到距离更近的元素即停止
+ *      完美哈希：{@link Builder#perfectHash()}，hash-and-displace 最小完美哈希，
+ *               每个桶一个种子（约 2 个元素一个桶），元素个数即数组长度。
+ *               查找只访问种子与一个位置，不需要 hash 数组，以 key 的 hashCode 排除未命中，
+ *               适用于 String 等缓存了 hashCode 的 key；存在 hashCode 相同的 key 时退回探测布局
+ *
+ * 允许 null 键、null 值。通过 {@link #copyOf}、{@link #builder()}、{@link #toImmutableHashMap} 创建
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public final class ImmutableHashMap<K, V> extends AbstractMap<K, V> {
+
+    private static final ImmutableHashMap<?, ?> EMPTY =
+            new ImmutableHashMap<>(new int[1], new Object[2], null, 0);
+
+    // 查找不到
+    private static final Object NOT_FOUND = new Object();
+
+    // 代替 null 键
+    private static final Object NULL_KEY = new Object();
+
+    private static final int GOLDEN = 0x9E3779B9;
+
+    private static final int BUCKET_SIZE = 2; // 完美哈希每个桶的平均元素个数
+
+    private static final int MAX_ATTEMPTS = 1 << 16; // 完美哈希每个桶尝试的种子个数
+
+    private final int[] hashes; // 0 为空位，完美哈希为 null
+
+    private final Object[] table;
+
+    private final int[] seeds; // 完美哈希的种子，探测布局为 null。负数为直接指定的位置 -slot - 1
+
+    private final int size;
+
+    private Set<Entry<K, V>> entrySet;
+
+    private ImmutableHashMap(int[] hashes, Object[] table, int[] seeds, int size) {
+        this.hashes = hashes;
+        this.table = table;
+        this.seeds = seeds;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> ImmutableHashMap<K, V> of() {
+        return (ImmutableHashMap<K, V>) EMPTY;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> ImmutableHashMap<K, V> copyOf(Map<? extends K, ? extends V> m) {
+        if (m instanceof ImmutableHashMap) return (ImmutableHashMap<K, V>) m;
+        return new Builder<K, V>(m.size()).putAll(m).build();
+    }
+
+    public static <K, V> Builder<K, V> builder() {
+        return new Builder<>(0);
+    }
+
+    /**
+     * @param expectedSize 预计的元素个数
+     */
+    public static <K, V> Builder<K, V> builder(int expectedSize) {
+        return new Builder<>(expectedSize);
+    }
+
+    /**
+     * 从流中收集，重复的 key 保留最后一个
+     *
+     * @param keyMapper   获得 key
+     * @param valueMapper 获得 value
+     */
+    public static <T, K, V> Collector<T, ?, ImmutableHashMap<K, V>> toImmutableHashMap(
+            Function<? super T, ? extends K> keyMapper, Function<? super T, ? extends V> valueMapper) {
+        return Collector.of(
+                Builder<K, V>::new,
+                (b, t) -> b.put(keyMapper.apply(t), valueMapper.apply(t)),
+                Builder::combine,
+                Builder::build
+        );
+    }
+
+    /**
+     * 扰动后的 hash，不为 0
+     * 位置由高位决定，String 等的 hashCode 差异集中在低位，需要充分扰动
+     */
+    private static int hash(Object key) {
+        return spread(key.hashCode());
+    }
+
+    private static int spread(int code) {
+        int h = mix(code, 0);
+        return h == 0 ? GOLDEN : h;
+    }
+
+    // [0, length) 中的位置，取 hash 的高位
+    private static int range(int hash, int length) {
+        return (int) (((hash & 0xFFFFFFFFL) * length) >>> 32);
+    }
+
+    // 带种子的二次 hash（murmur3 fmix32）
+    private static int mix(int hash, int seed) {
+        int h = hash ^ seed * GOLDEN;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ h >>> 16;
+    }
+
+    /**
+     * @return 位置，不存在时返回 -1
+     */
+    private int indexOf(Object key) {
+        if (size == 0) return -1;
+        Object k = key == null ? NULL_KEY : key;
+        int code = k.hashCode(), h = spread(code);
+        Object[] table = this.table;
+        if (seeds != null) {
+            int seed = seeds[range(h, seeds.length)];
+            int i = seed < 0 ? -seed - 1 : range(mix(h, seed), size);
+            Object s = table[i << 1];
+            // 先比较 hashCode（String 已缓存），未命中时不必比较内容
+            return s == k || s.hashCode() == code && k.equals(s) ? i : -1;
+        }
+        int[] hashes = this.hashes;
+        int length = hashes.length;
+        for (int i = range(h, length), distance = 0; ; distance++) {
+            int hi = hashes[i];
+            if (hi == 0) return -1;
+            if (hi == h) {
+                Object s = table[i << 1];
+                if (s == k || k.equals(s)) return i;
+            }
+            // 已经越过了 key 应在的位置
+            if (distance(hi, i, length) < distance) return -1;
+            if (++i == length) i = 0;
+        }
+    }
+
+    // 位置 i 上的元素与其初始位置的距离
+    private static int distance(int hash, int i, int length) {
+        int d = i - range(hash, length);
+        return d < 0 ? d + length : d;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : (V) table[(i << 1) + 1];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue) {
+        int i = indexOf(key);
+        return i < 0 ? defaultValue : (V) table[(i << 1) + 1];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = 0; i < table.length >> 1; i++)
+            if (occupied(i) && Objects.equals(table[(i << 1) + 1], value)) return true;
+        return false;
+    }
+
+    private boolean occupied(int i) {
+        return hashes == null || hashes[i] != 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return 是否为完美哈希布局
+     */
+    public boolean perfect() {
+        return seeds != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (int i = 0; i < table.length >> 1; i++)
+            if (occupied(i)) action.accept(key(i), (V) table[(i << 1) + 1]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private K key(int i) {
+        Object key = table[i << 1];
+        return key == NULL_KEY ? null : (K) key;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es = entrySet;
+        if (es == null) {
+            es = new AbstractSet<Entry<K, V>>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new Iterator<Entry<K, V>>() {
+                        final int length = table.length >> 1;
+
+                        int index = advance(0);
+
+                        private int advance(int i) {
+                            while (i < length && !occupied(i)) ++i;
+                            return i;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < length;
+                        }
+
+                        @Override
+                        @SuppressWarnings("unchecked")
+                        public Entry<K, V> next() {
+                            if (index >= length) throw new NoSuchElementException();
+                            Entry<K, V> entry = new SimpleImmutableEntry<>(key(index), (V) table[(index << 1) + 1]);
+                            index = advance(index + 1);
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    if (!(o instanceof Entry)) return false;
+                    Entry<?, ?> e = (Entry<?, ?>) o;
+                    int i = indexOf(e.getKey());
+                    return i >= 0 && Objects.equals(table[(i << 1) + 1], e.getValue());
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+            entrySet = es;
+        }
+        return es;
+    }
+
+    // 不可修改
+
+    @Override
+    public V put(K key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public V remove(Object key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 构造器
+     *
+     * 写入时只追加，{@link #build()} 时一次性建表。重复的 key 保留最后一个
+     */
+    public static final class Builder<K, V> {
+
+        private Object[] entries; // [k0, v0, k1, v1, ...]
+
+        private int count;
+
+        private boolean perfect;
+
+        private Builder() {
+            this(0);
+        }
+
+        private Builder(int expectedSize) {
+            entries = new Object[Math.max(expectedSize, 10) << 1];
+        }
+
+        public Builder<K, V> put(K key, V value) {
+            if (count << 1 == entries.length)
+                entries = Arrays.copyOf(entries, GrowthPolicy.GEOMETRIC.grow(count, count + 1) << 1);
+            entries[count << 1] = key == null ? NULL_KEY : key;
+            entries[(count++ << 1) + 1] = value;
+            return this;
+        }
+
+        public Builder<K, V> putAll(Map<? extends K, ? extends V> m) {
+            for (Entry<? extends K, ? extends V> entry : m.entrySet())
+                put(entry.getKey(), entry.getValue());
+            return this;
+        }
+
+        /**
+         * 使用最小完美哈希布局
+         * 存在 hashCode 相同的 key 时仍使用探测布局，见 {@link ImmutableHashMap#perfect()}
+         */
+        public Builder<K, V> perfectHash() {
+            this.perfect = true;
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Builder<K, V> combine(Builder<K, V> other) {
+            for (int i = 0; i < other.count; i++) {
+                Object key = other.entries[i << 1];
+                put(key == NULL_KEY ? null : (K) key, (V) other.entries[(i << 1) + 1]);
+            }
+            return this;
+        }
+
+        public ImmutableHashMap<K, V> build() {
+            if (count == 0) return of();
+            // 负载约 0.6，更高时探测次数增加，命中的耗时明显上升
+            int length = count + (count >>> 1) + (count >>> 3) + 1;
+            int[] hashes = new int[length];
+            Object[] table = new Object[length << 1];
+            int size = 0;
+            for (int i = 0; i < count; i++)
+                if (insert(hashes, table, hash(entries[i << 1]), entries[i << 1], entries[(i << 1) + 1])) ++size;
+            if (perfect) {
+                ImmutableHashMap<K, V> map = perfect(hashes, table, size);
+                if (map != null) return map;
+            }
+            return new ImmutableHashMap<>(hashes, table, null, size);
+        }
+
+        /**
+         * Robin Hood 插入：距离初始位置更远的元素优先占位
+         *
+         * @return 是否为新增的 key
+         */
+        private static boolean insert(int[] hashes, Object[] table, int h, Object key, Object value) {
+            int length = hashes.length;
+            for (int i = range(h, length), distance = 0; ; distance++) {
+                int hi = hashes[i];
+                if (hi == 0) {
+                    hashes[i] = h;
+                    table[i << 1] = key;
+                    table[(i << 1) + 1] = value;
+                    return true;
+                }
+                // 相同的 key 一定在交换之前遇到
+                if (hi == h && key.equals(table[i << 1])) {
+                    table[(i << 1) + 1] = value;
+                    return false;
+                }
+                int d = distance(hi, i, length);
+                if (d < distance) {
+                    Object k = table[i << 1], v = table[(i << 1) + 1];
+                    hashes[i] = h;
+                    table[i << 1] = key;
+                    table[(i << 1) + 1] = value;
+                    h = hi;
+                    key = k;
+                    value = v;
+                    distance = d;
+                }
+                if (++i == length) i = 0;
+            }
+        }
+
+        /**
+         * hash-and-displace：按桶从大到小，为每个桶找一个种子，使桶内所有元素落在不同的空位上。
+         * 只有一个元素的桶直接指定剩余的空位
+         *
+         * @return 桶内存在相同 hash 或找不到种子时返回 null
+         */
+        private static <K, V> ImmutableHashMap<K, V> perfect(int[] source, Object[] sourceTable, int size) {
+            int buckets = (size + BUCKET_SIZE - 1) / BUCKET_SIZE;
+            // 按桶排序：桶号在高位，位置在低位
+            long[] order = new long[size];
+            int n = 0;
+            for (int i = 0; i < source.length; i++)
+                if (source[i] != 0) order[n++] = (long) range(source[i], buckets) << 32 | i;
+            Arrays.sort(order);
+
+            // 各桶的区间 [start, end)，按大小降序处理
+            int bucketCount = 0;
+            long[] ranges = new long[buckets];
+            for (int start = 0; start < size; ) {
+                int bucket = (int) (order[start] >>> 32), end = start + 1;
+                while (end < size && (int) (order[end] >>> 32) == bucket) ++end;
+                ranges[bucketCount++] = (long) (size - (end - start)) << 32 | start;
+                start = end;
+            }
+            Arrays.sort(ranges, 0, bucketCount);
+
+            boolean[] used = new boolean[size];
+            Object[] table = new Object[size << 1];
+            int[] seeds = new int[buckets];
+            int[] slots = new int[size];
+            int free = 0; // 单个元素的桶从这里向后找空位
+            for (int r = 0; r < bucketCount; r++) {
+                int length = size - (int) (ranges[r] >>> 32), start = (int) ranges[r];
+                int bucket = (int) (order[start] >>> 32);
+                if (length == 1) {
+                    while (used[free]) ++free;
+                    place(used, table, free, sourceTable, (int) order[start]);
+                    seeds[bucket] = -free - 1;
+                    continue;
+                }
+                int seed = seed(source, order, start, length, used, slots);
+                if (seed < 0) return null;
+                seeds[bucket] = seed;
+                for (int j = 0; j < length; j++) place(used, table, slots[j], sourceTable, (int) order[start + j]);
+            }
+            return new ImmutableHashMap<>(null, table, seeds, size);
+        }
+
+        /**
+         * @return 使桶内元素都落在不同空位上的种子，找不到时返回 -1。位置写入 slots
+         */
+        private static int seed(int[] source, long[] order, int start, int length, boolean[] used, int[] slots) {
+            for (int j = 1; j < length; j++)
+                for (int k = 0; k < j; k++)
+                    if (source[(int) order[start + j]] == source[(int) order[start + k]]) return -1;
+            next:
+            for (int seed = 1; seed < MAX_ATTEMPTS; seed++) {
+                for (int j = 0; j < length; j++) {
+                    int slot = range(mix(source[(int) order[start + j]], seed), used.length);
+                    if (used[slot]) continue next;
+                    for (int k = 0; k < j; k++) if (slots[k] == slot) continue next;
+                    slots[j] = slot;
+                }
+                return seed;
+            }
+            return -1;
+        }
+
+        private static void place(boolean[] used, Object[] table, int slot, Object[] sourceTable, int index) {
+            used[slot] = true;
+            table[slot << 1] = sourceTable[index << 1];
+            table[(slot << 1) + 1] = sourceTable[(index << 1) + 1];
+        }
+    }
+
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collector;
+
+/**
+ * 只读的 {@link IndexMap}
+ *
+ * 数组按元素个数精确分配，没有扩容、trim、modCount 等修改相关的状态。
+ * 按 key 的密度选择两种存储方式：
+ *      密集：values[key - offset]，与 IndexMap 相同，直接下标访问
+ *      稀疏：有序的 keys 与 values 两个数组，二分查找
+ *
+ * 查找只做区间判断，不依赖数组越界异常。
+ * 视图、subMap 共享同一组数组，不复制
+ *
+ * 通过 {@link IndexMap#freeze()}、{@link #builder()}、{@link #of(int[], Object[])} 创建
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public final class ImmutableIndexMap<V> extends AbstractMap<Integer, V> implements SortedMap<Integer, V> {
+
+    private static final ImmutableIndexMap<?> EMPTY =
+            new ImmutableIndexMap<>(null, new Object[0], 0, 0, -1, 0);
+
+    private final int[] keys; // 稀疏存储时有序的 key，密集存储时为 null
+
+    private final Object[] values;
+
+    private final int offset; // 密集存储时 index 下标与 key 的差值
+
+    private final int head, tail; // [head, tail] 闭区间。最小、最大有值索引
+
+    private final int size;
+
+    ImmutableIndexMap(int[] keys, Object[] values, int offset, int head, int tail, int size) {
+        this.keys = keys;
+        this.values = values;
+        this.offset = offset;
+        this.head = head;
+        this.tail = tail;
+        this.size = size;
+    }
+
+    /**
+     * 密集存储的判断：key 跨度不超过元素个数的 2 倍
+     * 此时平铺数组不会比 keys + values 两个数组更大
+     */
+    static boolean dense(int size, long span) {
+        return span <= 2L * size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> ImmutableIndexMap<V> of() {
+        return (ImmutableIndexMap<V>) EMPTY;
+    }
+
+    /**
+     * 使用 key、value 数组创建
+     * key 严格升序时一次遍历完成，否则排序后创建。重复的 key 保留最后一个，value 为 null 的忽略
+     *
+     * @param keys   键
+     * @param values 值，长度与 keys 相同
+     */
+    public static <V> ImmutableIndexMap<V> of(int[] keys, V[] values) {
+        if (keys.length != values.length)
+            throw new IllegalArgumentException("keys.length=" + keys.length + ", values.length=" + values.length);
+        Builder<V> builder = new Builder<>(keys.length);
+        for (int i = 0; i < keys.length; i++) builder.put(keys[i], values[i]);
+        return builder.build();
+    }
+
+    /**
+     * ImmutableIndexMap 直接返回，IndexMap 使用 {@link IndexMap#freeze()}
+     */
+    // 两处转换都只读出 ? extends V，不会写入 m，结果不可修改，当作 V 使用是安全的
+    @SuppressWarnings("unchecked")
+    public static <V> ImmutableIndexMap<V> copyOf(Map<? extends Integer, ? extends V> m) {
+        if (m instanceof ImmutableIndexMap) return (ImmutableIndexMap<V>) m;
+        if (m instanceof IndexMap) return ((IndexMap<V>) m).freeze();
+        return new Builder<V>(m.size()).putAll(m).build();
+    }
+
+    public static <V> Builder<V> builder() {
+        return new Builder<>(0);
+    }
+
+    /**
+     * @param expectedSize 预计的元素个数
+     */
+    public static <V> Builder<V> builder(int expectedSize) {
+        return new Builder<>(expectedSize);
+    }
+
+    /**
+     * 从流中收集，流有序时不需要排序
+     *
+     * @param keyMapper   获得 key
+     * @param valueMapper 获得 value
+     */
+    public static <T, V> Collector<T, ?, ImmutableIndexMap<V>> toImmutableIndexMap(
+            ToIntFunction<? super T> keyMapper, Function<? super T, ? extends V> valueMapper) {
+        return Collector.of(
+                Builder<V>::new,
+                (b, t) -> b.put(keyMapper.applyAsInt(t), valueMapper.apply(t)),
+                Builder::combine,
+                Builder::build
+        );
+    }
+
+    /**
+     * 不装箱的查找
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (keys == null) {
+            long index = (long) key - offset;
+            return index >= head && index <= tail ? (V) values[(int) index] : null;
+        }
+        int index = Arrays.binarySearch(keys, head, tail + 1, key);
+        return index >= 0 ? (V) values[index] : null;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public V get(Object key) {
+        return key instanceof Integer ? get((int) (Integer) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null) return false;
+        for (int i = head; i <= tail; i++)
+            if (value.equals(values[i])) return true;
+        return false;
+    }
+
+    /**
+     * 遍历键值对，不创建 Entry，key 不装箱
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachEntry(IndexMap.IntObjConsumer<? super V> action) {
+        if (action == null) throw new NullPointerException();
+        for (int i = nextIndex(head); i <= tail; i = nextIndex(i + 1))
+            action.accept(key(i), (V) values[i]);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super Integer, ? super V> action) {
+        if (action == null) throw new NullPointerException();
+        forEachEntry(action::accept);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 自然排序
+     */
+    @Override
+    public Comparator<? super Integer> comparator() {
+        return null;
+    }
+
+    @Override
+    public Integer firstKey() {
+        if (isEmpty()) throw new NoSuchElementException();
+        return key(head);
+    }
+
+    @Override
+    public Integer lastKey() {
+        if (isEmpty()) throw new NoSuchElementException();
+        return key(tail);
+    }
+
+    @Override
+    public SortedMap<Integer, V> subMap(Integer fromKey, Integer toKey) {
+        if (fromKey > toKey) throw new IllegalArgumentException("fromKey > toKey");
+        return sub(fromKey, toKey);
+    }
+
+    @Override
+    public SortedMap<Integer, V> headMap(Integer toKey) {
+        return sub(Integer.MIN_VALUE, toKey);
+    }
+
+    @Override
+    public SortedMap<Integer, V> tailMap(Integer fromKey) {
+        return sub(fromKey, Integer.MAX_VALUE + 1L);
+    }
+
+    // 共享数组，[fromKey, toKey) 左闭右开区间
+    private ImmutableIndexMap<V> sub(long fromKey, long toKey) {
+        int from = ceilingIndex(fromKey), to = ceilingIndex(toKey) - 1;
+        if (from > to) return of();
+        if (keys != null)
+            return new ImmutableIndexMap<>(keys, values, offset, from, to, to - from + 1);
+        // 密集存储，收缩到有值位置并统计个数
+        while (values[from] == null) ++from;
+        while (values[to] == null) --to;
+        if (from > to) return of();
+        int count = 0;
+        for (int i = from; i <= to; i++) if (values[i] != null) ++count;
+        return new ImmutableIndexMap<>(null, values, offset, from, to, count);
+    }
+
+    /**
+     * 第一个 key 大于等于参数的索引，范围 [head, tail + 1]
+     */
+    private int ceilingIndex(long key) {
+        if (isEmpty()) return head;
+        if (keys == null)
+            return (int) Math.max(head, Math.min(key - offset, tail + 1L));
+        if (key < Integer.MIN_VALUE) return head;
+        if (key > Integer.MAX_VALUE) return tail + 1;
+        int index = Arrays.binarySearch(keys, head, tail + 1, (int) key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private int key(int index) {
+        return keys == null ? index + offset : keys[index];
+    }
+
+    // 下一个有值索引，没有则返回 tail + 1
+    private int nextIndex(int index) {
+        if (keys == null) while (index <= tail && values[index] == null) ++index;
+        return index;
+    }
+
+    private Set<Entry<Integer, V>> entrySet;
+
+    @Override
+    public Set<Entry<Integer, V>> entrySet() {
+        Set<Entry<Integer, V>> es = entrySet;
+        if (es == null) {
+            es = new AbstractSet<Entry<Integer, V>>() {
+
+                @Override
+                public Iterator<Entry<Integer, V>> iterator() {
+                    return new Iterator<Entry<Integer, V>>() {
+
+                        private int index = head;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index <= tail;
+                        }
+
+                        @Override
+                        @SuppressWarnings("unchecked")
+                        public Entry<Integer, V> next() {
+                            if (index > tail) throw new NoSuchElementException();
+                            Entry<Integer, V> entry =
+                                    new SimpleImmutableEntry<>(key(index), (V) values[index]);
+                            index = nextIndex(index + 1);
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    if (!(o instanceof Entry)) return false;
+                    Entry<?, ?> entry = (Entry<?, ?>) o;
+                    V v = ImmutableIndexMap.this.get(entry.getKey());
+                    return v != null && v.equals(entry.getValue());
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+            entrySet = es;
+        }
+        return es;
+    }
+
+    // 不可修改
+
+    @Override
+    public V put(Integer key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public V remove(Object key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void putAll(Map<? extends Integer, ? extends V> m) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 构造器
+     *
+     * key 升序写入时直接追加，否则在 {@link #build()} 时排序一次。
+     * 重复的 key 保留最后一个，value 为 null 的忽略
+     */
+    public static final class Builder<V> {
+
+        private int[] keys;
+
+        private Object[] values;
+
+        private int count;
+
+        private boolean sorted = true; // key 严格升序
+
+        private Builder() {
+            this(0);
+        }
+
+        private Builder(int expectedSize) {
+            int length = Math.max(expectedSize, 10);
+            keys = new int[length];
+            values = new Object[length];
+        }
+
+        public Builder<V> put(int key, V value) {
+            if (value == null) return this;
+            if (count == keys.length) {
+                int newLength = GrowthPolicy.GEOMETRIC.grow(count, count + 1);
+                keys = Arrays.copyOf(keys, newLength);
+                values = Arrays.copyOf(values, newLength);
+            }
+            if (count > 0 && key <= keys[count - 1]) sorted = false;
+            keys[count] = key;
+            values[count++] = value;
+            return this;
+        }
+
+        public Builder<V> putAll(Map<? extends Integer, ? extends V> m) {
+            for (Entry<? extends Integer, ? extends V> entry : m.entrySet())
+                put(entry.getKey(), entry.getValue());
+            return this;
+        }
+
+        private Builder<V> combine(Builder<V> other) {
+            for (int i = 0; i < other.count; i++) put(other.keys[i], other.value(i));
+            return this;
+        }
+
+        // values 中只有 put 放入的 V
+        @SuppressWarnings("unchecked")
+        private V value(int i) {
+            return (V) values[i];
+        }
+
+        public ImmutableIndexMap<V> build() {
+            if (!sorted) sort();
+            if (count == 0) return of();
+
+            int first = keys[0], last = keys[count - 1];
+            long span = (long) last - first + 1;
+            if (dense(count, span)) {
+                Object[] data = new Object[(int) span];
+                for (int i = 0; i < count; i++) data[keys[i] - first] = values[i];
+                return new ImmutableIndexMap<>(null, data, first, 0, (int) span - 1, count);
+            }
+            return new ImmutableIndexMap<>(
+                    count == keys.length ? keys.clone() : Arrays.copyOf(keys, count),
+                    count == values.length ? values.clone() : Arrays.copyOf(values, count),
+                    0, 0, count - 1, count
+            );
+        }
+
+        /**
+         * 按 key 排序并去重，保留最后写入的值
+         * key 与写入顺序合并成一个 long 排序，不需要装箱
+         */
+        private void sort() {
+            long[] order = new long[count];
+            for (int i = 0; i < count; i++) order[i] = (long) keys[i] << 32 | i;
+            Arrays.sort(order);
+
+            int[] newKeys = new int[count];
+            Object[] newValues = new Object[count];
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                int key = (int) (order[i] >> 32);
+                Object value = values[(int) order[i]];
+                if (n > 0 && newKeys[n - 1] == key) {
+                    newValues[n - 1] = value; // 同一个 key，后写入的排在后面
+                } else {
+                    newKeys[n] = key;
+                    newValues[n++] = value;
+                }
+            }
+            keys = newKeys;
+            values = newValues;
+            count = n;
+            sorted = true;
+        }
+    }
+
+}
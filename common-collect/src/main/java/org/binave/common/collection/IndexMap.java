@@ -19,16 +19,21 @@ package org.binave.common.collection;
 import org.binave.common.util.ArrayUtil;
 
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
 /**
  * 基于数组索引的 {@link Map} 实现
  *
  * 键固定为 Integer 类型
  * 适用于存储【键】连续的数据，如配置表
- * todo 未实现缩小
+ * 开启 trim 后，有效区间占数组的比例低于 trimFactor 时，会缩小数组
+ * 使用位图记录有值位置，稀疏时区间查询、遍历、floor/ceiling 等导航不会逐个扫描空位
+ * 扩容时如果元素占比过低，自动切换为分页存储，避免为稀疏的 key 分配超大数组
  *
  * 注意：
- *      此 Map 不是线程安全的
+ *      此 Map 不是线程安全的，多线程读写请使用 {@link ConcurrentIndexMap}
  *      不支持 clone
  *      不支持 jdk 原生序列化
  *      使用 {@link TreeMap} 作为对照组，通过了随机测试，但不保证没有问题
@@ -36,22 +41,47 @@ import java.util.*;
  * @author bin jin
  * @since 1.8
  */
-public class IndexMap<V> implements SortedMap<Integer, V> {
+public class IndexMap<V> implements NavigableMap<Integer, V> {
 
     /**
      * @see ArrayList#elementData
      */
     private Object[] elementData;
 
-    private int offset; // index 下标与 key 的差值
+    /**
+     * 有值位图，与 elementData 一一对应
+     * 区间统计、查找下一个有值索引时按 long 跳过空位，与元素个数而不是 key 跨度相关
+     *
+     * 头部扩容的位移始终为 64 的整数倍，位图只需要按 long 整体复制
+     */
+    private long[] bits;
+
+    /**
+     * 分页存储，为 null 时使用 elementData 平铺存储
+     *
+     * 两级结构：页目录 + 固定大小的页，页在写入时分配，清空时释放。
+     * 索引为 index 的元素位于 pages[index >>> PAGE_SHIFT][index & PAGE_MASK]
+     * 头部扩容只移动页目录
+     */
+    private Object[][] pages;
+
+    private long[][] pageBits; // 每页的有值位图
 
-    private int head, tail; // [head, tail) 左闭右开区间。最小、最大有值索引
+    private int[] pageCounts; // 每页的元素个数
+
+    private long offset; // index 下标与 key 的差值，使用 long 避免 key 接近 Integer 边界时溢出
+
+    private int head, tail; // [head, tail] 闭区间。最小、最大有值索引
 
     private int modCount; // 修改次数，用来监控循环中的删除操作
 
     private int size; // 存储元素的个数
 
-    private boolean trim; // 是否进行 trim
+    private float trimFactor; // 有效区间占比低于此值时进行 trim，为 0 时不进行 trim
+
+    private int minCapacity; // trim 后数组的最小长度
+
+    private GrowthPolicy growth; // 扩容策略
 
     /**
      * 初始容量
@@ -67,25 +97,68 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
      */
     private static final int MAX_MAP_SIZE = Integer.MAX_VALUE - 8;
 
+    /**
+     * 每页 1024 个元素
+     */
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /**
+     * 最大页数，保证 index 不溢出
+     */
+    private static final int MAX_PAGES = MAX_MAP_SIZE >>> PAGE_SHIFT;
+
+    /**
+     * 扩容后的数组长度不小于此值，且元素占比低于 PAGE_DENSITY 时，切换为分页存储
+     */
+    private static final int PAGE_THRESHOLD = PAGE_SIZE * 16;
+    private static final float PAGE_DENSITY = 1 / 16f;
+
+    /**
+     * 默认的 trim 阈值
+     *
+     * 缩小后有效区间占比为 1/2，再次缩小需要降到 1/4 以下，
+     * 扩容需要超出数组，两者之间留有余量，避免反复复制数组
+     */
+    private static final float DEFAULT_TRIM_FACTOR = 0.25f;
+
     /**
      * 数组的初始容量
      *
      * @param initialCapacity the initial capacity of the array
+     * @param trimFactor      有效区间占比低于此值时缩小数组，取值 [0, 0.5)，为 0 时不缩小
+     * @param growth          扩容策略，头部和尾部扩容时使用
      */
+    public IndexMap(int initialCapacity, float trimFactor, GrowthPolicy growth) {
+        if (growth == null) throw new IllegalArgumentException("growth is null");
+        // 大于等于 0.5 时，缩小后会立即满足下一次缩小的条件
+        if (!(trimFactor >= 0 && trimFactor < 0.5f))
+            throw new IllegalArgumentException("trimFactor: " + trimFactor);
+        this.growth = growth;
+        this.trimFactor = trimFactor;
+        init(initialCapacity);
+        this.minCapacity = length();
+    }
+
+    public IndexMap(int initialCapacity, boolean trim, GrowthPolicy growth) {
+        this(initialCapacity, trim ? DEFAULT_TRIM_FACTOR : 0, growth);
+    }
+
     public IndexMap(int initialCapacity, boolean trim) {
-        init(initialCapacity, trim);
+        this(initialCapacity, trim, GrowthPolicy.GEOMETRIC);
     }
 
     public IndexMap(int initialCapacity) {
-        init(initialCapacity, false);
+        this(initialCapacity, false);
     }
 
     public IndexMap() {
-        init(0, false);
+        this(0, false);
     }
 
     public IndexMap(Map<? extends Integer, ? extends V> m) {
-        init(0, false);
+        this(0, false);
         putAll(m);
     }
 
@@ -95,12 +168,10 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
     }
 
     private int size(int head, int tail) {
-        if (isEmpty() || head > tail || tail < this.head || head > this.tail) return 0;
+        if (preEmpty(head, tail)) return 0;
         // 全部
         if (head <= this.head && tail >= this.tail) return size();
-        int subSize = 0;
-        for (int i = head; i <= tail; i++) if (elementData[i] != null) ++subSize;
-        return subSize;
+        return bitCount(Math.max(head, this.head), Math.min(tail, this.tail));
     }
 
     @Override
@@ -118,26 +189,18 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
         // 全部
         if (head <= this.head && tail >= this.tail) return isEmpty();
 
-        for (int i = 0; i <= (tail - head) / 2; i++) {
-            if (elementData[head + i] != null) return false;
-            if (elementData[tail - i] != null) return false;
-        }
-        return true;
+        return nextIndex(head, tail) < 0;
     }
 
     @Override
     public boolean containsKey(Object key) {
-        return containsKey(0, length() - 1, key);
-    }
-
-    private boolean containsKey(int head, int tail, Object key) {
-        int index = index((Integer) key);
-        return index >= head && index <= tail && elementData[index] != null;
+        long index = index((Integer) key);
+        return index >= 0 && index < length() && data((int) index) != null;
     }
 
     @Override
     public boolean containsValue(Object value) {
-        return indexOfValue(head, tail, value) > 0;
+        return indexOfValue(head, tail, value) >= 0;
     }
 
     /**
@@ -149,10 +212,9 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
     private int indexOfValue(int head, int tail, Object value) {
         if (value == null || preEmpty(head, tail)) return -1;
 
-        for (int i = 0; i <= (tail - head) / 2; i++) {
-            if (value.equals(elementData[head + i])) return head + i;
-            if (value.equals(elementData[tail - i])) return tail - i;
-        }
+        tail = Math.min(tail, this.tail);
+        for (int i = nextIndex(head, tail); i >= 0; i = nextIndex(i + 1, tail))
+            if (value.equals(data(i))) return i;
         return -1;
     }
 
@@ -176,17 +238,9 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
 
     @Override
     public V get(Object key) {
-        try {
-            return (V) elementData[index((Integer) key)];
-        } catch (RuntimeException e) {
-            // ArrayIndexOutOfBoundsException
-            return null;
-        }
-    }
-
-    private V get(int head, int tail, Object key) {
-        int index = index((Integer) key);
-        return index >= head && index <= tail ? get(key) : null;
+        if (key == null || isEmpty()) return null;
+        long index = index((Integer) key);
+        return index >= head && index <= tail ? (V) data((int) index) : null;
     }
 
     @Override
@@ -196,26 +250,21 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
         // 初始化 offset
         if (isEmpty()) initIndex(key);
 
-        int index = index(key);
-        return index < 0 ?
-                extendHead(key, value) :
-                (
-                        index >= length() ?
-                                extendTail(key, value) :
-                                extendNil(key, value)
-                );
+        long index = index(key);
+        if (index < 0 || index >= length()) ensure(index, index, 1);
+        return extendNil(key, value);
     }
 
     @Override
     public V remove(Object key) {
         if (key == null) return null;
         Integer k = (Integer) key;
-        int index = index(k);
-        boolean inRange = index >= head && index <= tail;
-        Object v = inRange ? elementData[index] : null;
-        if (v != null) rectifyDel(index);
-        // offset maybe chang
-        if (inRange) elementData[index(k)] = null;
+        long index = index(k);
+        Object v = index >= head && index <= tail ? data((int) index) : null;
+        if (v != null) {
+            data((int) index, null);
+            rectifyDel((int) index, true);
+        }
         return (V) v;
     }
 
@@ -230,13 +279,13 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
             return;
         }
 
-        int tmpHead = MAX_MAP_SIZE, tmpTail = 0;
+        int tmpHead = Integer.MAX_VALUE, tmpTail = Integer.MIN_VALUE;
 
-        if (m instanceof SortedMap) {
-            // 如果是 sortedMap
+        if (m instanceof SortedMap && ((SortedMap) m).comparator() == null) {
+            // 如果是自然排序的 sortedMap
             SortedMap<? extends Integer, ? extends V> s = (SortedMap) m;
             tmpHead = s.firstKey();
-            tmpTail = s.lastKey() + 1;
+            tmpTail = s.lastKey();
         } else {
             // 确定最大和最小 key
             for (Integer i : m.keySet()) {
@@ -249,7 +298,7 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
         if (isEmpty()) initIndex(tmpHead);
 
         // 为新元素准备好空间
-        extendBoth(tmpHead, tmpTail);
+        extendBoth(tmpHead, tmpTail, m.size());
 
         // 将元素加入
         for (Entry<? extends Integer, ? extends V> entry : m.entrySet())
@@ -259,24 +308,26 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
 
     @Override
     public void clear() {
-        init(0, false);
+        init(minCapacity - DEFAULT_CAPACITY * 2);
     }
 
     private void clear(int head, int tail) {
         if (isEmpty(head, tail)) return;
         if (head <= this.head && tail >= this.tail) {
             clear(); // 全部
-        } else if (head <= this.head) {
-            // 当头部边界重合时，从尾部开始删除，防止多次 trim 导致频繁数组复制
-            for (int i = tail; i >= head; i--)
-                if (elementData[i] != null) remove(key(i));
         } else {
-            for (int i = head; i <= tail; i++)
-                if (elementData[i] != null) remove(key(i));
+            head = Math.max(head, this.head);
+            tail = Math.min(tail, this.tail);
+            // 删除过程中不进行 trim，防止多次 trim 导致频繁数组复制
+            for (int i = nextIndex(head, tail); i >= 0; i = nextIndex(i + 1, tail)) {
+                data(i, null);
+                rectifyDel(i, false);
+            }
+            if (trimFactor > 0) trim();
         }
     }
 
-    private void init(int initialCapacity, boolean trim) {
+    private void init(int initialCapacity) {
         // 将头部标记初始化到最后
         head = initialCapacity > 0 ?
                 initialCapacity + DEFAULT_CAPACITY * 2 :
@@ -285,7 +336,209 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
         offset = 0;
         size = 0;
         elementData = new Object[head];
-        this.trim = trim;
+        bits = new long[ArrayUtil.bitWords(head)];
+        pages = null;
+        pageBits = null;
+        pageCounts = null;
+    }
+
+    /**
+     * 复制一份独立的实例，保留扩容、trim 设置
+     * 数组整体复制，不经过 put
+     */
+    IndexMap<V> copy() {
+        IndexMap<V> m = new IndexMap<>(0, trimFactor, growth);
+        m.minCapacity = minCapacity;
+        m.offset = offset;
+        m.head = head;
+        m.tail = tail;
+        m.size = size;
+        if (pages == null) {
+            m.elementData = elementData.clone();
+            m.bits = bits.clone();
+        } else {
+            m.elementData = null;
+            m.bits = null;
+            m.pages = new Object[pages.length][];
+            m.pageBits = new long[pages.length][];
+            m.pageCounts = pageCounts.clone();
+            for (int p = 0; p < pages.length; p++) {
+                if (pages[p] == null) continue;
+                m.pages[p] = pages[p].clone();
+                m.pageBits[p] = pageBits[p].clone();
+            }
+        }
+        return m;
+    }
+
+    /**
+     * 生成只读的副本，数组按元素个数精确分配
+     * 平铺存储且足够密集时，整体复制有效区间
+     *
+     * @see ImmutableIndexMap
+     */
+    public ImmutableIndexMap<V> freeze() {
+        if (isEmpty()) return ImmutableIndexMap.of();
+        int span = tail - head + 1;
+        if (ImmutableIndexMap.dense(size, span)) {
+            Object[] values;
+            if (pages == null) {
+                values = Arrays.copyOfRange(elementData, head, tail + 1);
+            } else {
+                values = new Object[span];
+                for (int i = head; i >= 0; i = nextIndex(i + 1, tail)) values[i - head] = data(i);
+            }
+            return new ImmutableIndexMap<>(null, values, key(head), 0, span - 1, size);
+        }
+        int[] keys = new int[size];
+        Object[] values = new Object[size];
+        int n = 0;
+        for (int i = head; i >= 0; i = nextIndex(i + 1, tail)) {
+            keys[n] = key(i);
+            values[n++] = data(i);
+        }
+        return new ImmutableIndexMap<>(keys, values, 0, 0, size - 1, size);
+    }
+
+    /**
+     * 将数组压缩到有效区间 [firstKey, lastKey] 的大小
+     *
+     * 适用于装载完成后只读的场景，压缩后再次写入会按扩容策略扩容
+     * 分页存储时，如果元素足够密集，会切换回平铺存储
+     */
+    public void compact() {
+        if (isEmpty()) {
+            if (length() > minCapacity) clear();
+            return;
+        }
+        int span = tail - head + 1;
+        if (pages != null && dense(span)) {
+            flatten(span);
+        } else if (span < length()) resize(span);
+    }
+
+    /**
+     * 有效区间占比低于 trimFactor 时缩小数组
+     * 缩小后有效区间占比为 1/2，头尾各留一半空位
+     */
+    private void trim() {
+        if (isEmpty()) {
+            if (length() > minCapacity) clear();
+            return;
+        }
+        int span = tail - head + 1;
+        if (length() > minCapacity && span < length() * trimFactor) {
+            int newLength = Math.max(span * 2, minCapacity);
+            if (pages != null && dense(newLength)) {
+                flatten(newLength);
+            } else resize(newLength);
+        }
+    }
+
+    /**
+     * 重新分配数组，有效区间居中，并重新计算 offset
+     * 分页存储时，只重新分配页目录
+     *
+     * @param newLength 新长度，不小于有效区间
+     */
+    private void resize(int newLength) {
+        if (pages != null) {
+            resizePages(newLength);
+            return;
+        }
+        int span = tail - head + 1;
+        int headSpare = (newLength - span) / 2;
+        Object[] data = new Object[newLength];
+        System.arraycopy(elementData, head, data, headSpare, span);
+        elementData = data;
+        // 位移不一定对齐，逐个复制有值位
+        long[] newBits = new long[ArrayUtil.bitWords(newLength)];
+        for (int i = head; i >= 0; i = ArrayUtil.nextSetBit(bits, i + 1, tail))
+            ArrayUtil.bitSet(newBits, i - head + headSpare);
+        bits = newBits;
+        offset += head - headSpare;
+        head = headSpare;
+        tail = headSpare + span - 1;
+    }
+
+    // 重新分配页目录，位移为页的整数倍
+    private void resizePages(int newLength) {
+        int firstPage = head >>> PAGE_SHIFT;
+        int spanPages = (tail >>> PAGE_SHIFT) - firstPage + 1;
+        int newPages = Math.max(spanPages, (newLength + PAGE_MASK) >>> PAGE_SHIFT);
+        int headSpare = (newPages - spanPages) / 2;
+
+        Object[][] newData = new Object[newPages][];
+        long[][] newBits = new long[newPages][];
+        int[] newCounts = new int[newPages];
+        System.arraycopy(pages, firstPage, newData, headSpare, spanPages);
+        System.arraycopy(pageBits, firstPage, newBits, headSpare, spanPages);
+        System.arraycopy(pageCounts, firstPage, newCounts, headSpare, spanPages);
+        pages = newData;
+        pageBits = newBits;
+        pageCounts = newCounts;
+
+        int shift = (headSpare - firstPage) << PAGE_SHIFT;
+        offset -= shift;
+        head += shift;
+        tail += shift;
+    }
+
+    /**
+     * 元素占比是否低到需要分页存储
+     *
+     * @param newLength 数组长度
+     * @param adding    将要加入的元素个数
+     */
+    private boolean sparse(int newLength, int adding) {
+        return newLength >= PAGE_THRESHOLD && size + (long) adding < newLength * PAGE_DENSITY;
+    }
+
+    /**
+     * 是否足够密集，可以切换回平铺存储
+     * 阈值是切换为分页时的两倍，避免反复切换
+     */
+    private boolean dense(int newLength) {
+        return newLength < PAGE_THRESHOLD || size >= newLength * PAGE_DENSITY * 2;
+    }
+
+    // 从平铺存储切换为分页存储，页目录覆盖原数组
+    private void paging() {
+        int pageCount = (length() + PAGE_MASK) >>> PAGE_SHIFT;
+        Object[] data = elementData;
+        long[] oldBits = bits;
+
+        elementData = null;
+        bits = null;
+        pages = new Object[pageCount][];
+        pageBits = new long[pageCount][];
+        pageCounts = new int[pageCount];
+
+        if (isEmpty()) return;
+        for (int i = head; i >= 0; i = ArrayUtil.nextSetBit(oldBits, i + 1, tail)) {
+            data(i, data[i]);
+            mark(i);
+        }
+    }
+
+    // 从分页存储切换为平铺存储，有效区间居中
+    private void flatten(int newLength) {
+        int span = tail - head + 1;
+        int headSpare = (newLength - span) / 2;
+        Object[] data = new Object[newLength];
+        long[] newBits = new long[ArrayUtil.bitWords(newLength)];
+        for (int i = head; i >= 0; i = nextIndex(i + 1, tail)) {
+            data[i - head + headSpare] = data(i);
+            ArrayUtil.bitSet(newBits, i - head + headSpare);
+        }
+        elementData = data;
+        bits = newBits;
+        pages = null;
+        pageBits = null;
+        pageCounts = null;
+        offset += head - headSpare;
+        head = headSpare;
+        tail = headSpare + span - 1;
     }
 
     /**
@@ -293,7 +546,7 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
      *
      * @param key 键
      */
-    private int index(int key) {
+    private long index(int key) {
         return key - offset;
     }
 
@@ -303,107 +556,205 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
      * @param index 数组索引
      */
     private int key(int index) {
-        return index + offset;
+        return (int) (index + offset);
     }
 
-    // 初始化 offset 数值
+    // 初始化 offset 数值，空 map 以第一个 key 为基准，头部预留 DEFAULT_CAPACITY 个空位
     private void initIndex(int key) {
-        if (offset != 0 || modCount++ != 0) return;
-        offset = key - DEFAULT_CAPACITY;
+        if (!isEmpty()) return;
+        offset = (long) key - DEFAULT_CAPACITY;
     }
 
-    // 补齐，用于扩展数组大小到整数的十倍
-    private int pads(int index) {
-        if (index < 0) index *= -1;
-
-        // 去除个位数，加 10，如果个位大于 6 ，再加 10
-        return (index / DEFAULT_CAPACITY + 1)
-                * DEFAULT_CAPACITY + (index % DEFAULT_CAPACITY > 6 ? DEFAULT_CAPACITY : 0);
+    /**
+     * 使用扩容策略获得新的长度
+     *
+     * @param length    当前长度
+     * @param minLength 需要的最小长度
+     * @param maxLength 长度上限
+     */
+    private int capacity(int length, long minLength, int maxLength) {
+        // 溢出
+        if (minLength < 0 || minLength > maxLength)
+            throw new OutOfMemoryError("capacity=" + minLength);
+        int newLength = growth.grow(length, (int) minLength);
+        if (newLength < 0 || newLength > maxLength) return maxLength;
+        return newLength < minLength ? (int) minLength : newLength;
     }
 
     private int length() {
-        return elementData.length;
+        return pages == null ? elementData.length : pages.length << PAGE_SHIFT;
+    }
+
+    /**
+     * 读取索引位置的值
+     * 越界时抛出 {@link ArrayIndexOutOfBoundsException}
+     */
+    private Object data(int index) {
+        if (pages == null) return elementData[index];
+        Object[] page = pages[index >>> PAGE_SHIFT];
+        return page == null ? null : page[index & PAGE_MASK];
     }
 
-    private V extendHead(int key, V value) {
-        int index = index(key);
+    /**
+     * 写入索引位置的值，分页存储时按需分配页
+     * 有值位图由 {@link #mark}、{@link #unmark} 维护
+     */
+    private void data(int index, Object value) {
+        if (pages == null) {
+            elementData[index] = value;
+            return;
+        }
+        int p = index >>> PAGE_SHIFT;
+        if (pages[p] == null) {
+            if (value == null) return;
+            pages[p] = new Object[PAGE_SIZE];
+            pageBits[p] = new long[PAGE_SIZE >>> 6];
+        }
+        pages[p][index & PAGE_MASK] = value;
+    }
 
-        // 多线程支持
-        if (index >= 0) {
-            return index >= length() ?
-                    extendTail(key, value) :
-                    extendNil(key, value);
+    // 标记有值
+    private void mark(int index) {
+        if (pages == null) {
+            ArrayUtil.bitSet(bits, index);
+            return;
         }
+        int p = index >>> PAGE_SHIFT;
+        ArrayUtil.bitSet(pageBits[p], index & PAGE_MASK);
+        ++pageCounts[p];
+    }
 
-        // 向左扩充，获得扩充的长度
-        int offsetDiff = pads(index);
-        testCapacity(offsetDiff); // 测试数组是否过大
-        // 右移数组
-        elementData = ArrayUtil.offsetCopyOf(elementData, offsetDiff, Object[].class);
-        offset -= offsetDiff;
-        // index change
-        index = index(key);
-        elementData[index] = value;
-        tail += offsetDiff;
-        head += offsetDiff;
-        rectifyAdd(index);
-        return null;
+    // 取消有值标记，分页存储时释放空页
+    private void unmark(int index) {
+        if (pages == null) {
+            ArrayUtil.bitClear(bits, index);
+            return;
+        }
+        int p = index >>> PAGE_SHIFT;
+        ArrayUtil.bitClear(pageBits[p], index & PAGE_MASK);
+        if (--pageCounts[p] == 0) {
+            pages[p] = null;
+            pageBits[p] = null;
+        }
     }
 
-    private V extendTail(int key, V value) {
-        int index = index(key);
-        int lengthDiff = pads(index);
-        testCapacity(lengthDiff); // 测试数组是否过大
-        // 向右扩充
-        elementData = Arrays.copyOf(elementData, lengthDiff, Object[].class);
-        rectifyAdd(index);
-        elementData[index] = value;
-        return null;
+    // 统计 [from, to] 中有值的个数
+    private int bitCount(int from, int to) {
+        if (pages == null) return ArrayUtil.bitCount(bits, from, to);
+        int count = 0;
+        for (int p = from >>> PAGE_SHIFT; p <= to >>> PAGE_SHIFT; p++) {
+            if (pageBits[p] == null) continue;
+            int base = p << PAGE_SHIFT;
+            count += ArrayUtil.bitCount(pageBits[p],
+                    Math.max(from - base, 0), Math.min(to - base, PAGE_MASK));
+        }
+        return count;
     }
 
     private V extendNil(int key, V value) {
-        int index = index(key);
+        int index = (int) index(key);
         // 看看原来位置上有没有
-        Object v = elementData[index];
+        Object v = data(index);
         // 如果原来的位置为空，则进行添加
+        data(index, value);
         if (v == null) rectifyAdd(index);
-        elementData[index] = value;
         return (V) v;
     }
 
-    private void extendBoth(int headKey, int tailKey) {
+    /**
+     * 为 [headKey, tailKey] 区间准备好空间，不改变有效边界
+     * 有效边界由随后的 {@link #extendNil} 维护
+     *
+     * @param adding 将要加入的元素个数
+     */
+    private void extendBoth(int headKey, int tailKey, int adding) {
+        ensure(index(headKey), index(tailKey), adding);
+    }
+
+    /**
+     * 扩容，使索引区间 [from, to] 可以直接访问
+     * 平铺存储扩容后元素占比过低时，切换为分页存储
+     *
+     * @param from   最小索引，可以为负数
+     * @param to     最大索引，可以超出数组长度
+     * @param adding 将要加入的元素个数，用于计算元素占比
+     */
+    private void ensure(long from, long to, int adding) {
 
         // 左越界，需要与新集合对齐
-        int offsetPlus = index(headKey) < 0 ? pads(index(headKey)) : 0;
+        long headPlus = from < 0 ? -from : 0;
 
         // 右越界
-        int lengthPlus = index(tailKey) + offsetPlus > length() - 1 ?
-                pads(index(tailKey) + offsetPlus)
-                : length();
+        boolean tailOut = to >= length();
 
         // 需要数组进行变化
-        if (offsetPlus == 0 && lengthPlus <= length()) return;
-
-        int newLength = offsetPlus + lengthPlus;
-        testCapacity(newLength - length());
+        if (headPlus == 0 && !tailOut) return;
+
+        long minLength = Math.max(length() + headPlus, to + headPlus + 1);
+
+        if (pages == null) {
+            int newLength = capacity(length(), minLength, MAX_MAP_SIZE);
+            if (!sparse(newLength, adding)) {
+                // 多出的空位：只有头部越界时留在头部，两端越界时平分
+                int spare = (int) (newLength - minLength);
+                int offsetPlus = headPlus == 0 ? 0 : (int) headPlus + (tailOut ? spare / 2 : spare);
+
+                // 位移对齐到 64，尾部空间相应增加
+                int aligned = align(offsetPlus);
+                newLength += aligned - offsetPlus;
+                testCapacity(newLength);
+
+                // 扩展数组
+                shiftBits(aligned, newLength);
+                elementData = ArrayUtil.offsetCopyOf(elementData, aligned, newLength, Object[].class);
+                shift(aligned);
+                return;
+            }
+            paging();
+        }
 
-        // 扩展数组
-        elementData = ArrayUtil.offsetCopyOf(elementData, offsetPlus,
-                newLength, Object[].class);
+        // 分页存储，只扩展页目录
+        int headPages = (int) ((headPlus + PAGE_MASK) >>> PAGE_SHIFT);
+        long minPages = Math.max(pages.length + headPages,
+                ((to + ((long) headPages << PAGE_SHIFT)) >>> PAGE_SHIFT) + 1);
+        int newPages = capacity(pages.length, minPages, MAX_PAGES);
+        int spare = (int) (newPages - minPages);
+        int offsetPages = headPages == 0 ? 0 : headPages + (tailOut ? spare / 2 : spare);
+
+        pages = ArrayUtil.offsetCopyOf(pages, offsetPages, newPages, Object[][].class);
+        pageBits = ArrayUtil.offsetCopyOf(pageBits, offsetPages, newPages, long[][].class);
+        pageCounts = ArrayUtil.offsetCopyOf(pageCounts, offsetPages, newPages);
+        shift(offsetPages << PAGE_SHIFT);
+    }
 
-        // 在不出现错误的情况下，提交对 offset 的修改
+    // 在不出现错误的情况下，提交对 offset 的修改，有效边界要相应修正
+    private void shift(int offsetPlus) {
         offset -= offsetPlus;
+        head += offsetPlus;
+        tail += offsetPlus;
+    }
 
-        // 维护有效边界
-        if (offsetPlus > 0) {
-            head = index(headKey);
-            tail += offsetPlus; // 有 offset 变动的情况，tail 要相应修正
-        } else if (head > index(headKey)) head = index(headKey);
+    // 向上对齐到 64 的整数倍
+    private static int align(int offsetPlus) {
+        return (offsetPlus + 63) & -64;
+    }
 
-        if (lengthPlus > length())
-            tail = index(tailKey);
-        else if (tail < index(tailKey)) tail = index(tailKey);
+    // 测试容量范围
+    private static void testCapacity(int newLength) {
+        if (newLength < 0 || newLength > MAX_MAP_SIZE)
+            throw new OutOfMemoryError("capacity=" + newLength);
+    }
 
+    /**
+     * 扩展位图
+     *
+     * @param offsetPlus 向右移动的位移，64 的整数倍
+     * @param newLength  新数组长度
+     */
+    private void shiftBits(int offsetPlus, int newLength) {
+        long[] newBits = new long[ArrayUtil.bitWords(newLength)];
+        System.arraycopy(bits, 0, newBits, offsetPlus >>> 6, bits.length);
+        bits = newBits;
     }
 
     // 测试区间范围是否合理
@@ -412,52 +763,153 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
             throw new IllegalArgumentException("fromKey > toKey: fromKey=" + fromKey + ", toKey=" + toKey);
     }
 
-    // 测试容量范围
-    private void testCapacity(int newCapacity) {
-        if (newCapacity + length() > MAX_MAP_SIZE || newCapacity + length() < 0)
-            throw new OutOfMemoryError("capacity=" + newCapacity);
-    }
-
     // 处理增加元素所带来的影响
     private void rectifyAdd(int index) {
+        mark(index);
         // 增加的情况
-        if (index < head) head = index;
-        if (index > tail) tail = index;
+        if (isEmpty()) {
+            head = tail = index;
+        } else if (index < head) {
+            head = index;
+        } else if (index > tail) tail = index;
         modCount++;
         size++;
     }
 
-    // 处理减少元素带来的影响
-    private void rectifyDel(int index) {
-        if (size > 0) {
-            if (index == head) {
-                head = nextHeadIndex(head);
-                if (trim && head > tail - head) {
-                    // todo trim left
-                }
-            } else if (index == tail) {
-                tail = nextTailIndex(tail);
-                if (trim && length() - tail > tail - head) {
-                    // todo trim right
-                }
-            }
+    /**
+     * 处理减少元素带来的影响，调用前 index 位置已经置空
+     *
+     * @param trim 是否检查 trim
+     */
+    private void rectifyDel(int index, boolean trim) {
+        unmark(index);
+        modCount++; // 记录修改次数
+        if (--size == 0) {
+            if (trim && trimFactor > 0) trim();
+            return;
+        }
+
+        // 只有边界变化时，有效区间才会变小
+        if (index == head) {
+            head = nextIndex(head + 1, tail);
+        } else if (index == tail) {
+            tail = prevIndex(head, tail - 1);
+        } else return;
+
+        if (trim && trimFactor > 0) trim();
+    }
+
+    /**
+     * 在 [from, to] 中查找第一个有值索引
+     *
+     * @return 没有则返回 -1
+     */
+    private int nextIndex(int from, int to) {
+        if (from < head) from = head;
+        if (to > tail) to = tail;
+        if (pages == null) return ArrayUtil.nextSetBit(bits, from, to);
+        for (int p = from >>> PAGE_SHIFT; from <= to; from = ++p << PAGE_SHIFT) {
+            if (pageBits[p] == null) continue;
+            int base = p << PAGE_SHIFT;
+            int i = ArrayUtil.nextSetBit(pageBits[p], from - base, Math.min(to - base, PAGE_MASK));
+            if (i >= 0) return base + i;
+        }
+        return -1;
+    }
+
+    /**
+     * 在 [from, to] 中查找最后一个有值索引
+     *
+     * @return 没有则返回 -1
+     */
+    private int prevIndex(int from, int to) {
+        if (from < head) from = head;
+        if (to > tail) to = tail;
+        if (pages == null) return ArrayUtil.prevSetBit(bits, from, to);
+        for (int p = to >>> PAGE_SHIFT; from <= to; to = (p-- << PAGE_SHIFT) - 1) {
+            if (pageBits[p] == null) continue;
+            int base = p << PAGE_SHIFT;
+            int i = ArrayUtil.prevSetBit(pageBits[p], Math.max(from - base, 0), to - base);
+            if (i >= 0) return base + i;
+        }
+        return -1;
+    }
 
-            modCount++; // 记录修改次数
-            size--;
+    /**
+     * 将 key 转换为索引，并限制在 [-1, length()] 之内，防止溢出
+     *
+     * @param key 键，可以超出 Integer 的范围
+     */
+    private int rangeIndex(long key) {
+        long index = key - offset;
+        return index < -1 ? -1 : index > length() ? length() : (int) index;
+    }
+
+    /**
+     * 在 key 区间 [fromKey, toKey) 中，查找小于等于 key 的最大有值索引
+     *
+     * @return 没有则返回 -1
+     */
+    private int floorIndex(long key, long fromKey, long toKey) {
+        if (isEmpty()) return -1;
+        if (key >= toKey) key = toKey - 1;
+        if (key < fromKey) return -1;
+        return prevIndex(rangeIndex(fromKey), rangeIndex(key));
+    }
+
+    /**
+     * 在 key 区间 [fromKey, toKey) 中，查找大于等于 key 的最小有值索引
+     *
+     * @return 没有则返回 -1
+     */
+    private int ceilingIndex(long key, long fromKey, long toKey) {
+        if (isEmpty()) return -1;
+        if (key < fromKey) key = fromKey;
+        if (key >= toKey) return -1;
+        return nextIndex(rangeIndex(key), rangeIndex(toKey - 1));
+    }
+
+    // 整个 map 范围内查找
+    private int floorIndex(long key) {
+        return floorIndex(key, Integer.MIN_VALUE, Integer.MAX_VALUE + 1L);
+    }
 
-        } else clear();
+    private int ceilingIndex(long key) {
+        return ceilingIndex(key, Integer.MIN_VALUE, Integer.MAX_VALUE + 1L);
     }
 
-    private int nextHeadIndex(int index) {
-        int i = index + 1;
-        for (; i < tail; i++) if (elementData[i] != null) return i;
-        return i;
+    // 区间左边界转换为闭区间
+    private static long lowBound(Integer key, boolean inclusive) {
+        return inclusive ? key : key + 1L;
     }
 
-    private int nextTailIndex(int index) {
-        int i = index - 1;
-        for (; i > head; i--) if (elementData[i] != null) return i;
-        return i;
+    // 区间右边界转换为开区间
+    private static long highBound(Integer key, boolean inclusive) {
+        return inclusive ? key + 1L : key;
+    }
+
+    private Integer keyOrNull(int index) {
+        return index < 0 ? null : key(index);
+    }
+
+    private Integer keyOrThrow(int index) {
+        if (index < 0) throw new NoSuchElementException();
+        return key(index);
+    }
+
+    /**
+     * 导航方法返回的键值对，不支持 setValue
+     *
+     * @see TreeMap#exportEntry
+     */
+    private Entry<Integer, V> exportEntry(int index) {
+        return index < 0 ? null : new AbstractMap.SimpleImmutableEntry<>(key(index), (V) data(index));
+    }
+
+    private Entry<Integer, V> pollEntry(int index) {
+        Entry<Integer, V> entry = exportEntry(index);
+        if (entry != null) remove(entry.getKey());
+        return entry;
     }
 
     @Override
@@ -488,6 +940,26 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
         }
     }
 
+    /**
+     * 遍历键值对，不创建 Entry，key 不装箱
+     * 使用位图跳过空位
+     */
+    public void forEachEntry(IntObjConsumer<? super V> action) {
+        if (action == null) throw new NullPointerException();
+        if (isEmpty()) return;
+        int expectedModCount = modCount;
+        for (int i = head; i >= 0; i = nextIndex(i + 1, tail)) {
+            action.accept(key(i), (V) data(i));
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super Integer, ? super V> action) {
+        if (action == null) throw new NullPointerException();
+        forEachEntry(action::accept);
+    }
+
     // sub clone
     @Override
     public SortedMap<Integer, V> subMap(Integer fromKey, Integer toKey) {
@@ -497,12 +969,14 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
 
     @Override
     public SortedMap<Integer, V> headMap(Integer toKey) {
-        return subMap(firstKey(), toKey);
+        if (toKey == null) throw new NullPointerException();
+        return new SubSortedMap(Integer.MIN_VALUE, toKey);
     }
 
     @Override
     public SortedMap<Integer, V> tailMap(Integer fromKey) {
-        return subMap(fromKey, lastKey() + 1);
+        if (fromKey == null) throw new NullPointerException();
+        return new SubSortedMap(fromKey, Integer.MAX_VALUE + 1L);
     }
 
     @Override
@@ -517,13 +991,111 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
         return key(tail);
     }
 
+    @Override
+    public NavigableMap<Integer, V> subMap(Integer fromKey, boolean fromInclusive, Integer toKey, boolean toInclusive) {
+        testInterval(fromKey, toKey);
+        return new SubSortedMap(lowBound(fromKey, fromInclusive), highBound(toKey, toInclusive));
+    }
+
+    @Override
+    public NavigableMap<Integer, V> headMap(Integer toKey, boolean inclusive) {
+        return new SubSortedMap(Integer.MIN_VALUE, highBound(toKey, inclusive));
+    }
+
+    @Override
+    public NavigableMap<Integer, V> tailMap(Integer fromKey, boolean inclusive) {
+        return new SubSortedMap(lowBound(fromKey, inclusive), Integer.MAX_VALUE + 1L);
+    }
+
+    @Override
+    public NavigableMap<Integer, V> descendingMap() {
+        return new SubSortedMap(Integer.MIN_VALUE, Integer.MAX_VALUE + 1L, true);
+    }
+
+    @Override
+    public NavigableSet<Integer> navigableKeySet() {
+        return new KeySet(this);
+    }
+
+    @Override
+    public NavigableSet<Integer> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+
+    @Override
+    public Entry<Integer, V> firstEntry() {
+        return isEmpty() ? null : exportEntry(head);
+    }
+
+    @Override
+    public Entry<Integer, V> lastEntry() {
+        return isEmpty() ? null : exportEntry(tail);
+    }
+
+    @Override
+    public Entry<Integer, V> pollFirstEntry() {
+        return isEmpty() ? null : pollEntry(head);
+    }
+
+    @Override
+    public Entry<Integer, V> pollLastEntry() {
+        return isEmpty() ? null : pollEntry(tail);
+    }
+
+    // 导航方法，直接换算索引，通过位图跳过空位
+
+    @Override
+    public Entry<Integer, V> lowerEntry(Integer key) {
+        return exportEntry(floorIndex(key - 1L));
+    }
+
+    @Override
+    public Integer lowerKey(Integer key) {
+        return keyOrNull(floorIndex(key - 1L));
+    }
+
+    @Override
+    public Entry<Integer, V> floorEntry(Integer key) {
+        return exportEntry(floorIndex(key));
+    }
+
+    @Override
+    public Integer floorKey(Integer key) {
+        return keyOrNull(floorIndex(key));
+    }
+
+    @Override
+    public Entry<Integer, V> ceilingEntry(Integer key) {
+        return exportEntry(ceilingIndex(key));
+    }
+
+    @Override
+    public Integer ceilingKey(Integer key) {
+        return keyOrNull(ceilingIndex(key));
+    }
+
+    @Override
+    public Entry<Integer, V> higherEntry(Integer key) {
+        return exportEntry(ceilingIndex(key + 1L));
+    }
+
+    @Override
+    public Integer higherKey(Integer key) {
+        return keyOrNull(ceilingIndex(key + 1L));
+    }
+
     private Set<Integer> keySet;
 
     @Override
     public Set<Integer> keySet() {
         Set<Integer> ks = keySet;
         if (ks == null) {
-            ks = new IndexSet<Integer>() {
+            ks = new IndexSet<Integer>(Spliterator.DISTINCT | Spliterator.SORTED) {
+
+                @Override
+                Integer element(int index) {
+                    return key(index);
+                }
 
                 @Override
                 public Iterator<Integer> iterator() {
@@ -562,11 +1134,16 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
     public Collection<V> values() {
         Collection<V> vs = coll;
         if (vs == null) {
-            vs = new IndexSet<V>() {
+            vs = new IndexSet<V>(0) {
 
                 @Override
-                public Iterator<V> iterator() {
-                    return new SubIterator<V>() {
+                V element(int index) {
+                    return (V) data(index);
+                }
+
+                @Override
+                public Iterator<V> iterator() {
+                    return new SubIterator<V>() {
 
                         @Override
                         public V next() {
@@ -580,13 +1157,13 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
 
                 @Override
                 public boolean contains(Object o) {
-                    return IndexMap.this.indexOfValue(head, tail, o) > 0;
+                    return IndexMap.this.indexOfValue(head, tail, o) >= 0;
                 }
 
                 @Override
                 public boolean remove(Object o) {
                     int collIndex = IndexMap.this.indexOfValue(head, tail, o);
-                    return collIndex > 0 && IndexMap.this.remove(IndexMap.this.key(collIndex)) != null;
+                    return collIndex >= 0 && IndexMap.this.remove(IndexMap.this.key(collIndex)) != null;
                 }
             };
             coll = vs;
@@ -600,7 +1177,12 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
     public Set<Entry<Integer, V>> entrySet() {
         Set<Map.Entry<Integer, V>> es = entrySet;
         if (es == null) {
-            es = new IndexSet<Entry<Integer, V>>() {
+            es = new IndexSet<Entry<Integer, V>>(Spliterator.DISTINCT) {
+
+                @Override
+                Entry<Integer, V> element(int index) {
+                    return newEntry(key(index));
+                }
 
                 @Override
                 public Iterator<Entry<Integer, V>> iterator() {
@@ -637,7 +1219,7 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
                         return true;
                     }
 
-                    int headKey = MAX_MAP_SIZE, tailKey = 0;
+                    int headKey = Integer.MAX_VALUE, tailKey = Integer.MIN_VALUE;
                     for (Entry<Integer, V> entry : c) {
                         int i = entry.getKey();
                         if (headKey > i) headKey = i;
@@ -646,7 +1228,7 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
 
                     if (isEmpty()) initIndex(headKey);
 
-                    extendBoth(headKey, tailKey);
+                    extendBoth(headKey, tailKey, c.size());
                     for (Entry<Integer, V> entry : c)
                         IndexMap.this.extendNil(entry.getKey(), entry.getValue());
 
@@ -719,11 +1301,66 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
         return true;
     }
 
-    // 迭代器实现
+    // 可修改的键值对，setValue 写回 map
+    private Entry<Integer, V> newEntry(Integer key) {
+        return new Entry<Integer, V>() {
+
+            private V value = IndexMap.this.get(key);
+
+            @Override
+            public Integer getKey() {
+                return key;
+            }
+
+            @Override
+            public V getValue() {
+                return value;
+            }
+
+            @Override
+            public V setValue(V value) {
+                this.value = value;
+                return IndexMap.this.extendNil(key, value);
+            }
+
+            @Override
+            public int hashCode() {
+                return key ^ Objects.hashCode(value);
+            }
+
+            @Override
+            public boolean equals(Object obj) {
+                if (obj == this) return true;
+                if (obj instanceof Entry) {
+                    Map.Entry<?, ?> e = (Map.Entry<?, ?>) obj;
+                    if (e.getKey() instanceof Integer) {
+                        int i = (Integer) e.getKey();
+                        return Objects.equals(i, key) &&
+                                Objects.equals(e.getValue(), value);
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public String toString() {
+                return key + "=" + value;
+            }
+
+        };
+    }
+
+    // 迭代器实现，使用 key 记录位置，数组扩容、缩小后依然有效
     private abstract class SubIterator<E> implements Iterator<E> {
 
-        // 初始化当前位置
-        private int _position, _subTail;
+        // [_subHead, _subTail) 左闭右开区间，_position 为下一个要检查的位置
+        private long _position, _subHead, _subTail;
+
+        // 降序遍历
+        private boolean _descending;
+
+        // 上一次返回的 key
+        private int _lastKey;
 
         // 可删除标记
         private boolean _canDel = false;
@@ -733,27 +1370,33 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
 
         // 实现默认迭代器
         SubIterator() {
-            _position = head;
-            _subTail = tail;
+            this(Integer.MIN_VALUE, Integer.MAX_VALUE + 1L);
         }
 
         // 实现 sub 迭代器
-        SubIterator(int newHead, int newTail) {
-            _position = newHead;
-            _subTail = newTail;
+        SubIterator(long fromKey, long toKey) {
+            this(fromKey, toKey, false);
+        }
+
+        SubIterator(long fromKey, long toKey, boolean descending) {
+            _subHead = fromKey;
+            _subTail = toKey;
+            _descending = descending;
+            _position = descending ? toKey - 1 : fromKey;
         }
 
         @Override
         public boolean hasNext() {
-            for (int i = _position; i <= _subTail; i++)
-                if (elementData[i] != null) {
-                    _position = i; // 记录有效值的位置，方便下次查询
-                    return true;
-                }
-            return false;
+            if (isEmpty() || _position < _subHead || _position >= _subTail) return false;
+            int i = _descending ?
+                    prevIndex(rangeIndex(_subHead), rangeIndex(_position)) :
+                    nextIndex(rangeIndex(_position), rangeIndex(_subTail - 1));
+            if (i < 0) return false;
+            _position = key(i); // 记录有效值的位置，方便下次查询
+            return true;
         }
 
-        // 删除键值对，此处不做 sub 情况下的 trim 优化
+        // 删除键值对
         @Override
         public void remove() {
             if (!_canDel) throw new IllegalStateException();
@@ -765,12 +1408,13 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
 
         // 拿到正确的索引
         int globalKey() {
-            return IndexMap.this.key(_position) - 1; // 修正跳过记录位置
+            return _lastKey;
         }
 
         // 跳过当前有效索引
         void skip() {
-            _position++; // 跳过记录位置
+            _lastKey = (int) _position; // 跳过记录位置
+            _position += _descending ? -1 : 1;
             _canDel = true;
         }
 
@@ -786,58 +1430,249 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
         }
 
         Entry<Integer, V> nextEntry() {
-            return new Entry<Integer, V>() {
+            return newEntry(globalKey());
+        }
+    }
 
-                private final Integer key = globalKey();
-                private V value = IndexMap.this.get(key);
+    /**
+     * 按数组索引区间拆分的 spliterator
+     *
+     * 拆分时使用位图统计左半部分的元素个数，拆分后的大小是精确的。
+     * 创建后 map 被修改，遍历时抛出 {@link ConcurrentModificationException}
+     */
+    private final class IndexSpliterator<E> implements Spliterator<E> {
 
-                @Override
-                public Integer getKey() {
-                    return key;
-                }
+        private int _index, _fence; // [_index, _fence] 闭区间
 
-                @Override
-                public V getValue() {
-                    return value;
-                }
+        private int _est; // 区间内的元素个数
 
-                @Override
-                public V setValue(V value) {
-                    this.value = value;
-                    return IndexMap.this.extendNil(key, value);
-                }
+        private final IntFunction<E> _element;
 
-                @Override
-                public int hashCode() {
-                    return key ^ Objects.hashCode(value);
-                }
+        private final int _characteristics;
 
-                @Override
-                public boolean equals(Object obj) {
-                    if (obj == this) return true;
-                    if (obj instanceof Entry) {
-                        Map.Entry<?, ?> e = (Map.Entry<?, ?>) obj;
-                        if (e.getKey() instanceof Integer) {
-                            int i = (Integer) e.getKey();
-                            return Objects.equals(i, key) &&
-                                    Objects.equals(e.getValue(), value);
-                        }
-                    }
-                    return false;
-                }
+        private final int _expectedModCount = modCount;
 
-                @Override
-                public String toString() {
-                    return key + "=" + value;
+        IndexSpliterator(int index, int fence, int est, IntFunction<E> element, int characteristics) {
+            _index = Math.max(index, head);
+            _fence = Math.min(fence, tail);
+            _est = est;
+            _element = element;
+            _characteristics = characteristics |
+                    Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.NONNULL;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            if (action == null) throw new NullPointerException();
+            int i = _est > 0 ? nextIndex(_index, _fence) : -1;
+            if (i < 0) return false;
+            _index = i + 1;
+            --_est;
+            action.accept(_element.apply(i));
+            if (modCount != _expectedModCount) throw new ConcurrentModificationException();
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super E> action) {
+            if (action == null) throw new NullPointerException();
+            if (_est > 0) for (int i = nextIndex(_index, _fence); i >= 0; i = nextIndex(i + 1, _fence))
+                action.accept(_element.apply(i));
+            _index = _fence + 1;
+            _est = 0;
+            if (modCount != _expectedModCount) throw new ConcurrentModificationException();
+        }
+
+        /**
+         * 从中间拆分，前一半交给新的 spliterator
+         * 某一半没有元素时，收缩区间后继续拆分
+         */
+        @Override
+        public Spliterator<E> trySplit() {
+            for (; ; ) {
+                if (_est < 2 || _index >= _fence) return null;
+                int mid = (_index + _fence) >>> 1;
+                int count = bitCount(_index, mid);
+                if (count == 0) {
+                    _index = mid + 1;
+                } else if (count == _est) {
+                    _fence = mid;
+                } else {
+                    Spliterator<E> prefix = new IndexSpliterator<>(_index, mid, count, _element, _characteristics);
+                    _index = mid + 1;
+                    _est -= count;
+                    return prefix;
                 }
+            }
+        }
 
-            };
+        @Override
+        public long estimateSize() {
+            return _est;
+        }
+
+        @Override
+        public int characteristics() {
+            return _characteristics;
+        }
+
+        // 键按自然顺序排序
+        @Override
+        public Comparator<? super E> getComparator() {
+            if (hasCharacteristics(Spliterator.SORTED)) return null;
+            throw new IllegalStateException();
+        }
+    }
+
+    // NavigableSet 形式的 key 视图，遍历使用 map 的 keySet，导航交给 map
+    private final class KeySet extends AbstractSet<Integer> implements NavigableSet<Integer> {
+
+        private final NavigableMap<Integer, V> _map;
+
+        KeySet(NavigableMap<Integer, V> map) {
+            _map = map;
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+            return _map.keySet().iterator();
+        }
+
+        @Override
+        public Spliterator<Integer> spliterator() {
+            return _map.keySet().spliterator();
+        }
+
+        @Override
+        public Iterator<Integer> descendingIterator() {
+            return _map.descendingMap().keySet().iterator();
+        }
+
+        @Override
+        public int size() {
+            return _map.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return _map.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return _map.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return _map.remove(o) != null;
+        }
+
+        @Override
+        public void clear() {
+            _map.clear();
+        }
+
+        @Override
+        public Comparator<? super Integer> comparator() {
+            return _map.comparator();
+        }
+
+        @Override
+        public Integer first() {
+            return _map.firstKey();
+        }
+
+        @Override
+        public Integer last() {
+            return _map.lastKey();
+        }
+
+        @Override
+        public Integer lower(Integer e) {
+            return _map.lowerKey(e);
+        }
+
+        @Override
+        public Integer floor(Integer e) {
+            return _map.floorKey(e);
+        }
+
+        @Override
+        public Integer ceiling(Integer e) {
+            return _map.ceilingKey(e);
+        }
+
+        @Override
+        public Integer higher(Integer e) {
+            return _map.higherKey(e);
+        }
+
+        @Override
+        public Integer pollFirst() {
+            Entry<Integer, V> entry = _map.pollFirstEntry();
+            return entry == null ? null : entry.getKey();
+        }
+
+        @Override
+        public Integer pollLast() {
+            Entry<Integer, V> entry = _map.pollLastEntry();
+            return entry == null ? null : entry.getKey();
+        }
+
+        @Override
+        public NavigableSet<Integer> descendingSet() {
+            return new KeySet(_map.descendingMap());
+        }
+
+        @Override
+        public NavigableSet<Integer> subSet(Integer fromElement, boolean fromInclusive, Integer toElement, boolean toInclusive) {
+            return new KeySet(_map.subMap(fromElement, fromInclusive, toElement, toInclusive));
+        }
+
+        @Override
+        public NavigableSet<Integer> headSet(Integer toElement, boolean inclusive) {
+            return new KeySet(_map.headMap(toElement, inclusive));
+        }
+
+        @Override
+        public NavigableSet<Integer> tailSet(Integer fromElement, boolean inclusive) {
+            return new KeySet(_map.tailMap(fromElement, inclusive));
+        }
+
+        @Override
+        public SortedSet<Integer> subSet(Integer fromElement, Integer toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        @Override
+        public SortedSet<Integer> headSet(Integer toElement) {
+            return headSet(toElement, false);
+        }
+
+        @Override
+        public SortedSet<Integer> tailSet(Integer fromElement) {
+            return tailSet(fromElement, true);
         }
     }
 
     // set 实现
     private abstract class IndexSet<E> extends AbstractSet<E> {
 
+        private final int _characteristics; // spliterator 的附加特征
+
+        IndexSet(int characteristics) {
+            _characteristics = characteristics;
+        }
+
+        // 数组索引位置的元素
+        abstract E element(int index);
+
+        @Override
+        public Spliterator<E> spliterator() {
+            return new IndexSpliterator<>(head, tail, size, this::element, _characteristics);
+        }
+
         @Override
         public int size() {
             return IndexMap.this.size();
@@ -860,24 +1695,43 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
 
     }
 
-    // sub set 实现
+    // sub set 实现，[_subHead, _subTail) 为 key 的左闭右开区间
     private abstract class SubIndexSet<E> extends AbstractSet<E> {
 
-        private int _subHead, _subTail;
+        private long _subHead, _subTail;
 
-        SubIndexSet(int newHead, int newTail) {
-            _subHead = newHead;
-            _subTail = newTail;
+        private final int _characteristics; // spliterator 的附加特征
+
+        private final boolean _descending;
+
+        SubIndexSet(long fromKey, long toKey, int characteristics, boolean descending) {
+            _subHead = fromKey;
+            _subTail = toKey;
+            _characteristics = characteristics;
+            _descending = descending;
+        }
+
+        // 数组索引位置的元素
+        abstract E element(int index);
+
+        @Override
+        public Spliterator<E> spliterator() {
+            // 降序时按迭代器拆分
+            if (_descending)
+                return Spliterators.spliterator(this,
+                        Spliterator.ORDERED | Spliterator.NONNULL | (_characteristics & Spliterator.DISTINCT));
+            int head = headIndex(), tail = tailIndex();
+            return new IndexSpliterator<>(head, tail, IndexMap.this.size(head, tail), this::element, _characteristics);
         }
 
         @Override
         public int size() {
-            return IndexMap.this.size(_subHead, _subTail);
+            return IndexMap.this.size(headIndex(), tailIndex());
         }
 
         @Override
         public boolean isEmpty() {
-            return IndexMap.this.isEmpty(_subHead, _subTail);
+            return IndexMap.this.isEmpty(headIndex(), tailIndex());
         }
 
         @Override
@@ -887,93 +1741,247 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
 
         @Override
         public void clear() {
-            IndexMap.this.clear(_subHead, _subTail);
+            IndexMap.this.clear(headIndex(), tailIndex());
         }
 
         // 查看是否在规定范围内
         boolean inSubRange(Object key) {
-            int subIndex = IndexMap.this.index((Integer) key);
-            return (subIndex >= _subHead) && (subIndex <= _subTail);
+            int k = (Integer) key;
+            return k >= _subHead && k < _subTail;
         }
 
         int subIndexOfValue(Object o) {
-            // IndexMap already trim
-            return IndexMap.this.indexOfValue(_subHead, _subTail, o);
+            return IndexMap.this.indexOfValue(headIndex(), tailIndex(), o);
+        }
+
+        private int headIndex() {
+            return rangeIndex(_subHead);
+        }
+
+        private int tailIndex() {
+            return rangeIndex(_subTail - 1);
         }
     }
 
-    private class SubSortedMap<E> implements SortedMap<Integer, V> {
+    // [_headLimit, _tailLimit) 为 key 的左闭右开区间，_descending 为 true 时按降序排列
+    private class SubSortedMap implements NavigableMap<Integer, V> {
+
+        private long _headLimit, _tailLimit;
+
+        private boolean _descending;
+
+        SubSortedMap(long fromKey, long toKey) {
+            this(fromKey, toKey, false);
+        }
+
+        SubSortedMap(long fromKey, long toKey, boolean descending) {
+            _headLimit = fromKey;
+            _tailLimit = toKey < fromKey ? fromKey : toKey;
+            _descending = descending;
+        }
+
+        // 当前区间在数组中的索引
+        private int headIndex() {
+            return rangeIndex(_headLimit);
+        }
+
+        private int tailIndex() {
+            return rangeIndex(_tailLimit - 1);
+        }
+
+        /**
+         * 按视图方向查找
+         * 降序时 floor 为升序的 ceiling，lower 为升序的 higher
+         */
+        private int floorIndex(long key) {
+            return _descending ?
+                    IndexMap.this.ceilingIndex(key, _headLimit, _tailLimit) :
+                    IndexMap.this.floorIndex(key, _headLimit, _tailLimit);
+        }
 
-        private int _headLimit, _tailLimit;
+        private int ceilingIndex(long key) {
+            return _descending ?
+                    IndexMap.this.floorIndex(key, _headLimit, _tailLimit) :
+                    IndexMap.this.ceilingIndex(key, _headLimit, _tailLimit);
+        }
 
-        SubSortedMap(Integer fromKey, Integer toKey) {
-            _headLimit = IndexMap.this.index(fromKey);
-            _tailLimit = IndexMap.this.index(toKey) - 1;
+        private int lowerIndex(long key) {
+            return floorIndex(_descending ? key + 1 : key - 1);
+        }
+
+        private int higherIndex(long key) {
+            return ceilingIndex(_descending ? key - 1 : key + 1);
+        }
+
+        private int firstIndex() {
+            return ceilingIndex(_descending ? _tailLimit - 1 : _headLimit);
+        }
+
+        private int lastIndex() {
+            return floorIndex(_descending ? _headLimit : _tailLimit - 1);
+        }
+
+        // 使用升序的 key 区间创建子视图，不超出当前区间
+        private SubSortedMap subView(long fromKey, long toKey) {
+            return new SubSortedMap(
+                    Math.max(fromKey, _headLimit),
+                    Math.min(toKey, _tailLimit),
+                    _descending
+            );
         }
 
         @Override
         public Comparator<? super Integer> comparator() {
-            return IndexMap.this.comparator();
+            return _descending ? Collections.reverseOrder() : IndexMap.this.comparator();
         }
 
         @Override
         public SortedMap<Integer, V> subMap(Integer fromKey, Integer toKey) {
-            IndexMap.this.testInterval(fromKey, toKey);
-
-            int fromLimit = IndexMap.this.key(_headLimit), toLimit = IndexMap.this.key(_tailLimit) + 1;
-            return new SubSortedMap<>(
-                    fromKey < fromLimit ? fromLimit : fromKey,
-                    toKey > toLimit ? toLimit : toKey
-            );
+            return subMap(fromKey, true, toKey, false);
         }
 
         @Override
         public SortedMap<Integer, V> headMap(Integer toKey) {
-            return new SubSortedMap(IndexMap.this.key(_headLimit), toKey);
+            return headMap(toKey, false);
         }
 
         @Override
         public SortedMap<Integer, V> tailMap(Integer fromKey) {
-            return new SubSortedMap(fromKey, IndexMap.this.key(_tailLimit) + 1);
+            return tailMap(fromKey, true);
+        }
+
+        @Override
+        public NavigableMap<Integer, V> subMap(Integer fromKey, boolean fromInclusive, Integer toKey, boolean toInclusive) {
+            if (_descending) {
+                IndexMap.this.testInterval(toKey, fromKey);
+                return subView(lowBound(toKey, toInclusive), highBound(fromKey, fromInclusive));
+            }
+            IndexMap.this.testInterval(fromKey, toKey);
+            return subView(lowBound(fromKey, fromInclusive), highBound(toKey, toInclusive));
+        }
+
+        @Override
+        public NavigableMap<Integer, V> headMap(Integer toKey, boolean inclusive) {
+            return _descending ?
+                    subView(lowBound(toKey, inclusive), _tailLimit) :
+                    subView(_headLimit, highBound(toKey, inclusive));
+        }
+
+        @Override
+        public NavigableMap<Integer, V> tailMap(Integer fromKey, boolean inclusive) {
+            return _descending ?
+                    subView(_headLimit, highBound(fromKey, inclusive)) :
+                    subView(lowBound(fromKey, inclusive), _tailLimit);
+        }
+
+        @Override
+        public NavigableMap<Integer, V> descendingMap() {
+            return new SubSortedMap(_headLimit, _tailLimit, !_descending);
+        }
+
+        @Override
+        public NavigableSet<Integer> navigableKeySet() {
+            return new KeySet(this);
+        }
+
+        @Override
+        public NavigableSet<Integer> descendingKeySet() {
+            return descendingMap().navigableKeySet();
         }
 
         @Override
         public Integer firstKey() {
-            if (isEmpty()) throw new NoSuchElementException();
-            int newHead = IndexMap.this.nextHeadIndex(_headLimit - 1); // 允许当前位置为 head
-            return IndexMap.this.key(newHead > _tailLimit ? _tailLimit : newHead);
+            return keyOrThrow(firstIndex());
         }
 
         @Override
         public Integer lastKey() {
-            if (isEmpty()) throw new NoSuchElementException();
-            int newTail = IndexMap.this.nextTailIndex(_tailLimit + 1); // 补偿
-            return IndexMap.this.key(newTail < _headLimit ? _headLimit : newTail);
+            return keyOrThrow(lastIndex());
+        }
+
+        @Override
+        public Entry<Integer, V> firstEntry() {
+            return exportEntry(firstIndex());
+        }
+
+        @Override
+        public Entry<Integer, V> lastEntry() {
+            return exportEntry(lastIndex());
+        }
+
+        @Override
+        public Entry<Integer, V> pollFirstEntry() {
+            return pollEntry(firstIndex());
+        }
+
+        @Override
+        public Entry<Integer, V> pollLastEntry() {
+            return pollEntry(lastIndex());
+        }
+
+        @Override
+        public Entry<Integer, V> lowerEntry(Integer key) {
+            return exportEntry(lowerIndex(key));
+        }
+
+        @Override
+        public Integer lowerKey(Integer key) {
+            return keyOrNull(lowerIndex(key));
+        }
+
+        @Override
+        public Entry<Integer, V> floorEntry(Integer key) {
+            return exportEntry(floorIndex(key));
+        }
+
+        @Override
+        public Integer floorKey(Integer key) {
+            return keyOrNull(floorIndex(key));
+        }
+
+        @Override
+        public Entry<Integer, V> ceilingEntry(Integer key) {
+            return exportEntry(ceilingIndex(key));
+        }
+
+        @Override
+        public Integer ceilingKey(Integer key) {
+            return keyOrNull(ceilingIndex(key));
+        }
+
+        @Override
+        public Entry<Integer, V> higherEntry(Integer key) {
+            return exportEntry(higherIndex(key));
+        }
+
+        @Override
+        public Integer higherKey(Integer key) {
+            return keyOrNull(higherIndex(key));
         }
 
         @Override
         public int size() {
-            return IndexMap.this.size(_headLimit, _tailLimit);
+            return IndexMap.this.size(headIndex(), tailIndex());
         }
 
         @Override
         public boolean isEmpty() {
-            return IndexMap.this.isEmpty(_headLimit, _tailLimit);
+            return IndexMap.this.isEmpty(headIndex(), tailIndex());
         }
 
         @Override
         public boolean containsKey(Object key) {
-            return IndexMap.this.containsKey(_headLimit, _tailLimit, key);
+            return key != null && !outRange((Integer) key) && IndexMap.this.containsKey(key);
         }
 
         @Override
         public boolean containsValue(Object value) {
-            return IndexMap.this.indexOfValue(_headLimit, _tailLimit, value) > 0;
+            return IndexMap.this.indexOfValue(headIndex(), tailIndex(), value) >= 0;
         }
 
         @Override
         public V get(Object key) {
-            return IndexMap.this.get(_headLimit, _tailLimit, key);
+            return key == null || outRange((Integer) key) ? null : IndexMap.this.get(key);
         }
 
         @Override
@@ -990,8 +1998,7 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
         }
 
         private boolean outRange(Integer key) {
-            int i = IndexMap.this.index(key);
-            return i < _headLimit || i >= _tailLimit;
+            return key < _headLimit || key >= _tailLimit;
         }
 
         @Override
@@ -1001,17 +2008,23 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
 
         @Override
         public void clear() {
-            IndexMap.this.clear(_headLimit, _tailLimit);
+            IndexMap.this.clear(headIndex(), tailIndex());
         }
 
         @Override
         public Set<Integer> keySet() {
 
-            return new SubIndexSet<Integer>(_headLimit, _tailLimit) {
+            return new SubIndexSet<Integer>(_headLimit, _tailLimit,
+                    _descending ? Spliterator.DISTINCT : Spliterator.DISTINCT | Spliterator.SORTED, _descending) {
+
+                @Override
+                Integer element(int index) {
+                    return key(index);
+                }
 
                 @Override
                 public Iterator<Integer> iterator() {
-                    return new SubIterator<Integer>(_headLimit, _tailLimit) {
+                    return new SubIterator<Integer>(_headLimit, _tailLimit, _descending) {
 
                         @Override
                         public Integer next() {
@@ -1038,11 +2051,16 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
 
         @Override
         public Collection<V> values() {
-            return new SubIndexSet<V>(_headLimit, _tailLimit) {
+            return new SubIndexSet<V>(_headLimit, _tailLimit, 0, _descending) {
+
+                @Override
+                V element(int index) {
+                    return (V) data(index);
+                }
 
                 @Override
                 public Iterator<V> iterator() {
-                    return new SubIterator<V>(_headLimit, _tailLimit) {
+                    return new SubIterator<V>(_headLimit, _tailLimit, _descending) {
                         @Override
                         public V next() {
                             checkForCoModification();
@@ -1055,24 +2073,29 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
 
                 @Override
                 public boolean contains(Object o) {
-                    return subIndexOfValue(o) > 0;
+                    return subIndexOfValue(o) >= 0;
                 }
 
                 @Override
                 public boolean remove(Object o) {
                     int tmpIndex = subIndexOfValue(o);
-                    return tmpIndex > 0 && IndexMap.this.remove(IndexMap.this.key(tmpIndex)) != null;
+                    return tmpIndex >= 0 && IndexMap.this.remove(IndexMap.this.key(tmpIndex)) != null;
                 }
             };
         }
 
         @Override
         public Set<Entry<Integer, V>> entrySet() {
-            return new SubIndexSet<Entry<Integer, V>>(_headLimit, _tailLimit) {
+            return new SubIndexSet<Entry<Integer, V>>(_headLimit, _tailLimit, Spliterator.DISTINCT, _descending) {
+
+                @Override
+                Entry<Integer, V> element(int index) {
+                    return newEntry(key(index));
+                }
 
                 @Override
                 public Iterator<Entry<Integer, V>> iterator() {
-                    return new SubIterator<Entry<Integer, V>>(_headLimit, _tailLimit) {
+                    return new SubIterator<Entry<Integer, V>>(_headLimit, _tailLimit, _descending) {
 
                         @Override
                         public Entry<Integer, V> next() {
@@ -1120,4 +2143,14 @@ public class IndexMap<V> implements SortedMap<Integer, V> {
         }
     }
 
+    /**
+     * 遍历键值对
+     */
+    @FunctionalInterface
+    public interface IntObjConsumer<V> {
+
+        void accept(int key, V value);
+
+    }
+
 }
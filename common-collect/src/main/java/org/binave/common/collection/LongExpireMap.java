@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection;
+
+import org.binave.common.api.Ticker;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * key 为 long 的过期 Map，适用于以 IdWorker 生成的 id 为 key 的缓存
+ *
+ * 开放寻址（线性探测），key 与过期时间分别存放在 long[] 中，不装箱，
+ * 每个元素只占用 key、过期时间、value 引用三个槽位。
+ * 空槽位以 value 为 null 判断，任何 long 值都可以作为 key，不接受 null value。
+ * 删除时把后续元素前移，不留墓碑。
+ *
+ * 时间的含义与 {@link ExpireMap} 相同：数值大于现在则为时间点，否则为时间差。
+ * 使用默认过期时间的 key 记录的是写入时间，修改默认过期时间时整体生效。
+ *
+ * 读取时遇到过期的 key 直接删除，扩容前先清理一次过期的 key，
+ * 清理出足够的空位时不扩容。size() 包含尚未清理的过期 key，需要准确值时先调用 {@link #trim()}
+ *
+ * 注意：
+ *      此 Map 不是线程安全的
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public class LongExpireMap<V> {
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+
+    // 过期时间点；使用默认过期时间的 key 记录写入时间取反（负数）
+    private long[] expires;
+
+    private Object[] values;
+
+    private int mask;
+
+    private int shift; // 64 - log2(capacity)
+
+    private int threshold; // 容量的 3/4
+
+    private int size;
+
+    private long defaultTimeMillis;
+
+    private final Ticker ticker;
+
+    public LongExpireMap(long defaultTimeMillis) {
+        this(MIN_CAPACITY, defaultTimeMillis);
+    }
+
+    public LongExpireMap(int initialCapacity, long defaultTimeMillis) {
+        this(initialCapacity, defaultTimeMillis, Ticker.SYSTEM);
+    }
+
+    /**
+     * @param initialCapacity   预计的元素个数
+     * @param defaultTimeMillis 默认过期时间
+     * @param ticker            时钟
+     */
+    public LongExpireMap(int initialCapacity, long defaultTimeMillis, Ticker ticker) {
+        if (initialCapacity < 0) throw new IllegalArgumentException("initialCapacity: " + initialCapacity);
+        checkDefault(defaultTimeMillis);
+        this.defaultTimeMillis = defaultTimeMillis;
+        this.ticker = Objects.requireNonNull(ticker);
+        allocate(tableSize(initialCapacity));
+    }
+
+    private static void checkDefault(long timeMillis) {
+        if (timeMillis <= 0) {
+            throw new IllegalArgumentException("default expire must be positive: " + timeMillis);
+        }
+    }
+
+    // 装载因子 0.75 下能容纳 n 个元素的 2 的幂
+    private static int tableSize(int n) {
+        long capacity = Math.max(MIN_CAPACITY, (long) n * 4 / 3 + 1);
+        if (capacity >= MAX_CAPACITY) return MAX_CAPACITY;
+        return Integer.highestOneBit((int) capacity - 1) << 1;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        expires = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        threshold = capacity == MAX_CAPACITY ? MAX_CAPACITY - 1 : capacity / 4 * 3;
+    }
+
+    private long now() {
+        return ticker.millis();
+    }
+
+    /**
+     * 如果数值大于现在，则认为是时间点。
+     * 否则认为是时间差，过去的时间点不小于 0
+     */
+    private static long deadline(long timeMillis, long now) {
+        return timeMillis > now ? timeMillis : Math.max(now + timeMillis, 0);
+    }
+
+    private long expireAt(int index) {
+        long t = expires[index];
+        return t < 0 ? ~t + defaultTimeMillis : t;
+    }
+
+    /**
+     * IdWorker 的 id 低位是序列号，高位是时间，乘法散列后取高位
+     */
+    private int home(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    // 查找 key 所在的槽位，不存在返回 -1
+    private int find(long key) {
+        for (int i = home(key); values[i] != null; i = (i + 1) & mask)
+            if (keys[i] == key) return i;
+        return -1;
+    }
+
+    // 查找未过期的 key，过期的直接删除
+    private int live(long key, long now) {
+        int index = find(key);
+        if (index >= 0 && expireAt(index) <= now) {
+            delete(index);
+            return -1;
+        }
+        return index;
+    }
+
+    public V get(long key) {
+        int index = live(key, now());
+        return index < 0 ? null : value(index);
+    }
+
+    public V getOrDefault(long key, V defaultValue) {
+        int index = live(key, now());
+        return index < 0 ? defaultValue : value(index);
+    }
+
+    /**
+     * 取出并续时
+     */
+    public V get(long key, long timeMillis) {
+        long now = now();
+        int index = live(key, now);
+        if (index < 0) return null;
+        expires[index] = deadline(timeMillis, now);
+        return value(index);
+    }
+
+    public boolean containsKey(long key) {
+        return live(key, now()) >= 0;
+    }
+
+    /**
+     * @return 过期的时间点，不存在时返回 0
+     */
+    public long getExpire(long key) {
+        int index = live(key, now());
+        return index < 0 ? 0 : expireAt(index);
+    }
+
+    /**
+     * 续时
+     * 如果数值大于现在，则认为是新的时间点。
+     * 否则在原过期时间上增加，负数为缩短
+     */
+    public void addExpire(long key, long timeMillis) {
+        long now = now();
+        int index = live(key, now);
+        if (index < 0) return;
+        expires[index] = timeMillis > now ? timeMillis : Math.max(expireAt(index) + timeMillis, 0);
+    }
+
+    /**
+     * 使用默认过期时间
+     *
+     * @return 原来的值
+     */
+    public V put(long key, V value) {
+        long now = now();
+        return put(key, value, ~now, now, false);
+    }
+
+    /**
+     * 如果数值大于现在，则认为是时间点。
+     * 否则认为是时间差
+     *
+     * @return 原来的值
+     */
+    public V put(long key, long timeMillis, V value) {
+        long now = now();
+        return put(key, value, deadline(timeMillis, now), now, false);
+    }
+
+    public V putIfAbsent(long key, V value) {
+        long now = now();
+        return put(key, value, ~now, now, true);
+    }
+
+    public V putIfAbsent(long key, long timeMillis, V value) {
+        long now = now();
+        return put(key, value, deadline(timeMillis, now), now, true);
+    }
+
+    private V put(long key, V value, long expire, long now, boolean ifAbsent) {
+        Objects.requireNonNull(value);
+        int i = home(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] != key) continue;
+            V old = value(i);
+            if (expireAt(i) <= now) old = null; // 过期的 key 视为不存在，原地覆盖
+            else if (ifAbsent) return old;
+            expires[i] = expire;
+            values[i] = value;
+            return old;
+        }
+        if (size >= threshold) {
+            grow(now);
+            i = home(key);
+            while (values[i] != null) i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        expires[i] = expire;
+        values[i] = value;
+        ++size;
+        return null;
+    }
+
+    /**
+     * 先清理过期的 key，清理后仍超过阈值的 3/4 才扩容，
+     * 保证两次清理之间至少有阈值 1/4 次写入
+     */
+    private void grow(long now) {
+        trim(now);
+        if (size < threshold / 4 * 3) return;
+        if (values.length == MAX_CAPACITY) throw new OutOfMemoryError("capacity=" + MAX_CAPACITY);
+
+        long[] oldKeys = keys, oldExpires = expires;
+        Object[] oldValues = values;
+        allocate(oldValues.length << 1);
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] == null) continue;
+            int i = home(oldKeys[j]);
+            while (values[i] != null) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            expires[i] = oldExpires[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    /**
+     * @return 被删除的值，不存在则返回 null
+     */
+    public V remove(long key) {
+        int index = live(key, now());
+        if (index < 0) return null;
+        V old = value(index);
+        delete(index);
+        return old;
+    }
+
+    /**
+     * 删除槽位上的元素，把同一段连续槽位中后续可以前移的元素前移，填补空位
+     */
+    private void delete(int index) {
+        int hole = index;
+        for (int i = (hole + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            // 自身位置到 i 的距离不小于空位到 i 的距离，才能移到空位上
+            if (((i - home(keys[i])) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                expires[hole] = expires[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        values[hole] = null;
+        --size;
+    }
+
+    /**
+     * 清理全部过期缓存
+     */
+    public void trim() {
+        trim(now());
+    }
+
+    private void trim(long now) {
+        for (int i = 0; i < values.length && size > 0; ) {
+            // 删除后空位可能被后面的元素填补，原地再检查一次
+            if (values[i] != null && expireAt(i) <= now) delete(i);
+            else ++i;
+        }
+    }
+
+    /**
+     * 包含尚未清理的过期 key
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * 获得默认过期时间
+     */
+    public long getDefaultExpire() {
+        return defaultTimeMillis;
+    }
+
+    /**
+     * 使用默认过期时间的 key 记录的是写入时间，修改后全部按新的默认时间计算
+     */
+    public void setDefaultExpire(long timeMillis) {
+        checkDefault(timeMillis);
+        this.defaultTimeMillis = timeMillis;
+    }
+
+    /**
+     * 遍历未过期的键值对，顺序不确定，遍历中不可修改
+     */
+    public void forEach(LongObjConsumer<? super V> action) {
+        long now = now();
+        for (int i = 0; i < values.length; i++)
+            if (values[i] != null && expireAt(i) > now) action.accept(keys[i], value(i));
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int index) {
+        return (V) values[index];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        forEach((k, v) -> {
+            if (sb.length() > 1) sb.append(',').append(' ');
+            sb.append(k).append('=').append(v);
+        });
+        return sb.append('}').toString();
+    }
+
+    /**
+     * 遍历键值对
+     */
+    @FunctionalInterface
+    public interface LongObjConsumer<V> {
+
+        void accept(long key, V value);
+
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection;
+
+import org.binave.common.util.ArrayUtil;
+
+import java.util.Objects;
+
+/**
+ * 值为 long 的 {@link IndexMap}
+ *
+ * 键、值均不装箱，使用位图记录是否有值，任何 long 值都可以存储。
+ * 不存在的键返回 missingValue（默认为 0L）
+ *
+ * 注意：
+ *      此 Map 不是线程安全的
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public class LongIndexMap extends PrimitiveIndexMap {
+
+    private long[] elementData;
+
+    private final long missingValue; // 键不存在时的返回值
+
+    /**
+     * @param initialCapacity the initial capacity of the array
+     * @param missingValue    键不存在时的返回值
+     * @param growth          扩容策略
+     */
+    public LongIndexMap(int initialCapacity, long missingValue, GrowthPolicy growth) {
+        super(initialCapacity, growth);
+        this.missingValue = missingValue;
+        init();
+    }
+
+    public LongIndexMap(int initialCapacity) {
+        this(initialCapacity, 0L, GrowthPolicy.GEOMETRIC);
+    }
+
+    public LongIndexMap() {
+        this(0);
+    }
+
+    /**
+     * 键不存在时的返回值
+     */
+    public long getMissingValue() {
+        return missingValue;
+    }
+
+    public long get(int key) {
+        int index = indexOf(key);
+        return index < 0 ? missingValue : elementData[index];
+    }
+
+    public long getOrDefault(int key, long defaultValue) {
+        int index = indexOf(key);
+        return index < 0 ? defaultValue : elementData[index];
+    }
+
+    /**
+     * @return 原来的值，不存在则返回 missingValue
+     */
+    public long put(int key, long value) {
+        int index = putIndex(key);
+        if (index < 0) {
+            elementData[~index] = value;
+            return missingValue;
+        }
+        long v = elementData[index];
+        elementData[index] = value;
+        return v;
+    }
+
+    /**
+     * 在原来的值上增加，不存在时视为 0
+     *
+     * @return 增加后的值
+     */
+    public long addTo(int key, long delta) {
+        int index = putIndex(key);
+        return index < 0 ? (elementData[~index] = delta) : (elementData[index] += delta);
+    }
+
+    /**
+     * @return 被删除的值，不存在则返回 missingValue
+     */
+    public long remove(int key) {
+        int index = removeIndex(key);
+        return index < 0 ? missingValue : elementData[index];
+    }
+
+    /**
+     * 按 key 升序遍历，遍历中不可修改
+     */
+    public void forEach(IntLongConsumer action) {
+        Objects.requireNonNull(action);
+        for (int i = first(); i >= 0; i = next(i + 1))
+            action.accept(key(i), elementData[i]);
+    }
+
+    @Override
+    int length() {
+        return elementData.length;
+    }
+
+    @Override
+    void allocate(int length) {
+        elementData = new long[length];
+    }
+
+    @Override
+    void resize(int offsetPlus, int newLength) {
+        elementData = ArrayUtil.offsetCopyOf(elementData, offsetPlus, newLength);
+    }
+
+    @Override
+    int hashAt(int index) {
+        return Long.hashCode(elementData[index]);
+    }
+
+    @Override
+    boolean sameAt(int index, PrimitiveIndexMap m, int mIndex) {
+        return elementData[index] == ((LongIndexMap) m).elementData[mIndex];
+    }
+
+    @Override
+    void appendAt(StringBuilder sb, int index) {
+        sb.append(elementData[index]);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj == this || obj instanceof LongIndexMap && sameEntries((LongIndexMap) obj);
+    }
+
+    /**
+     * 遍历键值对
+     */
+    @FunctionalInterface
+    public interface IntLongConsumer {
+
+        void accept(int key, long value);
+
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 两个 Map 之间的差异，不可变
+ *
+ * added 为新增的键值，changed 为值发生变化的键及新值，removed 为删除的键。
+ * 三者的键互不相同
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public final class MapDelta<K, V> {
+
+    // 两边元素个数之和达到此值时并行比较
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private static final MapDelta<?, ?> EMPTY = new MapDelta<>(
+            Collections.emptyMap(), Collections.emptyMap(), Collections.emptySet()
+    );
+
+    private final Map<K, V> added, changed;
+
+    private final Set<K> removed;
+
+    /**
+     * 传入的集合由 MapDelta 接管，之后不要再修改
+     */
+    public MapDelta(Map<K, V> added, Map<K, V> changed, Set<K> removed) {
+        this.added = Collections.unmodifiableMap(Objects.requireNonNull(added));
+        this.changed = Collections.unmodifiableMap(Objects.requireNonNull(changed));
+        this.removed = Collections.unmodifiableSet(Objects.requireNonNull(removed));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> MapDelta<K, V> empty() {
+        return (MapDelta<K, V>) EMPTY;
+    }
+
+    /**
+     * 比较两个 Map，值使用 equals 比较
+     * 元素较多时并行比较，比较期间两个 Map 都不能被修改
+     */
+    public static <K, V> MapDelta<K, V> diff(Map<K, V> before, Map<K, V> after) {
+        boolean parallel = before.size() + after.size() >= PARALLEL_THRESHOLD;
+
+        Stream<Map.Entry<K, V>> entries = parallel ? after.entrySet().parallelStream() : after.entrySet().stream();
+        Classifier<K, V> classifier = entries.collect(
+                () -> new Classifier<>(before), Classifier::accept, Classifier::combine
+        );
+
+        Stream<K> keys = parallel ? before.keySet().parallelStream() : before.keySet().stream();
+        Set<K> removed = keys.filter(key -> !after.containsKey(key))
+                .collect(Collectors.toCollection(HashSet::new));
+
+        return new MapDelta<>(classifier.added, classifier.changed, removed);
+    }
+
+    public Map<K, V> added() {
+        return added;
+    }
+
+    public Map<K, V> changed() {
+        return changed;
+    }
+
+    public Set<K> removed() {
+        return removed;
+    }
+
+    /**
+     * 新增与修改合并后的键值
+     */
+    public Map<K, V> upserts() {
+        if (added.isEmpty()) return changed;
+        if (changed.isEmpty()) return added;
+        Map<K, V> upserts = new HashMap<>(added);
+        upserts.putAll(changed);
+        return upserts;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 修改的键的个数
+     */
+    public int size() {
+        return added.size() + changed.size() + removed.size();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (!(obj instanceof MapDelta)) return false;
+        MapDelta<?, ?> d = (MapDelta<?, ?>) obj;
+        return added.equals(d.added) && changed.equals(d.changed) && removed.equals(d.removed);
+    }
+
+    @Override
+    public int hashCode() {
+        return (added.hashCode() * 31 + changed.hashCode()) * 31 + removed.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "MapDelta{added=" + added + ", changed=" + changed + ", removed=" + removed + '}';
+    }
+
+    /**
+     * 按 before 区分新增与修改，并行时每个线程一个，最后合并
+     */
+    private static final class Classifier<K, V> {
+
+        private final Map<K, V> before;
+
+        private final Map<K, V> added = new HashMap<>(), changed = new HashMap<>();
+
+        Classifier(Map<K, V> before) {
+            this.before = before;
+        }
+
+        void accept(Map.Entry<K, V> entry) {
+            K key = entry.getKey();
+            V value = entry.getValue(), old = before.get(key);
+            if (old == null && !before.containsKey(key)) {
+                added.put(key, value);
+            } else if (!Objects.equals(old, value)) {
+                changed.put(key, value);
+            }
+        }
+
+        void combine(Classifier<K, V> other) {
+            added.putAll(other.added);
+            changed.putAll(other.changed);
+        }
+    }
+
+}
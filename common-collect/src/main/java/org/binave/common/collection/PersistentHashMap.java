@@ -0,0 +1,644 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * 持久化（不可变）的哈希 Map，哈希数组映射前缀树（HAMT）
+ *
+ * 每层取 hash 的 5 位，节点内用两个位图分别记录键值对与子节点（CHAMP 布局），
+ * 键值直接存放在节点数组中，不为每个元素分配对象。
+ * {@link #with}、{@link #without} 只复制从根到修改位置的路径，约 log32(n) 个节点，
+ * 其余部分与原 Map 共享，保留多个版本时只增加修改部分的内存。
+ *
+ * 批量修改使用 {@link Builder}：builder 创建的节点在 build 之前原地修改，
+ * build 之后再修改时重新复制，已经生成的 Map 不受影响。
+ *
+ * 允许 null 键、null 值。put、remove 等修改方法抛出 UnsupportedOperationException
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(BitmapNode.EMPTY, 0);
+
+    // 查找不到
+    private static final Object NOT_FOUND = new Object();
+
+    private static final int BITS = 5;
+
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final Node root;
+
+    private final int size;
+
+    private Set<Entry<K, V>> entrySet;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> copyOf(Map<? extends K, ? extends V> map) {
+        if (map instanceof PersistentHashMap) return (PersistentHashMap<K, V>) map;
+        return PersistentHashMap.<K, V>builder().putAll(map).build();
+    }
+
+    public static <K, V> Builder<K, V> builder() {
+        return new Builder<>(BitmapNode.EMPTY, 0);
+    }
+
+    /**
+     * 以当前 Map 为起点的 builder，不影响当前 Map
+     */
+    public Builder<K, V> toBuilder() {
+        return new Builder<>(root, size);
+    }
+
+    /**
+     * @return 加入或替换后的新 Map，值相同（==）时返回自身
+     */
+    public PersistentHashMap<K, V> with(K key, V value) {
+        Change change = new Change();
+        Node node = root.put(null, key, value, hash(key), 0, change);
+        if (node == root) return this;
+        return new PersistentHashMap<>(node, change.added ? size + 1 : size);
+    }
+
+    /**
+     * @return 删除后的新 Map，不存在时返回自身
+     */
+    public PersistentHashMap<K, V> without(Object key) {
+        Change change = new Change();
+        Node node = root.remove(null, key, hash(key), 0, change);
+        if (!change.modified) return this;
+        return new PersistentHashMap<>(node, size - 1);
+    }
+
+    public PersistentHashMap<K, V> withAll(Map<? extends K, ? extends V> map) {
+        if (map.isEmpty()) return this;
+        return toBuilder().putAll(map).build();
+    }
+
+    public PersistentHashMap<K, V> withoutAll(Collection<?> keys) {
+        if (keys.isEmpty()) return this;
+        return toBuilder().removeAll(keys).build();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Object value = root.find(key, hash(key), 0);
+        return value == NOT_FOUND ? null : (V) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue) {
+        Object value = root.find(key, hash(key), 0);
+        return value == NOT_FOUND ? defaultValue : (V) value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return root.find(key, hash(key), 0) != NOT_FOUND;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        root.forEach((BiConsumer<Object, Object>) action);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es = entrySet;
+        return es != null ? es : (entrySet = new EntrySet());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof PersistentHashMap && ((PersistentHashMap<?, ?>) o).root == root) return true;
+        return super.equals(o);
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<K, V>> {
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator<>(root);
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            Object value = root.find(e.getKey(), hash(e.getKey()), 0);
+            return value != NOT_FOUND && Objects.equals(value, e.getValue());
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    // 扰动后的 hash，高位参与低层的索引
+    private static int hash(Object key) {
+        int h = Objects.hashCode(key);
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    /**
+     * 批量修改，非线程安全
+     * build 之后可以继续修改，不影响已经生成的 Map
+     */
+    public static final class Builder<K, V> {
+
+        private Object owner = new Object(); // 本 builder 创建、可以原地修改的节点的标记
+
+        private final Change change = new Change();
+
+        private Node root;
+
+        private int size;
+
+        private Builder(Node root, int size) {
+            this.root = root;
+            this.size = size;
+        }
+
+        public Builder<K, V> put(K key, V value) {
+            change.reset();
+            root = root.put(owner, key, value, hash(key), 0, change);
+            if (change.added) ++size;
+            return this;
+        }
+
+        public Builder<K, V> putAll(Map<? extends K, ? extends V> map) {
+            for (Entry<? extends K, ? extends V> entry : map.entrySet()) put(entry.getKey(), entry.getValue());
+            return this;
+        }
+
+        public Builder<K, V> remove(Object key) {
+            change.reset();
+            root = root.remove(owner, key, hash(key), 0, change);
+            if (change.modified) --size;
+            return this;
+        }
+
+        public Builder<K, V> removeAll(Collection<?> keys) {
+            for (Object key : keys) remove(key);
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public PersistentHashMap<K, V> build() {
+            owner = new Object(); // 已生成的节点不再原地修改
+            return size == 0 ? empty() : new PersistentHashMap<>(root, size);
+        }
+    }
+
+    /**
+     * 修改的结果
+     */
+    private static final class Change {
+
+        boolean modified; // 新增、替换或删除
+
+        boolean added; // 新增
+
+        void reset() {
+            modified = added = false;
+        }
+    }
+
+    private abstract static class Node {
+
+        /**
+         * @return 值，不存在时返回 NOT_FOUND
+         */
+        abstract Object find(Object key, int hash, int shift);
+
+        /**
+         * @param owner 不为 null 且与节点相同时原地修改
+         * @return 修改后的节点，未修改返回自身
+         */
+        abstract Node put(Object owner, Object key, Object value, int hash, int shift, Change change);
+
+        abstract Node remove(Object owner, Object key, int hash, int shift, Change change);
+
+        abstract int dataArity();
+
+        abstract int nodeArity();
+
+        abstract Object key(int index);
+
+        abstract Object value(int index);
+
+        abstract Node node(int index);
+
+        abstract void forEach(BiConsumer<Object, Object> action);
+
+        // 只剩一个键值对，可以内联到上一层
+        boolean single() {
+            return dataArity() == 1 && nodeArity() == 0;
+        }
+    }
+
+    /**
+     * content 前部为键值对 [k0, v0, k1, v1, ...]，按位图顺序排列；
+     * 子节点倒序存放在尾部
+     */
+    private static final class BitmapNode extends Node {
+
+        static final BitmapNode EMPTY = new BitmapNode(null, 0, 0, new Object[0]);
+
+        private final Object owner;
+
+        private int dataMap, nodeMap;
+
+        private Object[] content;
+
+        BitmapNode(Object owner, int dataMap, int nodeMap, Object[] content) {
+            this.owner = owner;
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.content = content;
+        }
+
+        private static int index(int bitmap, int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private int nodeIndex(int bit) {
+            return content.length - 1 - index(nodeMap, bit);
+        }
+
+        @Override
+        Object find(Object key, int hash, int shift) {
+            // 逐层循环，只有 CollisionNode 才调用其 find
+            for (BitmapNode node = this; ; shift += BITS) {
+                int bit = bit(hash, shift);
+                Object[] content = node.content;
+                if ((node.dataMap & bit) != 0) {
+                    int i = index(node.dataMap, bit) << 1;
+                    Object k = content[i];
+                    return k == key || key != null && key.equals(k) ? content[i + 1] : NOT_FOUND;
+                }
+                if ((node.nodeMap & bit) == 0) return NOT_FOUND;
+                Node sub = (Node) content[content.length - 1 - index(node.nodeMap, bit)];
+                if (!(sub instanceof BitmapNode)) return sub.find(key, hash, shift + BITS);
+                node = (BitmapNode) sub;
+            }
+        }
+
+        @Override
+        Node put(Object owner, Object key, Object value, int hash, int shift, Change change) {
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = index(dataMap, bit) << 1;
+                Object k = content[i], v = content[i + 1];
+                if (Objects.equals(k, key)) {
+                    if (v == value) return this;
+                    change.modified = true;
+                    return set(owner, i + 1, value);
+                }
+                change.modified = change.added = true;
+                Node sub = merge(owner, k, v, hash(k), key, value, hash, shift + BITS);
+                return inlineToNode(owner, bit, sub);
+            }
+            if ((nodeMap & bit) != 0) {
+                int i = nodeIndex(bit);
+                Node sub = (Node) content[i], node = sub.put(owner, key, value, hash, shift + BITS, change);
+                return node == sub ? this : set(owner, i, node);
+            }
+            change.modified = change.added = true;
+            return insert(owner, bit, key, value);
+        }
+
+        @Override
+        Node remove(Object owner, Object key, int hash, int shift, Change change) {
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = index(dataMap, bit) << 1;
+                if (!Objects.equals(content[i], key)) return this;
+                change.modified = true;
+                return delete(owner, bit, i);
+            }
+            if ((nodeMap & bit) != 0) {
+                int i = nodeIndex(bit);
+                Node sub = (Node) content[i], node = sub.remove(owner, key, hash, shift + BITS, change);
+                if (!change.modified) return this;
+                if (node.single()) {
+                    // 本层也只剩这一个子节点时整体上移，由上一层内联，根节点总是内联
+                    if (shift != 0 && dataMap == 0 && Integer.bitCount(nodeMap) == 1) return node;
+                    return nodeToInline(owner, bit, node);
+                }
+                return set(owner, i, node);
+            }
+            return this;
+        }
+
+        private boolean editable(Object owner) {
+            return owner != null && owner == this.owner;
+        }
+
+        private Node set(Object owner, int index, Object value) {
+            if (editable(owner)) {
+                content[index] = value;
+                return this;
+            }
+            Object[] copy = content.clone();
+            copy[index] = value;
+            return new BitmapNode(owner, dataMap, nodeMap, copy);
+        }
+
+        private Node insert(Object owner, int bit, Object key, Object value) {
+            int i = index(dataMap, bit) << 1;
+            Object[] copy = new Object[content.length + 2];
+            System.arraycopy(content, 0, copy, 0, i);
+            copy[i] = key;
+            copy[i + 1] = value;
+            System.arraycopy(content, i, copy, i + 2, content.length - i);
+            return update(owner, dataMap | bit, nodeMap, copy);
+        }
+
+        private Node delete(Object owner, int bit, int i) {
+            Object[] copy = new Object[content.length - 2];
+            System.arraycopy(content, 0, copy, 0, i);
+            System.arraycopy(content, i + 2, copy, i, content.length - i - 2);
+            return update(owner, dataMap ^ bit, nodeMap, copy);
+        }
+
+        // 键值对下沉为子节点
+        private Node inlineToNode(Object owner, int bit, Node node) {
+            int i = index(dataMap, bit) << 1;
+            int j = content.length - 2 - index(nodeMap, bit); // 删除键值对后的子节点位置
+            Object[] copy = new Object[content.length - 1];
+            System.arraycopy(content, 0, copy, 0, i);
+            System.arraycopy(content, i + 2, copy, i, j - i);
+            copy[j] = node;
+            System.arraycopy(content, j + 2, copy, j + 1, content.length - j - 2);
+            return update(owner, dataMap ^ bit, nodeMap | bit, copy);
+        }
+
+        // 只剩一个键值对的子节点上移为键值对
+        private Node nodeToInline(Object owner, int bit, Node node) {
+            int i = index(dataMap, bit) << 1;
+            int j = nodeIndex(bit);
+            Object[] copy = new Object[content.length + 1];
+            System.arraycopy(content, 0, copy, 0, i);
+            copy[i] = node.key(0);
+            copy[i + 1] = node.value(0);
+            System.arraycopy(content, i, copy, i + 2, j - i);
+            System.arraycopy(content, j + 1, copy, j + 2, content.length - j - 1);
+            return update(owner, dataMap | bit, nodeMap ^ bit, copy);
+        }
+
+        private Node update(Object owner, int dataMap, int nodeMap, Object[] content) {
+            if (editable(owner)) {
+                this.dataMap = dataMap;
+                this.nodeMap = nodeMap;
+                this.content = content;
+                return this;
+            }
+            return new BitmapNode(owner, dataMap, nodeMap, content);
+        }
+
+        @Override
+        int dataArity() {
+            return Integer.bitCount(dataMap);
+        }
+
+        @Override
+        int nodeArity() {
+            return Integer.bitCount(nodeMap);
+        }
+
+        @Override
+        Object key(int index) {
+            return content[index << 1];
+        }
+
+        @Override
+        Object value(int index) {
+            return content[(index << 1) + 1];
+        }
+
+        @Override
+        Node node(int index) {
+            return (Node) content[content.length - 1 - index];
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> action) {
+            int data = Integer.bitCount(dataMap) << 1;
+            for (int i = 0; i < data; i += 2) action.accept(content[i], content[i + 1]);
+            for (int i = data; i < content.length; i++) ((Node) content[i]).forEach(action);
+        }
+    }
+
+    /**
+     * hash 完全相同的键，线性查找
+     */
+    private static final class CollisionNode extends Node {
+
+        private final Object owner;
+
+        private final int hash;
+
+        private Object[] content; // [k0, v0, k1, v1, ...]
+
+        CollisionNode(Object owner, int hash, Object[] content) {
+            this.owner = owner;
+            this.hash = hash;
+            this.content = content;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < content.length; i += 2)
+                if (Objects.equals(content[i], key)) return i;
+            return -1;
+        }
+
+        @Override
+        Object find(Object key, int hash, int shift) {
+            int i = indexOf(key);
+            return i < 0 ? NOT_FOUND : content[i + 1];
+        }
+
+        @Override
+        Node put(Object owner, Object key, Object value, int hash, int shift, Change change) {
+            int i = indexOf(key);
+            Object[] copy;
+            if (i >= 0) {
+                if (content[i + 1] == value) return this;
+                change.modified = true;
+                copy = owner != null && owner == this.owner ? content : content.clone();
+                copy[i + 1] = value;
+            } else {
+                change.modified = change.added = true;
+                copy = new Object[content.length + 2];
+                System.arraycopy(content, 0, copy, 0, content.length);
+                copy[content.length] = key;
+                copy[content.length + 1] = value;
+            }
+            return update(owner, copy);
+        }
+
+        @Override
+        Node remove(Object owner, Object key, int hash, int shift, Change change) {
+            int i = indexOf(key);
+            if (i < 0) return this;
+            change.modified = true;
+            if (content.length == 4) {
+                // 剩下的一个键值对由上一层内联
+                int j = i ^ 2;
+                return new BitmapNode(owner, 1, 0, new Object[]{content[j], content[j + 1]});
+            }
+            Object[] copy = new Object[content.length - 2];
+            System.arraycopy(content, 0, copy, 0, i);
+            System.arraycopy(content, i + 2, copy, i, content.length - i - 2);
+            return update(owner, copy);
+        }
+
+        private Node update(Object owner, Object[] content) {
+            if (owner != null && owner == this.owner) {
+                this.content = content;
+                return this;
+            }
+            return new CollisionNode(owner, hash, content);
+        }
+
+        @Override
+        int dataArity() {
+            return content.length >> 1;
+        }
+
+        @Override
+        int nodeArity() {
+            return 0;
+        }
+
+        @Override
+        Object key(int index) {
+            return content[index << 1];
+        }
+
+        @Override
+        Object value(int index) {
+            return content[(index << 1) + 1];
+        }
+
+        @Override
+        Node node(int index) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < content.length; i += 2) action.accept(content[i], content[i + 1]);
+        }
+    }
+
+    /**
+     * 两个键值对放入新的子节点，hash 用完时为 CollisionNode
+     */
+    private static Node merge(Object owner, Object k0, Object v0, int h0, Object k1, Object v1, int h1, int shift) {
+        if (shift >= 32) return new CollisionNode(owner, h0, new Object[]{k0, v0, k1, v1});
+        int m0 = (h0 >>> shift) & MASK, m1 = (h1 >>> shift) & MASK;
+        if (m0 != m1) {
+            Object[] content = m0 < m1 ? new Object[]{k0, v0, k1, v1} : new Object[]{k1, v1, k0, v0};
+            return new BitmapNode(owner, 1 << m0 | 1 << m1, 0, content);
+        }
+        Node sub = merge(owner, k0, v0, h0, k1, v1, h1, shift + BITS);
+        return new BitmapNode(owner, 0, 1 << m0, new Object[]{sub});
+    }
+
+    /**
+     * 深度优先遍历，每个节点先输出键值对，再进入子节点
+     */
+    private static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+
+        private final ArrayDeque<Node> stack = new ArrayDeque<>();
+
+        private Node node;
+
+        private int index;
+
+        EntryIterator(Node root) {
+            this.node = root;
+            advance();
+        }
+
+        // 找到下一个有剩余键值对的节点
+        private void advance() {
+            while (node != null && index >= node.dataArity()) {
+                for (int i = node.nodeArity() - 1; i >= 0; i--) stack.push(node.node(i));
+                node = stack.poll();
+                index = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return node != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Entry<K, V> next() {
+            if (node == null) throw new NoSuchElementException();
+            Entry<K, V> entry = new SimpleImmutableEntry<>((K) node.key(index), (V) node.value(index));
+            ++index;
+            advance();
+            return entry;
+        }
+    }
+
+}
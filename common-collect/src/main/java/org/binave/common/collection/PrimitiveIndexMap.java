@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection;
+
+import org.binave.common.util.ArrayUtil;
+
+import java.util.NoSuchElementException;
+
+/**
+ * 基本类型值的 {@link IndexMap} 公共部分
+ *
+ * 负责 key 与数组索引的换算、扩容，记录有值位置的位图，以及遍历、equals、hashCode、toString。
+ * 值数组由子类持有，通过 {@link #allocate}、{@link #resize} 分配，
+ * 子类只按索引读写值数组
+ *
+ * 头部扩容的位移始终为 64 的整数倍，位图只需要按 long 整体复制
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+abstract class PrimitiveIndexMap {
+
+    private static final int DEFAULT_CAPACITY = 10;
+
+    private static final int MAX_MAP_SIZE = Integer.MAX_VALUE - 64;
+
+    long[] bits; // 有值位图
+
+    private long offset; // index 下标与 key 的差值，使用 long 避免 key 接近 Integer 边界时溢出
+
+    int head, tail; // [head, tail] 闭区间。最小、最大有值索引
+
+    private int size; // 存储元素的个数
+
+    private int initialLength; // 初始数组长度
+
+    private GrowthPolicy growth; // 扩容策略
+
+    PrimitiveIndexMap(int initialCapacity, GrowthPolicy growth) {
+        if (growth == null) throw new IllegalArgumentException("growth is null");
+        this.growth = growth;
+        this.initialLength = initialCapacity > 0 ?
+                initialCapacity + DEFAULT_CAPACITY * 2 :
+                DEFAULT_CAPACITY * 2;
+    }
+
+    /**
+     * 值数组的长度
+     */
+    abstract int length();
+
+    /**
+     * 分配新的值数组
+     */
+    abstract void allocate(int length);
+
+    /**
+     * 重新分配值数组，保留原有的值
+     *
+     * @param offsetPlus 向右移动的位移
+     * @param newLength  新长度
+     */
+    abstract void resize(int offsetPlus, int newLength);
+
+    /**
+     * 索引处值的 hash
+     */
+    abstract int hashAt(int index);
+
+    /**
+     * 索引处的值与 m 中 mIndex 处的值相同，m 与本实例同类
+     */
+    abstract boolean sameAt(int index, PrimitiveIndexMap m, int mIndex);
+
+    /**
+     * 把索引处的值追加到 sb
+     */
+    abstract void appendAt(StringBuilder sb, int index);
+
+    // 子类构造完成后调用
+    void init() {
+        head = tail = 0;
+        offset = 0;
+        size = 0;
+        allocate(initialLength);
+        bits = new long[ArrayUtil.bitWords(length())];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    public int firstKey() {
+        if (isEmpty()) throw new NoSuchElementException();
+        return key(head);
+    }
+
+    public int lastKey() {
+        if (isEmpty()) throw new NoSuchElementException();
+        return key(tail);
+    }
+
+    public void clear() {
+        init();
+    }
+
+    /**
+     * 获得有值的索引
+     *
+     * @return 不存在则返回 -1
+     */
+    int indexOf(int key) {
+        long index = (long) key - offset;
+        return index >= 0 && index < length() && ArrayUtil.bitGet(bits, (int) index) ?
+                (int) index : -1;
+    }
+
+    /**
+     * 获得 key 对应的索引，空间不足时扩容
+     * 不修改位图，调用方通过 {@link #added} 登记
+     */
+    int slot(int key) {
+        // 空 map 以第一个 key 为基准，头部预留 DEFAULT_CAPACITY 个空位
+        if (isEmpty()) offset = (long) key - DEFAULT_CAPACITY;
+
+        long index = (long) key - offset;
+        if (index < 0) {
+            // 向左扩充，新增的空位全部留在头部，按 64 对齐
+            int offsetPlus = capacity(length() - index) - length();
+            offsetPlus = (offsetPlus + 63) & -64;
+            extend(offsetPlus, length() + offsetPlus);
+            index += offsetPlus;
+        } else if (index >= length()) {
+            // 向右扩充
+            extend(0, capacity(index + 1));
+        }
+        return (int) index;
+    }
+
+    int key(int index) {
+        return (int) (index + offset);
+    }
+
+    /**
+     * key 对应的索引，不存在时登记为新增，空间不足时扩容
+     *
+     * @return 已存在时为索引，新增时为 ~索引
+     */
+    int putIndex(int key) {
+        int index = slot(key);
+        if (ArrayUtil.bitGet(bits, index)) return index;
+        added(index);
+        return ~index;
+    }
+
+    /**
+     * 删除 key，值数组中的值保留到下一次写入
+     *
+     * @return 被删除的索引，不存在则返回 -1
+     */
+    int removeIndex(int key) {
+        int index = indexOf(key);
+        if (index >= 0) removed(index);
+        return index;
+    }
+
+    // 登记新增的元素
+    void added(int index) {
+        ArrayUtil.bitSet(bits, index);
+        if (size++ == 0) {
+            head = tail = index;
+        } else if (index < head) {
+            head = index;
+        } else if (index > tail) tail = index;
+    }
+
+    // 登记删除的元素
+    void removed(int index) {
+        ArrayUtil.bitClear(bits, index);
+        if (--size == 0) return;
+        if (index == head) {
+            head = ArrayUtil.nextSetBit(bits, head + 1, tail);
+        } else if (index == tail) {
+            tail = ArrayUtil.prevSetBit(bits, head, tail - 1);
+        }
+    }
+
+    // 第一个有值索引，没有则返回 -1
+    int first() {
+        return isEmpty() ? -1 : head;
+    }
+
+    // 下一个有值索引，没有则返回 -1
+    int next(int index) {
+        return ArrayUtil.nextSetBit(bits, index, tail);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (int i = first(); i >= 0; i = next(i + 1))
+            h += key(i) ^ hashAt(i);
+        return h;
+    }
+
+    // 子类的 equals 判断类型后调用
+    boolean sameEntries(PrimitiveIndexMap m) {
+        if (m.size() != size) return false;
+        for (int i = first(); i >= 0; i = next(i + 1)) {
+            int index = m.indexOf(key(i));
+            if (index < 0 || !sameAt(i, m, index)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        if (isEmpty()) return "{}";
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        for (int i = head; i >= 0; i = next(i + 1)) {
+            if (i != head) sb.append(',').append(' ');
+            sb.append(key(i)).append('=');
+            appendAt(sb, i);
+        }
+        return sb.append('}').toString();
+    }
+
+    private int capacity(long minLength) {
+        if (minLength < 0 || minLength > MAX_MAP_SIZE)
+            throw new OutOfMemoryError("capacity=" + minLength);
+        int newLength = growth.grow(length(), (int) minLength);
+        if (newLength < 0 || newLength > MAX_MAP_SIZE) return MAX_MAP_SIZE;
+        return newLength < minLength ? (int) minLength : newLength;
+    }
+
+    private void extend(int offsetPlus, int newLength) {
+        resize(offsetPlus, newLength);
+        long[] newBits = new long[ArrayUtil.bitWords(newLength)];
+        System.arraycopy(bits, 0, newBits, offsetPlus >>> 6, bits.length);
+        bits = newBits;
+        offset -= offsetPlus;
+        head += offsetPlus;
+        tail += offsetPlus;
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection;
+
+/**
+ * 元素被移除的原因
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public enum RemovalCause {
+
+    /**
+     * 被 remove、clear、compute 返回 null 等显式删除
+     */
+    EXPLICIT,
+
+    /**
+     * value 被 put、replace、compute 等替换，key 仍然存在
+     */
+    REPLACED,
+
+    /**
+     * 过期
+     */
+    EXPIRED,
+
+    /**
+     * 超过容量被淘汰
+     */
+    EVICTED;
+
+    /**
+     * 是否由 map 自动移除，而非调用方的操作
+     */
+    public boolean wasEvicted() {
+        return this == EXPIRED || this == EVICTED;
+    }
+
+}
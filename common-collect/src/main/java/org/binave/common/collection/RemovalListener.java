@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection;
+
+/**
+ * 元素被移除时的回调
+ *
+ * 在执行移除的线程中同步调用，可能持有 map 内部的锁，应尽快返回，不要访问该 map。
+ * 耗时的处理交给 {@link org.binave.common.collection.proxy.RemovalDispatcher} 异步批量执行
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+@FunctionalInterface
+public interface RemovalListener<K, V> {
+
+    /**
+     * @param key   被移除的 key
+     * @param value 被移除、被替换的 value
+     * @param cause 原因
+     */
+    void onRemoval(K key, V value, RemovalCause cause);
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection;
+
+import java.util.AbstractMap;
+
+/**
+ * 一次移除的记录
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public final class RemovalNotification<K, V> extends AbstractMap.SimpleImmutableEntry<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final RemovalCause cause;
+
+    public RemovalNotification(K key, V value, RemovalCause cause) {
+        super(key, value);
+        this.cause = cause;
+    }
+
+    public RemovalCause getCause() {
+        return cause;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " (" + cause + ")";
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection;
+
+/**
+ * 统计的记录器
+ *
+ * 由 map 在命中、未命中、加载、移除、清理过期时调用，需要线程安全且足够便宜。
+ * 不需要统计时不要传入，map 中只多一次 null 判断
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public interface StatsCounter {
+
+    void recordHits(int count);
+
+    void recordMisses(int count);
+
+    /**
+     * @param loadNanos 加载耗时，纳秒
+     */
+    void recordLoadSuccess(long loadNanos);
+
+    /**
+     * 加载抛出异常或返回 null
+     *
+     * @param loadNanos 加载耗时，纳秒
+     */
+    void recordLoadFailure(long loadNanos);
+
+    void recordRemoval(RemovalCause cause);
+
+    /**
+     * 一次清理过期 key 的耗时
+     *
+     * @param sweepNanos 纳秒
+     */
+    void recordSweep(long sweepNanos);
+
+    /**
+     * 当前统计的快照，不影响正在进行的读写
+     */
+    ExpireMapStats snapshot();
+
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+import org.binave.common.api.SyncProxy;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * {@link SyncProxy} 的发布与回收
+ *
+ * 被代理对象保存在 volatile 字段中，syncUpdate 的写入对之后的读取可见，
+ * 不会读到未构造完成的对象。普通读取只是一次 volatile 读，在 x86 上与普通字段读取相同。
+ *
+ * 需要在多次调用中使用同一个实例时，通过 {@link #pin()} 固定当前版本，用完后关闭。
+ * 每个版本有一个引用计数：发布时为 1，每次 pin 加 1；被替换或 pin 关闭时减 1，
+ * 减到 0 时交给 reclaimer 回收（如关闭连接、归还对象池），此后不会再被 pin 到。
+ * 子类由当前实例增量计算出的实例（见 {@link #syncDerive}）不交给 reclaimer；
+ * 与之共享内容的实例在所有基于它的版本都回收之后才回收。
+ *
+ * 加入 {@link SyncGroup} 后，读取改为从组的当前代中取得，
+ * 更新通过组的事务与其它成员一起发布，见 {@link SyncGroup}
+ *
+ * 注意：
+ *      未 pin 的调用不计入引用，需要回收的资源只应在 pin 中访问
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public abstract class AbstractSyncProxy<E> implements SyncProxy<E> {
+
+    private volatile E target;
+
+    private volatile Version<E> version;
+
+    private final Consumer<? super E> reclaimer;
+
+    private final AtomicInteger retiring = new AtomicInteger();
+
+    // 串行化 syncUpdate 与子类的增量更新，增量更新需要基于当前实例计算
+    private final Object updateLock = new Object();
+
+    private int slot; // 在组中的位置，先于 group 写入
+
+    // syncDerive 正在发布的实例，创建版本时据此区分，持有本对象的锁读写
+    private E derived;
+    private boolean shared;
+
+    private volatile SyncGroup group;
+
+    protected AbstractSyncProxy() {
+        this(null);
+    }
+
+    /**
+     * @param reclaimer 旧实例不再被持有时调用，在最后释放的线程中执行
+     */
+    protected AbstractSyncProxy(Consumer<? super E> reclaimer) {
+        this.reclaimer = reclaimer;
+        this.version = new Version<>(this, null, 0, true, null);
+    }
+
+    /**
+     * 当前被代理的对象
+     */
+    @SuppressWarnings("unchecked")
+    protected final E target() {
+        E t = target; // 先于 group 读取：读到加入组时清除的 null，则一定能读到 group，见 joined
+        SyncGroup g = group;
+        return g == null ? t : (E) g.target(slot);
+    }
+
+    /**
+     * 发布新的实例，旧实例在没有 pin 之后回收
+     */
+    @Override
+    public void syncUpdate(E e) {
+        synchronized (updateLock) {
+            Version<E> old = null;
+            synchronized (this) {
+                if (group == null) {
+                    old = version;
+                    version = newVersion(e, old);
+                    target = e;
+                }
+            }
+            if (old == null) {
+                // 组成员，作为只有一个成员的事务提交
+                group.begin().stage(this, e).commit();
+                return;
+            }
+            retiring.incrementAndGet();
+            old.release();
+        }
+    }
+
+    /**
+     * 发布由当前实例计算出的新实例，持有 {@link #updateLock()} 时调用
+     * 新实例不交给 reclaimer
+     *
+     * @param shared 新实例与当前实例共享内容，此时新版本持有当前实例
+     *               （或当前实例所基于的、由 syncUpdate 发布的实例）所在版本的引用
+     */
+    final void syncDerive(E e, boolean shared) {
+        synchronized (this) {
+            this.derived = e;
+            this.shared = shared;
+        }
+        try {
+            syncUpdate(e);
+        } finally {
+            synchronized (this) {
+                this.derived = null;
+            }
+        }
+    }
+
+    // 持有本对象的锁调用，old 为当前版本
+    private Version<E> newVersion(E e, Version<E> old) {
+        if (e == null || e != derived) return new Version<>(this, e, old.epoch + 1, true, null);
+        Version<E> base = !shared ? null : old.reclaimable ? old : old.base;
+        if (base != null && base.value == null) base = null; // 初始的空版本
+        if (base != null) base.retain();
+        return new Version<>(this, e, old.epoch + 1, false, base);
+    }
+
+    /**
+     * 增量更新时持有，期间读取的当前实例不会被其它更新替换
+     * 不要在持有组的锁时获取
+     */
+    final Object updateLock() {
+        return updateLock;
+    }
+
+    /**
+     * 依次通知，异常交给当前线程的 UncaughtExceptionHandler，不影响其它监听者
+     */
+    static <D> void fire(List<Consumer<? super D>> listeners, D delta) {
+        for (Consumer<? super D> listener : listeners) {
+            try {
+                listener.accept(delta);
+            } catch (Throwable t) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+            }
+        }
+    }
+
+    @Override
+    public boolean isNull() {
+        return target() == null;
+    }
+
+    /**
+     * 所在的组，未加入时为 null
+     */
+    public SyncGroup group() {
+        return group;
+    }
+
+    /**
+     * 当前版本，加入组时发布的引用转交给组
+     */
+    synchronized Version<E> version() {
+        return version;
+    }
+
+    /**
+     * 加入组，由 {@link SyncGroup#join} 在持有组的锁与本对象的锁、
+     * 并且已经发布了包含本成员的一代之后调用
+     */
+    synchronized void joined(SyncGroup group, int slot) {
+        this.slot = slot;
+        this.group = group;
+        this.target = null; // 之后从组中读取，group 写入之后才清除
+    }
+
+    int slot() {
+        return slot;
+    }
+
+    /**
+     * 组提交时创建新版本，引用计数为 1，由新的一代持有
+     *
+     * @return 新版本
+     */
+    synchronized Version<E> next(E e) {
+        Version<E> v = newVersion(e, version);
+        version = v;
+        return v;
+    }
+
+    /**
+     * 被替换的版本，等待回收
+     */
+    void retired() {
+        retiring.incrementAndGet();
+    }
+
+    /**
+     * 固定当前版本，关闭前不会被回收
+     *
+     *      try (Pin<Map<K, V>> pin = proxy.pin()) {
+     *          Map<K, V> map = pin.get();
+     *          ...
+     *      }
+     */
+    public Pin<E> pin() {
+        for (; ; ) {
+            SyncGroup g = group;
+            Version<E> v = g == null ? version : g.version(slot);
+            if (v.acquire()) return new Pin<>(v);
+            // 刚好被替换并回收，读取新版本
+        }
+    }
+
+    /**
+     * 发布次数，每次 syncUpdate 加 1
+     */
+    public long epoch() {
+        return version.epoch;
+    }
+
+    /**
+     * 已被替换、但仍被 pin 住（或被增量计算出的版本共享）尚未回收的版本个数
+     */
+    public int retiring() {
+        return retiring.get();
+    }
+
+    private void reclaim(E e) {
+        retiring.decrementAndGet();
+        if (reclaimer == null || e == null) return;
+        try {
+            reclaimer.accept(e);
+        } catch (Throwable t) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+        }
+    }
+
+    /**
+     * 一次发布的实例及其引用计数
+     */
+    static final class Version<E> {
+
+        final AbstractSyncProxy<E> owner;
+
+        final E value;
+
+        final long epoch;
+
+        // 为 false 时由 syncDerive 发布，回收时不交给 reclaimer
+        final boolean reclaimable;
+
+        // 共享内容的版本，本版本回收时释放
+        final Version<E> base;
+
+        // 发布本身持有一个引用
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        Version(AbstractSyncProxy<E> owner, E value, long epoch, boolean reclaimable, Version<E> base) {
+            this.owner = owner;
+            this.value = value;
+            this.epoch = epoch;
+            this.reclaimable = reclaimable;
+            this.base = base;
+        }
+
+        // 已回收的版本不能再增加引用
+        boolean acquire() {
+            for (int count; (count = refs.get()) > 0; )
+                if (refs.compareAndSet(count, count + 1)) return true;
+            return false;
+        }
+
+        // 调用方已经持有引用，不会是已回收的版本
+        void retain() {
+            refs.incrementAndGet();
+        }
+
+        void release() {
+            if (refs.decrementAndGet() != 0) return;
+            owner.reclaim(reclaimable ? value : null);
+            if (base != null) base.release();
+        }
+    }
+
+    /**
+     * 被固定的版本，关闭后释放，重复关闭无效
+     */
+    public static final class Pin<E> implements AutoCloseable {
+
+        private Version<E> version;
+
+        private Pin(Version<E> version) {
+            this.version = version;
+        }
+
+        public E get() {
+            if (version == null) throw new IllegalStateException("pin closed");
+            return version.value;
+        }
+
+        /**
+         * 固定的版本号，与 {@link AbstractSyncProxy#epoch()} 相等说明仍是最新的
+         */
+        public long epoch() {
+            if (version == null) throw new IllegalStateException("pin closed");
+            return version.epoch;
+        }
+
+        @Override
+        public void close() {
+            Version<E> v = version;
+            if (v == null) return;
+            version = null;
+            v.release();
+        }
+    }
+
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+import org.binave.common.api.Ticker;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.LongConsumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * {@link OffHeapExpireMapProxy} 的索引，key 到堆外地址
+ *
+ * 开放寻址（线性探测），布局同 {@link org.binave.common.collection.LongExpireMap}：
+ * key 的 hash、地址、过期时间分别存放在 int[]、long[] 中，
+ * 每个元素只占用 key 引用和三个基本类型槽位，没有节点对象和装箱的地址。
+ * 删除时把后续元素前移，不留墓碑。
+ *
+ * 过期时间的规则同 {@link ExpireMapProxy}，以槽位读写。
+ * 过期的 key 在查找、扩容前和 trim 时删除，删除时把地址交给 expired。
+ * size() 包含尚未清理的过期 key。
+ *
+ * 不接受 null key，非线程安全
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+final class AddressTable<K> {
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private static final int MIN_CAPACITY = 16;
+
+    // 空槽位为 null
+    private Object[] keys;
+
+    private int[] hashes;
+
+    private long[] addresses;
+
+    // 过期时间点，或 ExpireNode#defaultTime
+    private long[] times;
+
+    private int mask;
+
+    private int shift; // 32 - log2(capacity)
+
+    private int threshold; // 容量的 3/4
+
+    private int size;
+
+    private long defaultTimeMillis;
+
+    private final Ticker ticker;
+
+    private final LongConsumer expired;
+
+    /**
+     * @param expired 过期删除时，接收其地址
+     */
+    AddressTable(long defaultTimeMillis, Ticker ticker, LongConsumer expired) {
+        ExpireMapProxy.checkDefault(defaultTimeMillis);
+        this.defaultTimeMillis = defaultTimeMillis;
+        this.ticker = Objects.requireNonNull(ticker);
+        this.expired = Objects.requireNonNull(expired);
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        hashes = new int[capacity];
+        addresses = new long[capacity];
+        times = new long[capacity];
+        mask = capacity - 1;
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        threshold = capacity == MAX_CAPACITY ? MAX_CAPACITY - 1 : capacity / 4 * 3;
+    }
+
+    long now() {
+        return ticker.millis();
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private int home(int hash) {
+        return (hash * 0x9E3779B9) >>> shift;
+    }
+
+    /* ******** 槽位 ******** */
+
+    /**
+     * 未过期的 key 所在的槽位，过期的直接删除
+     *
+     * @return 不存在时返回 -1
+     */
+    int slot(Object key, long now) {
+        if (key == null) return -1;
+        int h = hash(key);
+        for (int i = home(h); keys[i] != null; i = (i + 1) & mask) {
+            if (hashes[i] != h || !key.equals(keys[i])) continue;
+            if (expireAt(i) > now) return i;
+            expire(i);
+            return -1;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    K key(int slot) {
+        return (K) keys[slot];
+    }
+
+    long address(int slot) {
+        return addresses[slot];
+    }
+
+    void address(int slot, long address) {
+        addresses[slot] = address;
+    }
+
+    /**
+     * @return 过期时间点，或 {@link ExpireNode#defaultTime(long)}
+     */
+    long time(int slot) {
+        return times[slot];
+    }
+
+    void time(int slot, long time) {
+        times[slot] = time;
+    }
+
+    /**
+     * 过期的时间点
+     */
+    long expireAt(int slot) {
+        long t = times[slot];
+        return ExpireNode.byDefault(t) ? ~t + defaultTimeMillis : t;
+    }
+
+    /**
+     * 写入不存在的 key，可能扩容，之前取得的槽位失效
+     *
+     * @param time 过期时间点，或 {@link ExpireNode#defaultTime(long)}
+     */
+    void insert(K key, long address, long time, long now) {
+        if (size >= threshold) grow(now);
+        int h = hash(Objects.requireNonNull(key));
+        int i = home(h);
+        while (keys[i] != null) i = (i + 1) & mask;
+        keys[i] = key;
+        hashes[i] = h;
+        addresses[i] = address;
+        times[i] = time;
+        ++size;
+    }
+
+    /**
+     * 先清理过期的 key，清理后仍超过阈值的 3/4 才扩容
+     */
+    private void grow(long now) {
+        trim(now);
+        if (size < threshold / 4 * 3) return;
+        if (keys.length == MAX_CAPACITY) throw new OutOfMemoryError("capacity=" + MAX_CAPACITY);
+
+        Object[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        long[] oldAddresses = addresses, oldTimes = times;
+        allocate(oldKeys.length << 1);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == null) continue;
+            int i = home(oldHashes[j]);
+            while (keys[i] != null) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            hashes[i] = oldHashes[j];
+            addresses[i] = oldAddresses[j];
+            times[i] = oldTimes[j];
+        }
+    }
+
+    // 删除过期的槽位，交出地址
+    private void expire(int slot) {
+        long address = addresses[slot];
+        delete(slot);
+        expired.accept(address);
+    }
+
+    /**
+     * 删除槽位上的元素，把同一段连续槽位中后续可以前移的元素前移，填补空位
+     */
+    void delete(int slot) {
+        int hole = slot;
+        for (int i = (hole + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+            // 自身位置到 i 的距离不小于空位到 i 的距离，才能移到空位上
+            if (((i - home(hashes[i])) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                hashes[hole] = hashes[i];
+                addresses[hole] = addresses[i];
+                times[hole] = times[i];
+                hole = i;
+            }
+        }
+        keys[hole] = null;
+        --size;
+    }
+
+    /* ******** 遍历 ******** */
+
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * 遍历的起点，一个空槽位
+     *
+     * 从空槽位之后开始遍历一圈时，删除只会把尚未遍历的元素前移到当前或之后的槽位，
+     * 删除后当前槽位被填补时需要再检查一次
+     */
+    int start() {
+        int i = 0;
+        while (keys[i] != null) ++i;
+        return i;
+    }
+
+    boolean occupied(int slot) {
+        return keys[slot] != null;
+    }
+
+    /**
+     * 遍历未过期的 key 及其地址，遍历中不可修改
+     */
+    void forEach(ObjLongConsumer<? super K> action) {
+        long now = now();
+        for (int i = 0; i < keys.length; i++)
+            if (keys[i] != null && expireAt(i) > now) action.accept(key(i), addresses[i]);
+    }
+
+    /* ******** 整体 ******** */
+
+    void trim(long now) {
+        for (int i = 0; i < keys.length && size > 0; ) {
+            // 删除后空位可能被后面的元素填补，原地再检查一次
+            if (keys[i] != null && expireAt(i) <= now) expire(i);
+            else ++i;
+        }
+    }
+
+    /**
+     * 包含尚未清理的过期 key
+     */
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(keys, null);
+        size = 0;
+    }
+
+    long getDefaultExpire() {
+        return defaultTimeMillis;
+    }
+
+    /**
+     * 使用默认过期时间的 key 记录的是写入时间，修改后全部按新的默认时间计算
+     */
+    void setDefaultExpire(long timeMillis) {
+        ExpireMapProxy.checkDefault(timeMillis);
+        this.defaultTimeMillis = timeMillis;
+    }
+
+}
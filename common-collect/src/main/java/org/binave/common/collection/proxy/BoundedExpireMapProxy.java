@@ -0,0 +1,743 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+import org.binave.common.collection.ExpireMap;
+import org.binave.common.collection.ExpireMapStats;
+import org.binave.common.collection.RemovalCause;
+import org.binave.common.collection.RemovalListener;
+import org.binave.common.collection.StatsCounter;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * 给 {@link ExpireMap} 增加容量上限，按 W-TinyLFU 淘汰
+ *
+ * 按元素个数或权重限制大小，与被代理的 map 的过期时间同时生效：
+ *      新写入的 key 先进入 1% 的窗口（LRU），
+ *      离开窗口后与主区（probation、protected 两段 LRU）最久未访问的 key 比较访问频率，
+ *      频率高的留下。一次性的 key 和扫描不会挤掉热点
+ *
+ * 读写先记入缓冲区，拿到锁的线程批量整理，读取不会互相等待。
+ * 容量可能被短暂超过，整理后回到上限以内。
+ *
+ * 注意：
+ *      只有通过本代理的写入会被计入，不要直接修改被代理的 map。
+ *      被代理的 map 中过期的 key，在淘汰或再次读取时才从淘汰策略中移除。
+ *      淘汰通过被代理 map 的 {@link ExpireMap#evict} 完成，两者的监听器都收到 EVICTED，只由本类统计
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public class BoundedExpireMapProxy<K, V> implements ExpireMap<K, V>, ExpireMapHooks<K, V> {
+
+    private static final byte WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    private final ExpireMap<K, V> map;
+
+    private final long maximum;
+
+    private final ToIntBiFunction<? super K, ? super V> weigher;
+
+    private final RemovalListener<K, V> listener;
+
+    private final StatsCounter stats;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final ReadBuffer readBuffer = new ReadBuffer();
+
+    private final Queue<Write<K, V>> writeBuffer = new ConcurrentLinkedQueue<>();
+
+    private final Consumer<Object> onRead = this::onRead;
+
+    // 以下只在持有 lock 时访问
+
+    private final Map<K, Node<K, V>> data = new HashMap<>();
+
+    private final FrequencySketch sketch;
+
+    private final Node<K, V> window = Node.sentinel(), probation = Node.sentinel(), protect = Node.sentinel();
+
+    private final long windowMaximum, protectedMaximum;
+
+    private long windowWeight, protectedWeight, weightedSize;
+
+    /**
+     * @param map         被代理的 map
+     * @param maximumSize 最多的元素个数
+     */
+    public BoundedExpireMapProxy(ExpireMap<K, V> map, long maximumSize) {
+        this(map, maximumSize, null);
+    }
+
+    /**
+     * @param map           被代理的 map
+     * @param maximumWeight 权重的上限
+     * @param weigher       元素的权重，不小于 0；为 null 时每个元素为 1
+     */
+    public BoundedExpireMapProxy(ExpireMap<K, V> map, long maximumWeight, ToIntBiFunction<? super K, ? super V> weigher) {
+        this(map, maximumWeight, weigher, null);
+    }
+
+    /**
+     * @param map           被代理的 map
+     * @param maximumWeight 权重的上限
+     * @param weigher       元素的权重，不小于 0；为 null 时每个元素为 1
+     * @param listener      淘汰时的回调，在整理的线程中持有锁调用，可以为 null
+     */
+    public BoundedExpireMapProxy(ExpireMap<K, V> map, long maximumWeight,
+                                 ToIntBiFunction<? super K, ? super V> weigher, RemovalListener<K, V> listener) {
+        this(map, maximumWeight, weigher, listener, null);
+    }
+
+    /**
+     * @param stats         淘汰的统计，为 null 时不统计；命中、过期由被代理的 map 统计
+     */
+    public BoundedExpireMapProxy(ExpireMap<K, V> map, long maximumWeight, ToIntBiFunction<? super K, ? super V> weigher,
+                                 RemovalListener<K, V> listener, StatsCounter stats) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("maximum must be positive: " + maximumWeight);
+        }
+        this.map = Objects.requireNonNull(map);
+        this.maximum = maximumWeight;
+        this.weigher = weigher;
+        this.listener = listener;
+        this.stats = stats;
+        this.windowMaximum = Math.max(maximumWeight / 100, 1);
+        this.protectedMaximum = (maximumWeight - windowMaximum) * 4 / 5;
+        this.sketch = new FrequencySketch(weigher == null ? maximumWeight : Math.min(maximumWeight, 1 << 20));
+        if (!map.isEmpty()) {
+            for (Entry<K, V> entry : map.entrySet()) writeBuffer.offer(write(entry.getKey(), entry.getValue()));
+            afterWrite();
+        }
+    }
+
+    public long getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * 整理缓冲区后的总权重，包括被代理的 map 中已过期、还未移除的 key
+     */
+    public long weightedSize() {
+        lock.lock();
+        try {
+            drain();
+            return weightedSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* ******** 缓冲区 ******** */
+
+    private Write<K, V> write(K key, V value) {
+        int weight = 1;
+        if (weigher != null) {
+            weight = weigher.applyAsInt(key, value);
+            if (weight < 0) throw new IllegalArgumentException("negative weight: " + weight);
+        }
+        return new Write<>(key, value, weight);
+    }
+
+    private void recordWrite(K key, V value) {
+        writeBuffer.offer(write(key, value));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void recordRemove(Object key) {
+        writeBuffer.offer(new Write<>((K) key, null, 0));
+    }
+
+    // 写入必须整理，拿不到锁时由持有锁的线程整理
+    private void afterWrite() {
+        while (!writeBuffer.isEmpty() && lock.tryLock()) {
+            try {
+                drain();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // 读取可以丢弃
+    private void afterRead(Object key, boolean hit) {
+        if (readBuffer.offer(hit ? key : new Miss(key))) return;
+        if (lock.tryLock()) {
+            try {
+                drain();
+            } finally {
+                lock.unlock();
+            }
+            // 持有锁期间写入的线程拿不到锁，留下的写入由这里整理
+            afterWrite();
+        }
+    }
+
+    // 持有锁
+    private void drain() {
+        for (Write<K, V> w; (w = writeBuffer.poll()) != null; ) onWrite(w);
+        readBuffer.drain(onRead);
+        evict();
+    }
+
+    /* ******** 淘汰策略，持有锁 ******** */
+
+    private void onWrite(Write<K, V> w) {
+        Node<K, V> node = data.get(w.key);
+        if (w.value == null) {
+            if (node != null) removeNode(node);
+            return;
+        }
+        sketch.increment(w.key);
+        if (node == null) {
+            node = new Node<>(w.key, w.value, w.weight);
+            data.put(w.key, node);
+            node.linkLast(window);
+            windowWeight += w.weight;
+            weightedSize += w.weight;
+            return;
+        }
+        int delta = w.weight - node.weight;
+        node.value = w.value;
+        node.weight = w.weight;
+        weightedSize += delta;
+        if (node.queue == WINDOW) windowWeight += delta;
+        else if (node.queue == PROTECTED) protectedWeight += delta;
+        touch(node);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onRead(Object e) {
+        boolean miss = e instanceof Miss;
+        K key = miss ? (K) ((Miss) e).key : (K) e;
+        sketch.increment(key);
+        Node<K, V> node = data.get(key);
+        if (node == null) return;
+        if (!miss) touch(node);
+        else if (!map.containsKey(key)) removeNode(node);
+    }
+
+    // 访问后移到队尾，probation 中的晋升到 protected
+    private void touch(Node<K, V> node) {
+        node.unlink();
+        switch (node.queue) {
+            case WINDOW:
+                node.linkLast(window);
+                break;
+            case PROBATION:
+                node.queue = PROTECTED;
+                protectedWeight += node.weight;
+                node.linkLast(protect);
+                break;
+            default:
+                node.linkLast(protect);
+        }
+    }
+
+    private void removeNode(Node<K, V> node) {
+        node.unlink();
+        if (node.queue == WINDOW) windowWeight -= node.weight;
+        else if (node.queue == PROTECTED) protectedWeight -= node.weight;
+        weightedSize -= node.weight;
+        data.remove(node.key);
+    }
+
+    // 从被代理的 map 中删除，已过期或已被覆盖时什么也不做
+    private void evictNode(Node<K, V> node) {
+        removeNode(node);
+        if (ExpireMapHooks.evictFrom(map, node.key, node.value)) {
+            if (stats != null) stats.recordRemoval(RemovalCause.EVICTED);
+            if (listener != null) listener.onRemoval(node.key, node.value, RemovalCause.EVICTED);
+        }
+    }
+
+    private void evict() {
+        // protected 超出的部分降到 probation
+        while (protectedWeight > protectedMaximum && protect.next != protect) {
+            Node<K, V> node = protect.next;
+            node.unlink();
+            node.queue = PROBATION;
+            protectedWeight -= node.weight;
+            node.linkLast(probation);
+        }
+        // 窗口超出的部分移到 probation 末尾，成为候选
+        int candidates = 0;
+        while (windowWeight > windowMaximum && window.next != window) {
+            Node<K, V> node = window.next;
+            node.unlink();
+            node.queue = PROBATION;
+            windowWeight -= node.weight;
+            node.linkLast(probation);
+            ++candidates;
+        }
+        if (weightedSize <= maximum) return;
+
+        // 候选从末尾向前，受害者从头向后，两两比较频率
+        Node<K, V> victim = probation.next, candidate = probation.prev;
+        while (weightedSize > maximum) {
+            if (victim == probation) victim = null;
+            if (candidates <= 0 || candidate == probation) candidate = null;
+            if (victim == null && candidate == null) {
+                // probation 已空
+                Node<K, V> node = protect.next != protect ? protect.next : window.next;
+                if (node == window) break;
+                evictNode(node);
+            } else if (victim == null || candidate == null || victim == candidate) {
+                Node<K, V> node = victim == null ? candidate : victim;
+                if (node == candidate) {
+                    candidate = candidate.prev;
+                    --candidates;
+                }
+                if (node == victim) victim = victim.next;
+                evictNode(node);
+            } else if (admit(candidate.key, victim.key)) {
+                Node<K, V> next = victim.next;
+                evictNode(victim);
+                victim = next;
+            } else {
+                Node<K, V> prev = candidate.prev;
+                evictNode(candidate);
+                candidate = prev;
+                --candidates;
+            }
+        }
+    }
+
+    // 候选的频率更高时替换受害者；频率较高时小概率放行，避免被构造的冲突长期挡在外面
+    private boolean admit(K candidate, K victim) {
+        int candidateFrequency = sketch.frequency(candidate);
+        int victimFrequency = sketch.frequency(victim);
+        if (candidateFrequency > victimFrequency) return true;
+        if (candidateFrequency <= 5) return false;
+        return (ThreadLocalRandom.current().nextInt() & 127) == 0;
+    }
+
+    /* ******** ExpireMap ******** */
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return map.containsValue(value);
+    }
+
+    @Override
+    public V get(Object key) {
+        V value = map.get(key);
+        afterRead(key, value != null);
+        return value;
+    }
+
+    @Override
+    public V peek(Object key) {
+        return ExpireMapHooks.peekIn(map, key);
+    }
+
+    /**
+     * 外层的淘汰，不计入本类的淘汰统计
+     */
+    @Override
+    public boolean evict(K key, V value) {
+        if (!ExpireMapHooks.evictFrom(map, key, value)) return false;
+        recordRemove(key);
+        afterWrite();
+        return true;
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        V value = get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    @Override
+    public V get(K key, long timeMillis) {
+        V value = map.get(key, timeMillis);
+        afterRead(key, value != null);
+        return value;
+    }
+
+    @Override
+    public long getExpire(K key) {
+        return map.getExpire(key);
+    }
+
+    @Override
+    public void addExpire(K key, long timeMillis) {
+        map.addExpire(key, timeMillis);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        V old = map.put(key, value);
+        recordWrite(key, value);
+        afterWrite();
+        return old;
+    }
+
+    @Override
+    public V put(K key, long timeMillis, V value) {
+        V old = map.put(key, timeMillis, value);
+        recordWrite(key, value);
+        afterWrite();
+        return old;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        V old = map.putIfAbsent(key, value);
+        if (old == null) {
+            recordWrite(key, value);
+            afterWrite();
+        } else afterRead(key, true);
+        return old;
+    }
+
+    @Override
+    public V putIfAbsent(K key, long timeMillis, V value) {
+        V old = map.putIfAbsent(key, timeMillis, value);
+        if (old == null) {
+            recordWrite(key, value);
+            afterWrite();
+        } else afterRead(key, true);
+        return old;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Entry<? extends K, ? extends V> entry : m.entrySet()) put(entry.getKey(), entry.getValue());
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m, long timeMillis) {
+        for (Entry<? extends K, ? extends V> entry : m.entrySet())
+            put(entry.getKey(), timeMillis, entry.getValue());
+    }
+
+    @Override
+    public V remove(Object key) {
+        V old = map.remove(key);
+        if (old != null) {
+            recordRemove(key);
+            afterWrite();
+        }
+        return old;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (!map.remove(key, value)) return false;
+        recordRemove(key);
+        afterWrite();
+        return true;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (!map.replace(key, oldValue, newValue)) return false;
+        recordWrite(key, newValue);
+        afterWrite();
+        return true;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        V old = map.replace(key, value);
+        if (old != null) {
+            recordWrite(key, value);
+            afterWrite();
+        }
+        return old;
+    }
+
+    // 函数在被代理的 map 的锁内执行，只记录，结束后再整理
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        map.replaceAll((k, v) -> {
+            V value = function.apply(k, v);
+            recordWrite(k, value);
+            return value;
+        });
+        afterWrite();
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        return afterCompute(key, map.computeIfAbsent(key, mappingFunction));
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return afterCompute(key, map.computeIfPresent(key, remappingFunction));
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return afterCompute(key, map.compute(key, remappingFunction));
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        return afterCompute(key, map.merge(key, value, remappingFunction));
+    }
+
+    // 结果为 null 时可能删除了 key
+    private V afterCompute(K key, V value) {
+        if (value == null) recordRemove(key);
+        else recordWrite(key, value);
+        afterWrite();
+        return value;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        map.forEach(action);
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            map.clear();
+            writeBuffer.clear();
+            readBuffer.drain(e -> {
+            });
+            data.clear();
+            for (Node<K, V> sentinel : Arrays.asList(window, probation, protect)) sentinel.prev = sentinel.next = sentinel;
+            windowWeight = protectedWeight = weightedSize = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 清理过期的 key，并整理缓冲区
+     */
+    @Override
+    public void trim() {
+        map.trim();
+        lock.lock();
+        try {
+            drain();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 被代理的 map 的统计，加上本类记录的淘汰
+     */
+    @Override
+    public ExpireMapStats stats() {
+        return stats == null ? map.stats() : map.stats().plus(stats.snapshot());
+    }
+
+    @Override
+    public long getDefaultExpire() {
+        return map.getDefaultExpire();
+    }
+
+    @Override
+    public void setDefaultExpire(long timeMillis) {
+        map.setDefaultExpire(timeMillis);
+    }
+
+    /**
+     * 视图直接使用被代理的 map，通过视图删除的 key 在淘汰时才从淘汰策略中移除
+     */
+    @Override
+    public Set<K> keySet() {
+        return map.keySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return map.values();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return map.entrySet();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this || map.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return map.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return map.toString();
+    }
+
+    /* ******** 内部类 ******** */
+
+    /**
+     * 淘汰策略中的节点，value 用于淘汰时确认没有被覆盖
+     */
+    private static final class Node<K, V> {
+
+        final K key;
+        V value;
+        int weight;
+        byte queue = WINDOW;
+        Node<K, V> prev, next;
+
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+
+        static <K, V> Node<K, V> sentinel() {
+            Node<K, V> sentinel = new Node<>(null, null, 0);
+            sentinel.prev = sentinel.next = sentinel;
+            return sentinel;
+        }
+
+        void linkLast(Node<K, V> sentinel) {
+            Node<K, V> last = sentinel.prev;
+            prev = last;
+            next = sentinel;
+            last.next = this;
+            sentinel.prev = this;
+        }
+
+        void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = next = null;
+        }
+    }
+
+    /**
+     * 写入记录，value 为 null 时表示删除
+     */
+    private static final class Write<K, V> {
+
+        final K key;
+        final V value;
+        final int weight;
+
+        Write(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * 未命中的读取
+     */
+    private static final class Miss {
+
+        final Object key;
+
+        Miss(Object key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * 有损的读缓冲区
+     *
+     * 按线程分段，每段是 slots 中连续的一个环形数组，多个线程写入、持有锁的线程读出。
+     * 满了或争抢失败时丢弃，只影响淘汰的精度
+     */
+    private static final class ReadBuffer {
+
+        private static final int SIZE = 64, MASK = SIZE - 1;
+
+        private final AtomicLong[] tails;
+
+        private final AtomicLongArray heads;
+
+        // 第 i 段从 i * SIZE 开始
+        private final AtomicReferenceArray<Object> slots;
+
+        ReadBuffer() {
+            int n = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors() - 1, 1)) << 1;
+            tails = new AtomicLong[n];
+            heads = new AtomicLongArray(n);
+            slots = new AtomicReferenceArray<>(n * SIZE);
+            for (int i = 0; i < n; i++) {
+                tails[i] = new AtomicLong();
+            }
+        }
+
+        /**
+         * @return 已满时返回 false
+         */
+        boolean offer(Object e) {
+            int i = (int) (Thread.currentThread().getId() * 0x9E3779B9L >>> 16) & (tails.length - 1);
+            AtomicLong tail = tails[i];
+            long t = tail.get();
+            if (t - heads.get(i) >= SIZE) return false;
+            if (tail.compareAndSet(t, t + 1)) slots.lazySet(i * SIZE + ((int) t & MASK), e);
+            return true;
+        }
+
+        // 持有锁
+        void drain(Consumer<Object> consumer) {
+            for (int i = 0; i < tails.length; i++) {
+                long h = heads.get(i), t = tails[i].get();
+                for (; h < t; h++) {
+                    int index = i * SIZE + ((int) h & MASK);
+                    Object e = slots.get(index);
+                    // 已占位，还未写入
+                    if (e == null) break;
+                    slots.lazySet(index, null);
+                    consumer.accept(e);
+                }
+                heads.lazySet(i, h);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,964 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+import org.binave.common.api.Ticker;
+import org.binave.common.collection.ExpireMap;
+import org.binave.common.collection.ExpireMapStats;
+import org.binave.common.collection.RemovalCause;
+import org.binave.common.collection.RemovalListener;
+import org.binave.common.collection.RemovalNotification;
+import org.binave.common.collection.StatsCounter;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 线程安全的 {@link ExpireMap}
+ *
+ * 数据存放在 {@link ConcurrentHashMap} 中，单个 key 的修改在其锁内完成，
+ * computeIfAbsent、merge、putIfAbsent 等均为原子操作。
+ *
+ * 过期时间的整理按 key 分段，每段有自己的锁、默认过期队列和时间轮：
+ *      写入只把节点放入所在分段的缓冲区，拿到锁的线程批量整理，拿不到的直接返回；
+ *      读取不加锁，只比较节点上的过期时间，过期的 key 不会被读到
+ *
+ * 设置了 {@link RemovalListener} 时，在修改结束、释放 ConcurrentHashMap 的锁后通知；
+ * 过期的通知在整理的线程中发出，此时持有分段的锁。
+ *
+ * 过期时间的规则同 {@link ExpireMapProxy}，不接受 null。
+ * 传入的函数中不要访问本 map
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public class ConcurrentExpireMapProxy<K, V> extends AbstractMap<K, V> implements ExpireMap<K, V>, ExpireMapHooks<K, V> {
+
+    // 每次最多整理的节点数，避免一直被写入的线程拖住
+    private static final int DRAIN_LIMIT = 1 << 10;
+
+    private final ConcurrentHashMap<K, ExpireNode<K, V>> map;
+
+    private final Stripe[] stripes;
+
+    private final int shift;
+
+    private final Ticker ticker;
+
+    private final RemovalListener<K, V> listener;
+
+    private final StatsCounter stats;
+
+    private volatile long defaultTimeMillis;
+
+    private Set<K> keys;
+    private Collection<V> vals;
+    private Set<Entry<K, V>> entries;
+
+    public ConcurrentExpireMapProxy(long defaultTimeMillis) {
+        this(16, defaultTimeMillis);
+    }
+
+    /**
+     * @param initialCapacity   初始容量
+     * @param defaultTimeMillis 默认过期时间，毫秒
+     */
+    public ConcurrentExpireMapProxy(int initialCapacity, long defaultTimeMillis) {
+        this(initialCapacity, defaultTimeMillis, Ticker.SYSTEM);
+    }
+
+    /**
+     * @param initialCapacity   初始容量
+     * @param defaultTimeMillis 默认过期时间，毫秒
+     * @param ticker            时钟，读多的场景可以使用缓存的时钟
+     */
+    public ConcurrentExpireMapProxy(int initialCapacity, long defaultTimeMillis, Ticker ticker) {
+        this(initialCapacity, defaultTimeMillis, ticker, null);
+    }
+
+    /**
+     * @param initialCapacity   初始容量
+     * @param defaultTimeMillis 默认过期时间，毫秒
+     * @param ticker            时钟，读多的场景可以使用缓存的时钟
+     * @param listener          移除时的回调，可以为 null
+     */
+    public ConcurrentExpireMapProxy(int initialCapacity, long defaultTimeMillis,
+                                    Ticker ticker, RemovalListener<K, V> listener) {
+        this(initialCapacity, defaultTimeMillis, ticker, listener, null);
+    }
+
+    /**
+     * @param initialCapacity   初始容量
+     * @param defaultTimeMillis 默认过期时间，毫秒
+     * @param ticker            时钟，读多的场景可以使用缓存的时钟
+     * @param listener          移除时的回调，可以为 null
+     * @param stats             统计，为 null 时不统计
+     */
+    public ConcurrentExpireMapProxy(int initialCapacity, long defaultTimeMillis,
+                                    Ticker ticker, RemovalListener<K, V> listener, StatsCounter stats) {
+        ExpireMapProxy.checkDefault(defaultTimeMillis);
+        this.defaultTimeMillis = defaultTimeMillis;
+        this.ticker = Objects.requireNonNull(ticker);
+        this.listener = listener;
+        this.stats = stats;
+        this.map = new ConcurrentHashMap<>(initialCapacity);
+        // 分段数为 CPU 数的 4 倍，不超过 256
+        int bits = 0;
+        while (bits < 8 && 1 << bits < Runtime.getRuntime().availableProcessors() * 4) ++bits;
+        this.shift = 32 - bits;
+        this.stripes = newStripes(1 << bits);
+        long now = now();
+        for (int i = 0; i < stripes.length; i++) stripes[i] = new Stripe(now);
+    }
+
+    // Stripe 是泛型类的内部类，数组只能以原始类型创建；元素都是本实例创建的 Stripe
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Stripe[] newStripes(int n) {
+        return new ConcurrentExpireMapProxy.Stripe[n];
+    }
+
+    private long now() {
+        return ticker.millis();
+    }
+
+    private Stripe stripe(Object key) {
+        // 与 ConcurrentHashMap 使用不同的位
+        int h = key.hashCode() * 0x9E3779B9;
+        return shift == 32 ? stripes[0] : stripes[h >>> shift];
+    }
+
+    private boolean expired(ExpireNode<K, V> node, long now) {
+        return node.expire(defaultTimeMillis) <= now;
+    }
+
+    private boolean alive(ExpireNode<K, V> node, long now) {
+        return node != null && !expired(node, now);
+    }
+
+    // 读取，记录命中
+    private ExpireNode<K, V> readNode(Object key, long now) {
+        ExpireNode<K, V> node = getNode(key, now);
+        if (stats != null) {
+            if (node == null) stats.recordMisses(1);
+            else stats.recordHits(1);
+        }
+        return node;
+    }
+
+    // 未过期的节点，不加锁
+    private ExpireNode<K, V> getNode(Object key, long now) {
+        ExpireNode<K, V> node = map.get(key);
+        if (node == null) return null;
+        if (expired(node, now)) {
+            stripe(key).tryDrain(now);
+            return null;
+        }
+        return node;
+    }
+
+    /**
+     * 过期时间整理的分段
+     * 链表、时间轮只在持有 lock 时修改
+     */
+    private final class Stripe {
+
+        final ReentrantLock lock = new ReentrantLock();
+
+        // 过期时间有变化的节点
+        final Queue<ExpireNode<K, V>> buffer = new ConcurrentLinkedQueue<>();
+
+        // 使用默认过期时间的节点，按写入时间排序
+        final ExpireNode<K, V> queue = ExpireNode.sentinel();
+
+        final TimerWheel<K, V> wheel;
+
+        final Consumer<ExpireNode<K, V>> evictor;
+
+        // 上次整理的时间，读取时据此避免重复争抢
+        volatile long drained;
+
+        // 本次整理删除的节点数
+        int evicted;
+
+        long now;
+
+        Stripe(long now) {
+            this.wheel = new TimerWheel<>(now);
+            this.evictor = node -> evict(node, this.now);
+            this.drained = now;
+        }
+
+        void record(ExpireNode<K, V> node) {
+            buffer.offer(node);
+        }
+
+        /**
+         * 拿不到锁时直接返回，由持有锁的线程整理
+         */
+        void tryDrain(long now) {
+            if (drained >= now && buffer.isEmpty()) return;
+            if (!lock.tryLock()) return;
+            try {
+                long start = stats == null ? 0 : ticker.nanos();
+                drain(now, DRAIN_LIMIT);
+                if (stats != null && evicted > 0) stats.recordSweep(ticker.nanos() - start);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 等待锁，整理全部
+         *
+         * @return 过期删除的个数
+         */
+        int drain(long now) {
+            lock.lock();
+            try {
+                drain(now, Integer.MAX_VALUE);
+                return evicted;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // 持有锁
+        private void drain(long now, int limit) {
+            this.now = now;
+            this.evicted = 0;
+            ExpireNode<K, V> node;
+            for (int i = 0; i < limit && (node = buffer.poll()) != null; i++) {
+                node.unlink();
+                if (node.retired) continue;
+                if (ExpireNode.byDefault(node.time)) node.linkLast(queue);
+                else wheel.schedule(node);
+            }
+            // 默认过期队列，节点改为指定时间点时，缓冲区中有待处理的记录
+            while ((node = queue.next) != queue) {
+                long time = node.time;
+                if (ExpireNode.byDefault(time) && ~time + defaultTimeMillis > now) break;
+                node.unlink();
+                evict(node, now);
+            }
+            wheel.advance(now, evictor);
+            if (now > drained) drained = now;
+        }
+
+        // 已从链表摘下，确认过期后从 map 中删除；仍有效时，缓冲区中有待处理的记录
+        private void evict(ExpireNode<K, V> node, long now) {
+            Update u = new Update(now);
+            map.computeIfPresent(node.key, (k, n) -> n != node || !expired(n, now) ? n : u.retire(n));
+            if (u.removed != null) ++evicted;
+            u.notifyListener();
+        }
+    }
+
+    /**
+     * 一次修改的结果，修改在 ConcurrentHashMap 的锁内进行，结束后记录到分段
+     */
+    private final class Update {
+
+        final long now;
+
+        // 修改前未过期的 value
+        V old;
+
+        // 过期时间有变化的节点
+        ExpireNode<K, V> node;
+
+        // 从 map 中移除的节点
+        ExpireNode<K, V> removed;
+
+        // 待通知的移除
+        List<RemovalNotification<K, V>> removals;
+
+        Update(long now) {
+            this.now = now;
+        }
+
+        /**
+         * 移除节点，已过期的通知 EXPIRED，否则为 EXPLICIT
+         */
+        ExpireNode<K, V> retire(ExpireNode<K, V> n) {
+            return retire(n, RemovalCause.EXPLICIT);
+        }
+
+        /**
+         * @param cause 节点未过期时的原因
+         */
+        ExpireNode<K, V> retire(ExpireNode<K, V> n, RemovalCause cause) {
+            if (n != null) {
+                removal(n.key, n.value, alive(n, now) ? cause : RemovalCause.EXPIRED);
+                n.retired = true;
+                removed = n;
+            }
+            return null;
+        }
+
+        // EVICTED 由淘汰的一方统计，见 evict
+        void removal(K key, V value, RemovalCause cause) {
+            if (stats != null && cause != RemovalCause.EVICTED) stats.recordRemoval(cause);
+            if (listener == null) return;
+            if (removals == null) removals = new ArrayList<>(2);
+            removals.add(new RemovalNotification<>(key, value, cause));
+        }
+
+        // 同一个实例不算替换
+        void replaced(K key, V old, V value) {
+            if (old != value) removal(key, old, RemovalCause.REPLACED);
+        }
+
+        void notifyListener() {
+            if (removals == null) return;
+            for (RemovalNotification<K, V> n : removals) listener.onRemoval(n.getKey(), n.getValue(), n.getCause());
+        }
+
+        ExpireNode<K, V> create(K key, V value, long time) {
+            return node = new ExpireNode<>(key, value, time);
+        }
+
+        ExpireNode<K, V> renew(ExpireNode<K, V> n, long time) {
+            n.time = time;
+            return node = n;
+        }
+
+        void record(Object key, long now) {
+            notifyListener();
+            if (node == null && removed == null) return;
+            Stripe stripe = stripe(key);
+            if (removed != null) stripe.record(removed);
+            if (node != null) stripe.record(node);
+            stripe.tryDrain(now);
+        }
+    }
+
+    // 指定的时间点已经过去
+    private static boolean passed(long time, long now) {
+        return !ExpireNode.byDefault(time) && time <= now;
+    }
+
+    private V put(K key, V value, long time, long now) {
+        Objects.requireNonNull(value);
+        Update u = new Update(now);
+        map.compute(key, (k, n) -> {
+            if (alive(n, now)) u.old = n.value;
+            if (passed(time, now)) {
+                // 写入的 value 立即过期
+                u.removal(k, value, RemovalCause.EXPIRED);
+                return u.retire(n, RemovalCause.REPLACED);
+            }
+            if (u.old == null) {
+                u.retire(n);
+                return u.create(k, value, time);
+            }
+            n.value = value;
+            u.replaced(k, u.old, value);
+            return u.renew(n, time);
+        });
+        u.record(key, now);
+        return u.old;
+    }
+
+    private V putIfAbsent(K key, V value, long time, long now) {
+        Objects.requireNonNull(value);
+        ExpireNode<K, V> node = getNode(key, now);
+        if (node != null) return node.value;
+        Update u = new Update(now);
+        map.compute(key, (k, n) -> {
+            if (alive(n, now)) {
+                u.old = n.value;
+                return n;
+            }
+            u.retire(n);
+            if (!passed(time, now)) return u.create(k, value, time);
+            u.removal(k, value, RemovalCause.EXPIRED);
+            return null;
+        });
+        u.record(key, now);
+        return u.old;
+    }
+
+    // 修改已存在的 key 的过期时间
+    private void setExpire(K key, long now, Function<ExpireNode<K, V>, Long> time) {
+        Update u = new Update(now);
+        map.computeIfPresent(key, (k, n) -> {
+            if (!alive(n, now)) return u.retire(n);
+            u.old = n.value;
+            long t = time.apply(n);
+            return passed(t, now) ? u.retire(n, RemovalCause.EXPIRED) : u.renew(n, t);
+        });
+        u.record(key, now);
+    }
+
+    @Override
+    public int size() {
+        trim();
+        return this.map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return getNode(key, now()) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        long now = now();
+        for (ExpireNode<K, V> node : map.values()) {
+            if (!expired(node, now) && node.value.equals(value)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public V get(Object key) {
+        ExpireNode<K, V> node = readNode(key, now());
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        ExpireNode<K, V> node = readNode(key, now());
+        return node == null ? defaultValue : node.value;
+    }
+
+    @Override
+    public V peek(Object key) {
+        ExpireNode<K, V> node = getNode(key, now());
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * 取出并续时，过期时间的规则同 {@link #put(Object, long, Object)}
+     */
+    @Override
+    public V get(K key, long timeMillis) {
+        long now = now();
+        if (readNode(key, now) == null) return null;
+        long time = ExpireMapProxy.deadline(timeMillis, now);
+        Update u = new Update(now);
+        map.computeIfPresent(key, (k, n) -> {
+            if (!alive(n, now)) return u.retire(n);
+            u.old = n.value;
+            return passed(time, now) ? u.retire(n, RemovalCause.EXPIRED) : u.renew(n, time);
+        });
+        u.record(key, now);
+        return u.old;
+    }
+
+    /**
+     * @return 过期的时间点，不存在时返回 0
+     */
+    @Override
+    public long getExpire(K key) {
+        ExpireNode<K, V> node = getNode(key, now());
+        return node == null ? 0 : node.expire(defaultTimeMillis);
+    }
+
+    /**
+     * 续时
+     * 如果数值大于现在，则认为是新的时间点。
+     * 否则在原过期时间上增加，负数为缩短
+     */
+    @Override
+    public void addExpire(K key, long timeMillis) {
+        long now = now();
+        if (getNode(key, now) == null) return;
+        setExpire(key, now, n -> timeMillis > now ?
+                timeMillis : Math.max(n.expire(defaultTimeMillis) + timeMillis, 0)
+        );
+    }
+
+    @Override
+    public V put(K key, long timeMillis, V value) {
+        long now = now();
+        return put(key, value, ExpireMapProxy.deadline(timeMillis, now), now);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        long now = now();
+        return put(key, value, ExpireNode.defaultTime(now), now);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        long now = now();
+        return putIfAbsent(key, value, ExpireNode.defaultTime(now), now);
+    }
+
+    @Override
+    public V putIfAbsent(K key, long timeMillis, V value) {
+        long now = now();
+        return putIfAbsent(key, value, ExpireMapProxy.deadline(timeMillis, now), now);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        long now = now();
+        for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue(), ExpireNode.defaultTime(now), now);
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m, long timeMillis) {
+        long now = now();
+        long time = ExpireMapProxy.deadline(timeMillis, now);
+        for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue(), time, now);
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        long now = now();
+        Update u = new Update(now);
+        map.computeIfPresent(cast(key), (k, n) -> {
+            if (alive(n, now)) u.old = n.value;
+            return u.retire(n);
+        });
+        u.record(key, now);
+        return u.old;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        long now = now();
+        if (value == null || getNode(key, now) == null) return false;
+        Update u = new Update(now);
+        map.computeIfPresent(cast(key), (k, n) -> {
+            if (!alive(n, now)) return u.retire(n);
+            if (!n.value.equals(value)) return n;
+            u.old = n.value;
+            return u.retire(n);
+        });
+        u.record(key, now);
+        return u.old != null;
+    }
+
+    @Override
+    public boolean evict(K key, V value) {
+        long now = now();
+        if (value == null || getNode(key, now) == null) return false;
+        Update u = new Update(now);
+        map.computeIfPresent(key, (k, n) -> {
+            if (!alive(n, now)) return u.retire(n);
+            if (!n.value.equals(value)) return n;
+            u.old = n.value;
+            return u.retire(n, RemovalCause.EVICTED);
+        });
+        u.record(key, now);
+        return u.old != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private K cast(Object key) {
+        return (K) key;
+    }
+
+    /**
+     * 只替换 value，过期时间不变
+     */
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        Objects.requireNonNull(oldValue);
+        Objects.requireNonNull(newValue);
+        long now = now();
+        if (getNode(key, now) == null) return false;
+        Update u = new Update(now);
+        map.computeIfPresent(key, (k, n) -> {
+            if (!alive(n, now)) return u.retire(n);
+            if (n.value.equals(oldValue)) {
+                u.old = n.value;
+                n.value = newValue;
+                u.replaced(k, u.old, newValue);
+            }
+            return n;
+        });
+        u.record(key, now);
+        return u.old != null;
+    }
+
+    /**
+     * 只替换 value，过期时间不变
+     */
+    @Override
+    public V replace(K key, V value) {
+        Objects.requireNonNull(value);
+        long now = now();
+        if (getNode(key, now) == null) return null;
+        Update u = new Update(now);
+        map.computeIfPresent(key, (k, n) -> {
+            if (!alive(n, now)) return u.retire(n);
+            u.old = n.value;
+            n.value = value;
+            u.replaced(k, u.old, value);
+            return n;
+        });
+        u.record(key, now);
+        return u.old;
+    }
+
+    /**
+     * 只替换 value，过期时间不变
+     */
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        for (K key : map.keySet()) {
+            computeIfPresent(key, (k, v) -> Objects.requireNonNull(function.apply(k, v)));
+        }
+    }
+
+    /**
+     * 新增的 key 使用默认过期时间，同一个 key 的函数只执行一次
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        long now = now();
+        ExpireNode<K, V> node = getNode(key, now);
+        if (node != null) return node.value;
+        Update u = new Update(now);
+        ExpireNode<K, V> result = map.compute(key, (k, n) -> {
+            if (alive(n, now)) return n;
+            V value = mappingFunction.apply(k);
+            u.retire(n);
+            return value == null ? null : u.create(k, value, ExpireNode.defaultTime(now));
+        });
+        u.record(key, now);
+        return result == null ? null : result.value;
+    }
+
+    /**
+     * 过期时间不变，返回 null 时删除
+     */
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        long now = now();
+        if (getNode(key, now) == null) return null;
+        Update u = new Update(now);
+        ExpireNode<K, V> result = map.computeIfPresent(key, (k, n) -> {
+            if (!alive(n, now)) return u.retire(n);
+            V value = remappingFunction.apply(k, n.value);
+            if (value == null) return u.retire(n);
+            u.replaced(k, n.value, value);
+            n.value = value;
+            return n;
+        });
+        u.record(key, now);
+        return result == null ? null : result.value;
+    }
+
+    /**
+     * 已存在的 key 过期时间不变，新增的 key 使用默认过期时间，返回 null 时删除
+     */
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        long now = now();
+        Update u = new Update(now);
+        ExpireNode<K, V> result = map.compute(key, (k, n) -> {
+            boolean alive = alive(n, now);
+            V value = remappingFunction.apply(k, alive ? n.value : null);
+            if (value == null || !alive) u.retire(n);
+            if (value == null) return null;
+            if (!alive) return u.create(k, value, ExpireNode.defaultTime(now));
+            u.replaced(k, n.value, value);
+            n.value = value;
+            return n;
+        });
+        u.record(key, now);
+        return result == null ? null : result.value;
+    }
+
+    /**
+     * 已存在的 key 过期时间不变，新增的 key 使用默认过期时间，返回 null 时删除
+     */
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        long now = now();
+        Update u = new Update(now);
+        ExpireNode<K, V> result = map.compute(key, (k, n) -> {
+            if (!alive(n, now)) {
+                u.retire(n);
+                return u.create(k, value, ExpireNode.defaultTime(now));
+            }
+            V v = remappingFunction.apply(n.value, value);
+            if (v == null) return u.retire(n);
+            u.replaced(k, n.value, v);
+            n.value = v;
+            return n;
+        });
+        u.record(key, now);
+        return result == null ? null : result.value;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        long now = now();
+        for (ExpireNode<K, V> node : map.values()) {
+            if (!expired(node, now)) action.accept(node.key, node.value);
+        }
+    }
+
+    /**
+     * 逐个删除，与同时进行的写入互不影响
+     */
+    @Override
+    public void clear() {
+        for (K key : map.keySet()) remove(key);
+    }
+
+    /**
+     * 整理所有分段，等待各分段的锁
+     */
+    @Override
+    public void trim() {
+        long now = now();
+        long start = stats == null ? 0 : ticker.nanos();
+        int evicted = 0;
+        for (Stripe stripe : stripes) evicted += stripe.drain(now);
+        // 与 tryDrain 相同，只记录有删除的清理，size() 也会调用
+        if (stats != null && evicted > 0) stats.recordSweep(ticker.nanos() - start);
+    }
+
+    /**
+     * 不加锁，读写同时进行时各项计数不是同一时刻的值
+     */
+    @Override
+    public ExpireMapStats stats() {
+        return stats == null ? ExpireMapStats.EMPTY : stats.snapshot();
+    }
+
+    @Override
+    public long getDefaultExpire() {
+        return defaultTimeMillis;
+    }
+
+    /**
+     * 使用默认过期时间的 key 记录的是写入时间，修改后全部按新的默认时间计算
+     */
+    @Override
+    public void setDefaultExpire(long timeMillis) {
+        ExpireMapProxy.checkDefault(timeMillis);
+        this.defaultTimeMillis = timeMillis;
+    }
+
+    @Override
+    public Set<K> keySet() {
+        Set<K> ks = keys;
+        if (ks == null) {
+            ks = new AbstractSet<K>() {
+                @Override
+                public Iterator<K> iterator() {
+                    return new NodeIterator<K>() {
+                        @Override
+                        K map(ExpireNode<K, V> node, V value) {
+                            return node.key;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return ConcurrentExpireMapProxy.this.size();
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return containsKey(o);
+                }
+
+                @Override
+                public boolean remove(Object o) {
+                    return ConcurrentExpireMapProxy.this.remove(o) != null;
+                }
+
+                @Override
+                public void clear() {
+                    ConcurrentExpireMapProxy.this.clear();
+                }
+            };
+            keys = ks;
+        }
+        return ks;
+    }
+
+    @Override
+    public Collection<V> values() {
+        Collection<V> vs = vals;
+        if (vs == null) {
+            vs = new AbstractCollection<V>() {
+                @Override
+                public Iterator<V> iterator() {
+                    return new NodeIterator<V>() {
+                        @Override
+                        V map(ExpireNode<K, V> node, V value) {
+                            return value;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return ConcurrentExpireMapProxy.this.size();
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return containsValue(o);
+                }
+
+                @Override
+                public void clear() {
+                    ConcurrentExpireMapProxy.this.clear();
+                }
+            };
+            vals = vs;
+        }
+        return vs;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es = entries;
+        if (es == null) {
+            es = new AbstractSet<Entry<K, V>>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new NodeIterator<Entry<K, V>>() {
+                        @Override
+                        Entry<K, V> map(ExpireNode<K, V> node, V value) {
+                            return new WriteThroughEntry(node.key, value);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return ConcurrentExpireMapProxy.this.size();
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    if (!(o instanceof Entry)) return false;
+                    Entry<?, ?> e = (Entry<?, ?>) o;
+                    V value = get(e.getKey());
+                    return value != null && value.equals(e.getValue());
+                }
+
+                @Override
+                public boolean remove(Object o) {
+                    if (!(o instanceof Entry)) return false;
+                    Entry<?, ?> e = (Entry<?, ?>) o;
+                    return ConcurrentExpireMapProxy.this.remove(e.getKey(), e.getValue());
+                }
+
+                @Override
+                public void clear() {
+                    ConcurrentExpireMapProxy.this.clear();
+                }
+            };
+            entries = es;
+        }
+        return es;
+    }
+
+    /**
+     * 弱一致的遍历，跳过开始遍历时已过期的 key
+     */
+    private abstract class NodeIterator<E> implements Iterator<E> {
+
+        private final Iterator<ExpireNode<K, V>> iterator = map.values().iterator();
+
+        private final long now = now();
+
+        private ExpireNode<K, V> next, current;
+
+        private V value;
+
+        NodeIterator() {
+            advance();
+        }
+
+        abstract E map(ExpireNode<K, V> node, V value);
+
+        private void advance() {
+            next = null;
+            while (iterator.hasNext()) {
+                ExpireNode<K, V> node = iterator.next();
+                if (!expired(node, now)) {
+                    next = node;
+                    value = node.value;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (next == null) throw new NoSuchElementException();
+            current = next;
+            E e = map(current, value);
+            advance();
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            if (current == null) throw new IllegalStateException();
+            ConcurrentExpireMapProxy.this.remove(current.key, current.value);
+            current = null;
+        }
+    }
+
+    /**
+     * setValue 时写回 map，过期时间不变
+     */
+    private final class WriteThroughEntry extends SimpleEntry<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        WriteThroughEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            V old = super.setValue(Objects.requireNonNull(value));
+            replace(getKey(), value);
+            return old;
+        }
+    }
+
+}
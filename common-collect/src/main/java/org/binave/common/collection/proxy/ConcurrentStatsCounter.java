@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+import org.binave.common.collection.ExpireMapStats;
+import org.binave.common.collection.RemovalCause;
+import org.binave.common.collection.StatsCounter;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 线程安全的 {@link StatsCounter}
+ *
+ * 使用分段计数的 LongAdder，多线程同时记录时不争抢同一个变量。
+ * 快照逐个读取计数，不加锁，各项之间不保证是同一时刻的值
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public class ConcurrentStatsCounter implements StatsCounter {
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder sweepCount = new LongAdder();
+    private final LongAdder totalSweepTime = new LongAdder();
+    private final LongAccumulator maxSweepTime = new LongAccumulator(Math::max, 0);
+
+    private final LongAdder[] removalCounts = new LongAdder[RemovalCause.values().length];
+
+    public ConcurrentStatsCounter() {
+        for (int i = 0; i < removalCounts.length; i++) removalCounts[i] = new LongAdder();
+    }
+
+    @Override
+    public void recordHits(int count) {
+        hitCount.add(count);
+    }
+
+    @Override
+    public void recordMisses(int count) {
+        missCount.add(count);
+    }
+
+    @Override
+    public void recordLoadSuccess(long loadNanos) {
+        loadSuccessCount.increment();
+        totalLoadTime.add(loadNanos);
+    }
+
+    @Override
+    public void recordLoadFailure(long loadNanos) {
+        loadFailureCount.increment();
+        totalLoadTime.add(loadNanos);
+    }
+
+    @Override
+    public void recordRemoval(RemovalCause cause) {
+        removalCounts[cause.ordinal()].increment();
+    }
+
+    @Override
+    public void recordSweep(long sweepNanos) {
+        sweepCount.increment();
+        totalSweepTime.add(sweepNanos);
+        maxSweepTime.accumulate(sweepNanos);
+    }
+
+    @Override
+    public ExpireMapStats snapshot() {
+        long[] removals = new long[removalCounts.length];
+        for (int i = 0; i < removals.length; i++) removals[i] = removalCounts[i].sum();
+        return new ExpireMapStats(
+                hitCount.sum(), missCount.sum(),
+                loadSuccessCount.sum(), loadFailureCount.sum(), totalLoadTime.sum(),
+                removals,
+                sweepCount.sum(), totalSweepTime.sum(), maxSweepTime.get()
+        );
+    }
+
+}
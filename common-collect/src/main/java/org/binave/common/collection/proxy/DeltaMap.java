@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+import org.binave.common.collection.ImmutableHashMap;
+import org.binave.common.collection.MapDelta;
+import org.binave.common.collection.PersistentHashMap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * 只读的增量 Map
+ *
+ * 在不变的底层 Map 上叠加若干层修改，每次增量更新只分配一层，与底层共享其余部分。
+ * 新的一层不小于上一层的 1/4 时与上一层合并，层数保持在 log4 级别；
+ * 各层修改的总数超过底层的 1/4 时复制为新的底层（{@link ImmutableHashMap}），均摊到每个修改上为常数。
+ * 层中的 null 值以标记代替，每层只查找一次；
+ * 每层附带一个过滤器（单哈希的布隆过滤器，每个 key 8 位），未修改的 key 大多只需检查过滤器
+ *
+ * 底层在之后不能被修改
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+final class DeltaMap<K, V> extends AbstractMap<K, V> {
+
+    // 删除标记
+    private static final Object REMOVED = new Object();
+
+    // null 值
+    private static final Object NULL = new Object();
+
+    private final Map<K, V> base;
+
+    private final DeltaMap<K, V> parent;
+
+    private final Map<K, Object> overlay;
+
+    private final int size;
+
+    private final int pending; // 本层及以下各层 overlay 的元素个数之和
+
+    private final long[] filter;
+
+    private final int shift; // 64 - log2(过滤器的位数)
+
+    private Set<Entry<K, V>> entrySet;
+
+    private DeltaMap(Map<K, V> base, DeltaMap<K, V> parent, Map<K, Object> overlay, int size, int pending) {
+        this.base = base;
+        this.parent = parent;
+        this.overlay = overlay;
+        this.size = size;
+        this.pending = pending;
+        int bits = Math.max(64, Integer.highestOneBit(Math.max(1, overlay.size()) * 8 - 1) << 1);
+        this.filter = new long[bits >>> 6];
+        this.shift = 64 - Integer.numberOfTrailingZeros(bits);
+        for (K key : overlay.keySet()) {
+            int index = index(key);
+            filter[index >>> 6] |= 1L << index;
+        }
+    }
+
+    private int index(Object key) {
+        return (int) ((Objects.hashCode(key) * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    // 为 false 时本层一定没有这个 key
+    private boolean mightContain(Object key) {
+        int index = index(key);
+        return (filter[index >>> 6] & 1L << index) != 0;
+    }
+
+    /**
+     * 以 current 为准，整理出实际生效的修改
+     * 同一个键同时出现在 upserts 与 removals 中时，以 upserts 为准；值不变的键忽略
+     */
+    static <K, V> MapDelta<K, V> normalize(Map<K, V> current,
+                                           Map<? extends K, ? extends V> upserts,
+                                           Collection<? extends K> removals) {
+        Map<K, V> added = new HashMap<>(), changed = new HashMap<>();
+        Set<K> removed = new HashSet<>();
+        for (Entry<? extends K, ? extends V> entry : upserts.entrySet()) {
+            K key = entry.getKey();
+            V value = entry.getValue(), old = current.get(key);
+            if (old == null && !current.containsKey(key)) {
+                added.put(key, value);
+            } else if (!Objects.equals(old, value)) {
+                changed.put(key, value);
+            }
+        }
+        for (K key : removals)
+            if (!upserts.containsKey(key) && current.containsKey(key)) removed.add(key);
+        return new MapDelta<>(added, changed, removed);
+    }
+
+    /**
+     * 在 current 上叠加修改，不修改 current
+     * current 为 {@link PersistentHashMap} 时直接生成新版本，不叠加
+     *
+     * @param delta 由 {@link #normalize} 或 {@link MapDelta#diff} 以 current 为准得到
+     */
+    static <K, V> Map<K, V> apply(Map<K, V> current, MapDelta<K, V> delta) {
+        if (delta.isEmpty()) return current;
+        if (current instanceof PersistentHashMap)
+            return ((PersistentHashMap<K, V>) current).toBuilder()
+                    .putAll(delta.upserts())
+                    .removeAll(delta.removed())
+                    .build();
+
+        Map<K, Object> overlay = new HashMap<>();
+        for (Entry<K, V> entry : delta.upserts().entrySet()) {
+            V value = entry.getValue();
+            overlay.put(entry.getKey(), value == null ? NULL : value);
+        }
+        for (K key : delta.removed()) overlay.put(key, REMOVED);
+        int size = current.size() + delta.added().size() - delta.removed().size();
+
+        Map<K, V> base = current;
+        DeltaMap<K, V> parent = null;
+        if (current instanceof DeltaMap) {
+            parent = (DeltaMap<K, V>) current;
+            base = parent.base;
+        }
+        // 上一层不大于本层的 4 倍时合并
+        while (parent != null && parent.overlay.size() <= overlay.size() * 4) {
+            Map<K, Object> merged = new HashMap<>(parent.overlay);
+            merged.putAll(overlay);
+            overlay = merged;
+            parent = parent.parent;
+        }
+        int pending = overlay.size() + (parent == null ? 0 : parent.pending);
+        DeltaMap<K, V> map = new DeltaMap<>(base, parent, overlay, size, pending);
+        return pending > base.size() >> 2 ?
+                ImmutableHashMap.copyOf(map) :
+                map;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        for (DeltaMap<K, V> d = this; d != null; d = d.parent) {
+            if (!d.mightContain(key)) continue;
+            Object value = d.overlay.get(key);
+            if (value != null) return value == REMOVED || value == NULL ? null : (V) value;
+        }
+        return base.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        for (DeltaMap<K, V> d = this; d != null; d = d.parent) {
+            if (!d.mightContain(key)) continue;
+            Object value = d.overlay.get(key);
+            if (value != null) return value != REMOVED;
+        }
+        return base.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es = entrySet;
+        return es != null ? es : (entrySet = new EntrySet());
+    }
+
+    /**
+     * 各层从上到下，每层只输出未被上层覆盖的键，最后是底层
+     */
+    private final class EntrySet extends AbstractSet<Entry<K, V>> {
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            Object key = e.getKey();
+            return containsKey(key) && Objects.equals(get(key), e.getValue());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Iterator<Entry<K, V>> iterator() {
+            List<Map<K, Object>> layers = new ArrayList<>();
+            for (DeltaMap<K, V> d = DeltaMap.this; d != null; d = d.parent) layers.add(d.overlay);
+
+            Stream<Entry<K, V>> entries = Stream.empty();
+            for (int i = 0; i < layers.size(); i++) {
+                int depth = i;
+                entries = Stream.concat(entries, layers.get(i).entrySet().stream()
+                        .filter(e -> e.getValue() != REMOVED && !shadowed(layers, depth, e.getKey()))
+                        .map(e -> new SimpleImmutableEntry<>(e.getKey(), e.getValue() == NULL ? null : (V) e.getValue())));
+            }
+            entries = Stream.concat(entries, base.entrySet().stream()
+                    .filter(e -> !shadowed(layers, layers.size(), e.getKey()))
+                    .map(SimpleImmutableEntry::new));
+            return entries.iterator();
+        }
+    }
+
+    // 是否被前 depth 层覆盖
+    private static boolean shadowed(List<? extends Map<?, ?>> layers, int depth, Object key) {
+        for (int i = 0; i < depth; i++)
+            if (layers.get(i).containsKey(key)) return true;
+        return false;
+    }
+
+}
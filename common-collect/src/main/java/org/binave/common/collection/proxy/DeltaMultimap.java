@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multiset;
+import org.binave.common.collection.MapDelta;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * 只读的增量 {@link Multimap}
+ *
+ * 以 key 为单位修改，asMap() 为 {@link DeltaMap}。
+ * 值的集合在写入时复制为只读的、与当前实例的值集合同类的 List、Set 或 SortedSet，
+ * 当前实例为空时使用 List
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+final class DeltaMultimap<K, V> implements Multimap<K, V> {
+
+    private final Map<K, Collection<V>> map;
+
+    private final int size;
+
+    // 同类的空集合，不存在的 key 返回它
+    private final Collection<V> empty;
+
+    private DeltaMultimap(Map<K, Collection<V>> map, int size, Collection<V> empty) {
+        this.map = map;
+        this.size = size;
+        this.empty = empty;
+    }
+
+    private static <K, V> Map<K, Collection<V>> asMap(Multimap<K, V> multimap) {
+        if (multimap == null) return Collections.emptyMap();
+        return multimap instanceof DeltaMultimap ? ((DeltaMultimap<K, V>) multimap).map : multimap.asMap();
+    }
+
+    // 按任一 key 的值集合判断种类
+    private static <K, V> Collection<V> emptyOf(Multimap<K, V> multimap) {
+        if (multimap instanceof DeltaMultimap) return ((DeltaMultimap<K, V>) multimap).empty;
+        Iterator<Collection<V>> it = asMap(multimap).values().iterator();
+        if (it.hasNext()) {
+            Collection<V> values = it.next();
+            if (values instanceof SortedSet)
+                return Collections.unmodifiableSortedSet(new TreeSet<>(((SortedSet<V>) values).comparator()));
+            if (values instanceof Set) return Collections.emptySet();
+        }
+        return Collections.emptyList();
+    }
+
+    // 与 empty 同类的只读副本，Set 去重，值相同时 equals 相同
+    private static <V> Collection<V> copy(Collection<V> empty, Collection<V> values) {
+        if (empty instanceof SortedSet) {
+            SortedSet<V> set = new TreeSet<>(((SortedSet<V>) empty).comparator());
+            set.addAll(values);
+            return Collections.unmodifiableSortedSet(set);
+        }
+        if (empty instanceof Set) return Collections.unmodifiableSet(new LinkedHashSet<>(values));
+        return Collections.unmodifiableList(new ArrayList<>(values));
+    }
+
+    /**
+     * 以 current 为准，整理出实际生效的修改，空集合视为删除
+     */
+    static <K, V> MapDelta<K, Collection<V>> normalize(Multimap<K, V> current,
+                                                      Map<? extends K, ? extends Collection<V>> upserts,
+                                                      Collection<? extends K> removals) {
+        Collection<V> empty = emptyOf(current);
+        Map<K, Collection<V>> copies = new HashMap<>();
+        Set<K> removed = new HashSet<>(removals);
+        upserts.forEach((key, values) -> {
+            if (values == null || values.isEmpty()) {
+                removed.add(key);
+            } else {
+                copies.put(key, copy(empty, values));
+                removed.remove(key);
+            }
+        });
+        return DeltaMap.normalize(asMap(current), copies, removed);
+    }
+
+    static <K, V> Multimap<K, V> apply(Multimap<K, V> current, MapDelta<K, Collection<V>> delta) {
+        Map<K, Collection<V>> map = asMap(current);
+        int size = current == null ? 0 : current.size();
+        for (Collection<V> values : delta.added().values()) size += values.size();
+        for (Map.Entry<K, Collection<V>> entry : delta.changed().entrySet())
+            size += entry.getValue().size() - map.get(entry.getKey()).size();
+        for (K key : delta.removed()) size -= map.get(key).size();
+        return new DeltaMultimap<>(DeltaMap.apply(map, delta), size, emptyOf(current));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (Collection<V> values : map.values())
+            if (values.contains(value)) return true;
+        return false;
+    }
+
+    @Override
+    public boolean containsEntry(Object key, Object value) {
+        Collection<V> values = map.get(key);
+        return values != null && values.contains(value);
+    }
+
+    @Override
+    public boolean put(K key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean putAll(K key, Iterable<? extends V> values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean putAll(Multimap<? extends K, ? extends V> multimap) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<V> replaceValues(K key, Iterable<? extends V> values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<V> removeAll(Object key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<V> get(K key) {
+        Collection<V> values = map.get(key);
+        return values != null ? values : empty;
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return Collections.unmodifiableSet(map.keySet());
+    }
+
+    @Override
+    public Multiset<K> keys() {
+        return new Keys();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return map.values().stream().flatMap(Collection::stream).iterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Collection<Map.Entry<K, V>> entries() {
+        return new AbstractCollection<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return map.entrySet().stream().flatMap(e -> e.getValue().stream()
+                        .map(v -> (Map.Entry<K, V>) new AbstractMap.SimpleImmutableEntry<>(e.getKey(), v))
+                ).iterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Map<K, Collection<V>> asMap() {
+        return Collections.unmodifiableMap(map);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        return obj instanceof Multimap && map.equals(((Multimap<?, ?>) obj).asMap());
+    }
+
+    @Override
+    public int hashCode() {
+        return map.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return map.toString();
+    }
+
+    /**
+     * keys() 的只读视图，每个 key 的个数为其值的个数
+     */
+    private final class Keys extends AbstractCollection<K> implements Multiset<K> {
+
+        @Override
+        public int count(Object element) {
+            Collection<V> values = map.get(element);
+            return values == null ? 0 : values.size();
+        }
+
+        @Override
+        public int add(K element, int occurrences) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int remove(Object element, int occurrences) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int setCount(K element, int count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean setCount(K element, int oldCount, int newCount) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<K> elementSet() {
+            return keySet();
+        }
+
+        @Override
+        public Set<Entry<K>> entrySet() {
+            return new AbstractSet<Entry<K>>() {
+                @Override
+                public Iterator<Entry<K>> iterator() {
+                    return map.entrySet().stream()
+                            .map(e -> (Entry<K>) new KeyCount<>(e.getKey(), e.getValue().size()))
+                            .iterator();
+                }
+
+                @Override
+                public int size() {
+                    return map.size();
+                }
+            };
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            return map.entrySet().stream()
+                    .flatMap(e -> Collections.nCopies(e.getValue().size(), e.getKey()).stream())
+                    .iterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object element) {
+            return map.containsKey(element);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (object == this) return true;
+            if (!(object instanceof Multiset)) return false;
+            Multiset<?> other = (Multiset<?>) object;
+            if (other.size() != size || other.entrySet().size() != map.size()) return false;
+            for (Entry<?> entry : other.entrySet())
+                if (count(entry.getElement()) != entry.getCount()) return false;
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return entrySet().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return entrySet().toString();
+        }
+    }
+
+    private static final class KeyCount<K> implements Multiset.Entry<K> {
+
+        private final K element;
+
+        private final int count;
+
+        KeyCount(K element, int count) {
+            this.element = element;
+            this.count = count;
+        }
+
+        @Override
+        public K getElement() {
+            return element;
+        }
+
+        @Override
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Multiset.Entry)) return false;
+            Multiset.Entry<?> e = (Multiset.Entry<?>) o;
+            return count == e.getCount() && Objects.equals(element, e.getElement());
+        }
+
+        @Override
+        public int hashCode() {
+            return (element == null ? 0 : element.hashCode()) ^ count;
+        }
+
+        @Override
+        public String toString() {
+            return count == 1 ? String.valueOf(element) : element + " x " + count;
+        }
+    }
+
+}
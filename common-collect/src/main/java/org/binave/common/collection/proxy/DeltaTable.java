@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+import com.google.common.collect.Table;
+import org.binave.common.collection.MapDelta;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 只读的增量 {@link Table}
+ *
+ * 以行为单位修改，rowMap() 为 {@link DeltaMap}，行在写入时复制为只读的 Map。
+ * 按列访问需要遍历所有行
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+final class DeltaTable<R, C, V> implements Table<R, C, V> {
+
+    private final Map<R, Map<C, V>> rows;
+
+    private final int size;
+
+    private DeltaTable(Map<R, Map<C, V>> rows, int size) {
+        this.rows = rows;
+        this.size = size;
+    }
+
+    private static <R, C, V> Map<R, Map<C, V>> rowMap(Table<R, C, V> table) {
+        if (table == null) return Collections.emptyMap();
+        return table instanceof DeltaTable ? ((DeltaTable<R, C, V>) table).rows : table.rowMap();
+    }
+
+    /**
+     * 以 current 为准，整理出实际生效的修改，空行视为删除
+     */
+    static <R, C, V> MapDelta<R, Map<C, V>> normalize(Table<R, C, V> current,
+                                                     Map<? extends R, ? extends Map<C, V>> upserts,
+                                                     Collection<? extends R> removals) {
+        Map<R, Map<C, V>> copies = new HashMap<>();
+        Set<R> removed = new HashSet<>(removals);
+        upserts.forEach((rowKey, row) -> {
+            if (row == null || row.isEmpty()) {
+                removed.add(rowKey);
+            } else {
+                copies.put(rowKey, Collections.unmodifiableMap(new LinkedHashMap<>(row)));
+                removed.remove(rowKey);
+            }
+        });
+        return DeltaMap.normalize(rowMap(current), copies, removed);
+    }
+
+    static <R, C, V> Table<R, C, V> apply(Table<R, C, V> current, MapDelta<R, Map<C, V>> delta) {
+        Map<R, Map<C, V>> rows = rowMap(current);
+        int size = current == null ? 0 : current.size();
+        for (Map<C, V> row : delta.added().values()) size += row.size();
+        for (Map.Entry<R, Map<C, V>> entry : delta.changed().entrySet())
+            size += entry.getValue().size() - rows.get(entry.getKey()).size();
+        for (R rowKey : delta.removed()) size -= rows.get(rowKey).size();
+        return new DeltaTable<>(DeltaMap.apply(rows, delta), size);
+    }
+
+    @Override
+    public boolean contains(Object rowKey, Object columnKey) {
+        Map<C, V> row = rows.get(rowKey);
+        return row != null && row.containsKey(columnKey);
+    }
+
+    @Override
+    public boolean containsRow(Object rowKey) {
+        return rows.containsKey(rowKey);
+    }
+
+    @Override
+    public boolean containsColumn(Object columnKey) {
+        for (Map<C, V> row : rows.values())
+            if (row.containsKey(columnKey)) return true;
+        return false;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (Map<C, V> row : rows.values())
+            if (row.containsValue(value)) return true;
+        return false;
+    }
+
+    @Override
+    public V get(Object rowKey, Object columnKey) {
+        Map<C, V> row = rows.get(rowKey);
+        return row == null ? null : row.get(columnKey);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public V put(R rowKey, C columnKey, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void putAll(Table<? extends R, ? extends C, ? extends V> table) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public V remove(Object rowKey, Object columnKey) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<C, V> row(R rowKey) {
+        Map<C, V> row = rows.get(rowKey);
+        return row != null ? row : Collections.emptyMap();
+    }
+
+    @Override
+    public Map<R, V> column(C columnKey) {
+        Map<R, V> column = new LinkedHashMap<>();
+        rows.forEach((rowKey, row) -> {
+            if (row.containsKey(columnKey)) column.put(rowKey, row.get(columnKey));
+        });
+        return Collections.unmodifiableMap(column);
+    }
+
+    @Override
+    public Set<Cell<R, C, V>> cellSet() {
+        return new AbstractSet<Cell<R, C, V>>() {
+            @Override
+            public Iterator<Cell<R, C, V>> iterator() {
+                return rows.entrySet().stream().flatMap(r -> r.getValue().entrySet().stream()
+                        .map(c -> (Cell<R, C, V>) new ImmutableCell<>(r.getKey(), c.getKey(), c.getValue()))
+                ).iterator();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Cell)) return false;
+                Cell<?, ?, ?> cell = (Cell<?, ?, ?>) o;
+                return DeltaTable.this.contains(cell.getRowKey(), cell.getColumnKey()) &&
+                        Objects.equals(get(cell.getRowKey(), cell.getColumnKey()), cell.getValue());
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Set<R> rowKeySet() {
+        return Collections.unmodifiableSet(rows.keySet());
+    }
+
+    @Override
+    public Set<C> columnKeySet() {
+        Set<C> columns = new HashSet<>();
+        for (Map<C, V> row : rows.values()) columns.addAll(row.keySet());
+        return Collections.unmodifiableSet(columns);
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return rows.values().stream().flatMap(row -> row.values().stream()).iterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Map<R, Map<C, V>> rowMap() {
+        return Collections.unmodifiableMap(rows);
+    }
+
+    @Override
+    public Map<C, Map<R, V>> columnMap() {
+        Map<C, Map<R, V>> columns = new LinkedHashMap<>();
+        rows.forEach((rowKey, row) -> row.forEach((columnKey, value) ->
+                columns.computeIfAbsent(columnKey, c -> new LinkedHashMap<>()).put(rowKey, value)
+        ));
+        return Collections.unmodifiableMap(columns);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        return obj instanceof Table && cellSet().equals(((Table<?, ?, ?>) obj).cellSet());
+    }
+
+    @Override
+    public int hashCode() {
+        return cellSet().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return rows.toString();
+    }
+
+    private static final class ImmutableCell<R, C, V> implements Cell<R, C, V> {
+
+        private final R rowKey;
+
+        private final C columnKey;
+
+        private final V value;
+
+        ImmutableCell(R rowKey, C columnKey, V value) {
+            this.rowKey = rowKey;
+            this.columnKey = columnKey;
+            this.value = value;
+        }
+
+        @Override
+        public R getRowKey() {
+            return rowKey;
+        }
+
+        @Override
+        public C getColumnKey() {
+            return columnKey;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) return true;
+            if (!(obj instanceof Cell)) return false;
+            Cell<?, ?, ?> other = (Cell<?, ?, ?>) obj;
+            return Objects.equals(rowKey, other.getRowKey()) &&
+                    Objects.equals(columnKey, other.getColumnKey()) &&
+                    Objects.equals(value, other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(rowKey, columnKey, value);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + rowKey + "," + columnKey + ")=" + value;
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+import org.binave.common.collection.ExpireMap;
+
+/**
+ * 本包中的 {@link ExpireMap} 之间使用的读取、淘汰入口，不属于 ExpireMap 的公开约定
+ *
+ * 外层（{@link BoundedExpireMapProxy}、{@link LoadingExpireMapProxy}）通过
+ * {@link #peekIn}、{@link #evictFrom} 调用，被包装的 map 没有实现本接口时退化为普通的读取、删除
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+interface ExpireMapHooks<K, V> {
+
+    /**
+     * 读取，不记录命中、未命中，不计入淘汰的访问
+     */
+    V peek(Object key);
+
+    /**
+     * 容量淘汰，值相同时删除
+     * 监听器收到 EVICTED，不计入本 map 的移除统计，由淘汰的一方统计
+     *
+     * @return 是否删除
+     */
+    boolean evict(K key, V value);
+
+    @SuppressWarnings("unchecked")
+    static <K, V> V peekIn(ExpireMap<K, V> map, Object key) {
+        return map instanceof ExpireMapHooks ?
+                ((ExpireMapHooks<K, V>) map).peek(key) :
+                map.getOrDefault(key, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> boolean evictFrom(ExpireMap<K, V> map, K key, V value) {
+        return map instanceof ExpireMapHooks ?
+                ((ExpireMapHooks<K, V>) map).evict(key, value) :
+                map.remove(key, value);
+    }
+
+}
@@ -1,209 +1,718 @@
-package org.binave.common.collection.proxy;
-
-import org.binave.common.collection.ExpireMap;
-
-import java.util.Collection;
-import java.util.Map;
-import java.util.Set;
-import java.util.function.BiConsumer;
-import java.util.function.BiFunction;
-import java.util.function.Function;
-
-/**
- * @author by bin jin on 2019/08/28 01:14.
- */
-public class ExpireMapProxy<K, V> implements ExpireMap<K, V> {
-
-    private Map<K, V> map;
-    private long defaultTimeMillis;
-
-    // 当改变整体的超时时间时，改变这个
-    private long offset;
-
-    public ExpireMapProxy(Map<K, V> map, long defaultTimeMillis) {
-        if (map instanceof ExpireMap) {
-            throw new IllegalArgumentException();
-        }
-        this.map = map;
-        this.defaultTimeMillis = defaultTimeMillis;
-    }
-
-    @Override
-    public int size() {
-        trim();
-        return this.map.size();
-    }
-
-    @Override
-    public boolean isEmpty() {
-        trim();
-        return this.map.isEmpty();
-    }
-
-    @Override
-    public boolean containsKey(Object key) {
-        return this.map.containsKey(key);
-    }
-
-    @Override
-    public boolean containsValue(Object value) {
-        return false;
-    }
-
-    @Override
-    public V get(Object key) {
-        return null;
-    }
-
-    @Override
-    public V get(K key, long timeMillis) {
-        return null;
-    }
-
-    @Override
-    public long getExpire(K key) {
-        return 0;
-    }
-
-    @Override
-    public void addExpire(K key, long timeMillis) {
-
-    }
-
-    @Override
-    public V put(K key, long timeMillis, V value) {
-        return null;
-    }
-
-    @Override
-    public V putIfAbsent(K key, long timeMillis, V value) {
-        return null;
-    }
-
-    @Override
-    public V put(K key, V value) {
-        return put(key, defaultTimeMillis, value);
-    }
-
-    @Override
-    public V remove(Object key) {
-        return this.map.remove(key);
-    }
-
-    @Override
-    public void putAll(Map<? extends K, ? extends V> m) {
-
-    }
-
-    @Override
-    public void clear() {
-        this.map.clear();
-    }
-
-    @Override
-    public Set<K> keySet() {
-        trim();
-        return this.map.keySet();
-    }
-
-    @Override
-    public Collection<V> values() {
-        trim();
-        return null;
-    }
-
-    @Override
-    public Set<Entry<K, V>> entrySet() {
-        trim();
-        return null;
-    }
-
-    @Override
-    public V getOrDefault(Object key, V defaultValue) {
-        return null;
-    }
-
-    @Override
-    public void forEach(BiConsumer<? super K, ? super V> action) {
-
-    }
-
-    @Override
-    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
-
-    }
-
-    @Override
-    public V putIfAbsent(K key, V value) {
-        return null;
-    }
-
-    @Override
-    public boolean remove(Object key, Object value) {
-        return false;
-    }
-
-    @Override
-    public boolean replace(K key, V oldValue, V newValue) {
-        return false;
-    }
-
-    @Override
-    public V replace(K key, V value) {
-        return null;
-    }
-
-    @Override
-    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
-        return null;
-    }
-
-    @Override
-    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
-        return null;
-    }
-
-    @Override
-    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
-        return null;
-    }
-
-    @Override
-    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
-        return null;
-    }
-
-    @Override
-    public void trim() {
-
-    }
-
-    @Override
-    public long getDefaultExpire() {
-        return 0;
-    }
-
-    @Override
-    public void setDefaultExpire(long timeMillis) {
-
-    }
-
-    @Override
-    public void putAll(Map<? extends K, ? extends V> m, long timeMillis) {
-
-    }
-
-    private class Expire {
-        V v;
-        long timeMillis;
-
-        Expire(V v, long timeMillis) {
-            set(v, timeMillis);
-        }
-
-        void set(V v, long timeMillis) {
-            this.v = v;
-            this.timeMillis = timeMillis;
-        }
-    }
-}
+package org.binave.common.collection.proxy;
+
+import org.binave.common.api.Ticker;
+import org.binave.common.collection.ExpireMap;
+import org.binave.common.collection.ExpireMapStats;
+import org.binave.common.collection.RemovalCause;
+import org.binave.common.collection.RemovalListener;
+import org.binave.common.collection.StatsCounter;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 给 {@link Map} 增加过期时间
+ *
+ * 传入的 map 由代理接管，value 替换为内部节点，之后不要再直接使用。
+ * 使用默认过期时间的 key 按写入时间排成队列，修改默认过期时间时整体生效；
+ * 指定了过期时间的 key 放在分层时间轮中。
+ * 清理时只访问已到期的部分，开销与过期数量成正比，size() 不会遍历。
+ *
+ * 读取时遇到过期的 key 直接删除，写入、size() 及遍历前清理到期的 key。
+ * 设置了 {@link RemovalListener} 时，删除、替换、过期都在当前线程中同步通知。
+ * 不接受 null value，非线程安全
+ *
+ * @author by bin jin on 2019/08/28 01:14.
+ */
+public class ExpireMapProxy<K, V> extends AbstractMap<K, V> implements ExpireMap<K, V>, ExpireMapHooks<K, V> {
+
+    private final Map<K, ExpireNode<K, V>> map;
+
+    // 使用默认过期时间的节点，按写入时间排序
+    private final ExpireNode<K, V> queue = ExpireNode.sentinel();
+
+    // 指定了过期时间的节点
+    private final TimerWheel<K, V> wheel;
+
+    private final Consumer<ExpireNode<K, V>> evictor = this::evict;
+
+    private final Ticker ticker;
+
+    private final RemovalListener<K, V> listener;
+
+    private final StatsCounter stats;
+
+    private long defaultTimeMillis;
+
+    private Set<K> keys;
+    private Collection<V> vals;
+    private Set<Entry<K, V>> entries;
+
+    public ExpireMapProxy(long defaultTimeMillis) {
+        this(new HashMap<>(), defaultTimeMillis);
+    }
+
+    /**
+     * @param ticker            时钟
+     */
+    public ExpireMapProxy(long defaultTimeMillis, Ticker ticker) {
+        this(new HashMap<>(), defaultTimeMillis, ticker);
+    }
+
+    /**
+     * @param listener          移除时的回调
+     */
+    public ExpireMapProxy(long defaultTimeMillis, RemovalListener<K, V> listener) {
+        this(new HashMap<>(), defaultTimeMillis, Ticker.SYSTEM, listener);
+    }
+
+    public ExpireMapProxy(Map<K, V> map, long defaultTimeMillis) {
+        this(map, defaultTimeMillis, Ticker.SYSTEM);
+    }
+
+    public ExpireMapProxy(Map<K, V> map, long defaultTimeMillis, Ticker ticker) {
+        this(map, defaultTimeMillis, ticker, null);
+    }
+
+    public ExpireMapProxy(Map<K, V> map, long defaultTimeMillis, Ticker ticker, RemovalListener<K, V> listener) {
+        this(map, defaultTimeMillis, ticker, listener, null);
+    }
+
+    /**
+     * @param map               初始内容，复制到内部存储，已有的 key 使用默认过期时间；
+     *                          之后对 map 的修改不会影响本实例
+     * @param defaultTimeMillis 默认过期时间，毫秒
+     * @param ticker            时钟
+     * @param listener          移除时的回调，可以为 null
+     * @param stats             统计，为 null 时不统计
+     */
+    public ExpireMapProxy(Map<K, V> map, long defaultTimeMillis, Ticker ticker,
+                          RemovalListener<K, V> listener, StatsCounter stats) {
+        if (map instanceof ExpireMap) {
+            throw new IllegalArgumentException();
+        }
+        checkDefault(defaultTimeMillis);
+        this.defaultTimeMillis = defaultTimeMillis;
+        this.ticker = Objects.requireNonNull(ticker);
+        this.listener = listener;
+        this.stats = stats;
+        long now = now();
+        this.wheel = new TimerWheel<>(now);
+        this.map = new HashMap<>(Math.max((int) (map.size() / .75f) + 1, 16));
+        for (Entry<K, V> entry : map.entrySet()) {
+            ExpireNode<K, V> node = new ExpireNode<>(
+                    entry.getKey(), Objects.requireNonNull(entry.getValue()), ExpireNode.defaultTime(now)
+            );
+            this.map.put(entry.getKey(), node);
+            node.linkLast(queue);
+        }
+    }
+
+    static void checkDefault(long timeMillis) {
+        if (timeMillis <= 0) {
+            throw new IllegalArgumentException("default expire must be positive: " + timeMillis);
+        }
+    }
+
+    private long now() {
+        return ticker.millis();
+    }
+
+    /**
+     * 如果数值大于现在，则认为是时间点。
+     * 否则认为是时间差，过去的时间点不小于 0
+     */
+    static long deadline(long timeMillis, long now) {
+        return timeMillis > now ? timeMillis : Math.max(now + timeMillis, 0);
+    }
+
+    private boolean expired(ExpireNode<K, V> node, long now) {
+        return node.expire(defaultTimeMillis) <= now;
+    }
+
+    // EVICTED 由淘汰的一方统计，见 evict
+    private void removal(K key, V value, RemovalCause cause) {
+        if (stats != null && cause != RemovalCause.EVICTED) stats.recordRemoval(cause);
+        if (listener != null) listener.onRemoval(key, value, cause);
+    }
+
+    // 同一个实例不算替换
+    private void replaced(K key, V old, V value) {
+        if (old != value) removal(key, old, RemovalCause.REPLACED);
+    }
+
+    // 未过期的节点，遇到过期的直接删除
+    private ExpireNode<K, V> getNode(Object key, long now) {
+        ExpireNode<K, V> node = map.get(key);
+        if (node != null && expired(node, now)) {
+            removeNode(node, RemovalCause.EXPIRED);
+            return null;
+        }
+        return node;
+    }
+
+    private void removeNode(ExpireNode<K, V> node, RemovalCause cause) {
+        map.remove(node.key, node);
+        node.unlink();
+        removal(node.key, node.value, cause);
+    }
+
+    // 时间轮中到期的节点，已经摘下
+    private void evict(ExpireNode<K, V> node) {
+        if (map.remove(node.key, node)) removal(node.key, node.value, RemovalCause.EXPIRED);
+    }
+
+    // 重新设置过期时间，过去的时间点直接删除
+    private void setExpire(ExpireNode<K, V> node, long time, long now) {
+        node.unlink();
+        node.time = time;
+        if (ExpireNode.byDefault(time)) {
+            node.linkLast(queue);
+        } else if (time > now) {
+            wheel.schedule(node);
+        } else if (map.remove(node.key, node)) removal(node.key, node.value, RemovalCause.EXPIRED);
+    }
+
+    /**
+     * 写入节点，已存在时复用
+     *
+     * @param time 过期时间点，或 {@link ExpireNode#defaultTime(long)}
+     */
+    private V put(K key, V value, long time, long now) {
+        Objects.requireNonNull(value);
+        expire(now);
+        ExpireNode<K, V> node = map.get(key);
+        V old = null;
+        if (node == null) {
+            node = new ExpireNode<>(key, value, time);
+            map.put(key, node);
+        } else {
+            if (!expired(node, now)) old = node.value;
+            V previous = node.value;
+            node.value = value;
+            if (old == null) removal(key, previous, RemovalCause.EXPIRED);
+            else replaced(key, old, value);
+        }
+        setExpire(node, time, now);
+        return old;
+    }
+
+    // 只处理到期的部分，有删除时记录耗时
+    private void expire(long now) {
+        if (stats == null) {
+            sweep(now);
+        } else {
+            int size = map.size();
+            long start = ticker.nanos();
+            sweep(now);
+            if (map.size() != size) stats.recordSweep(ticker.nanos() - start);
+        }
+    }
+
+    private void sweep(long now) {
+        for (ExpireNode<K, V> node = queue.next;
+             node != queue && expired(node, now);
+             node = queue.next) {
+            removeNode(node, RemovalCause.EXPIRED);
+        }
+        wheel.advance(now, evictor);
+    }
+
+    @Override
+    public int size() {
+        expire(now());
+        return this.map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        expire(now());
+        return this.map.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return getNode(key, now()) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        long now = now();
+        expire(now);
+        for (ExpireNode<K, V> node : map.values()) {
+            if (!expired(node, now) && node.value.equals(value)) return true;
+        }
+        return false;
+    }
+
+    // 读取，记录命中
+    private ExpireNode<K, V> readNode(Object key, long now) {
+        ExpireNode<K, V> node = getNode(key, now);
+        if (stats != null) {
+            if (node == null) stats.recordMisses(1);
+            else stats.recordHits(1);
+        }
+        return node;
+    }
+
+    @Override
+    public V get(Object key) {
+        ExpireNode<K, V> node = readNode(key, now());
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public V peek(Object key) {
+        ExpireNode<K, V> node = getNode(key, now());
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * 取出并续时，过期时间的规则同 {@link #put(Object, long, Object)}
+     */
+    @Override
+    public V get(K key, long timeMillis) {
+        long now = now();
+        ExpireNode<K, V> node = readNode(key, now);
+        if (node == null) return null;
+        setExpire(node, deadline(timeMillis, now), now);
+        return node.value;
+    }
+
+    /**
+     * @return 过期的时间点，不存在时返回 0
+     */
+    @Override
+    public long getExpire(K key) {
+        ExpireNode<K, V> node = getNode(key, now());
+        return node == null ? 0 : node.expire(defaultTimeMillis);
+    }
+
+    /**
+     * 续时
+     * 如果数值大于现在，则认为是新的时间点。
+     * 否则在原过期时间上增加，负数为缩短
+     */
+    @Override
+    public void addExpire(K key, long timeMillis) {
+        long now = now();
+        ExpireNode<K, V> node = getNode(key, now);
+        if (node == null) return;
+        long time = timeMillis > now ? timeMillis : Math.max(node.expire(defaultTimeMillis) + timeMillis, 0);
+        setExpire(node, time, now);
+    }
+
+    @Override
+    public V put(K key, long timeMillis, V value) {
+        long now = now();
+        return put(key, value, deadline(timeMillis, now), now);
+    }
+
+    @Override
+    public V putIfAbsent(K key, long timeMillis, V value) {
+        long now = now();
+        ExpireNode<K, V> node = getNode(key, now);
+        if (node != null) return node.value;
+        return put(key, value, deadline(timeMillis, now), now);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        long now = now();
+        return put(key, value, ExpireNode.defaultTime(now), now);
+    }
+
+    @Override
+    public V remove(Object key) {
+        ExpireNode<K, V> node = this.map.remove(key);
+        if (node == null) return null;
+        node.unlink();
+        boolean expired = expired(node, now());
+        removal(node.key, node.value, expired ? RemovalCause.EXPIRED : RemovalCause.EXPLICIT);
+        return expired ? null : node.value;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        long now = now();
+        for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue(), ExpireNode.defaultTime(now), now);
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m, long timeMillis) {
+        long now = now();
+        long time = deadline(timeMillis, now);
+        for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue(), time, now);
+        }
+    }
+
+    @Override
+    public void clear() {
+        List<ExpireNode<K, V>> nodes = listener == null ? null : new ArrayList<>(map.values());
+        this.map.clear();
+        queue.prev = queue.next = queue;
+        wheel.clear();
+        if (nodes != null) {
+            long now = now();
+            for (ExpireNode<K, V> node : nodes) {
+                removal(node.key, node.value, expired(node, now) ? RemovalCause.EXPIRED : RemovalCause.EXPLICIT);
+            }
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        Set<K> ks = keys;
+        if (ks == null) {
+            ks = new AbstractSet<K>() {
+                @Override
+                public Iterator<K> iterator() {
+                    return new NodeIterator<K>() {
+                        @Override
+                        public K next() {
+                            return nextNode().key;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return ExpireMapProxy.this.size();
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return containsKey(o);
+                }
+
+                @Override
+                public boolean remove(Object o) {
+                    return ExpireMapProxy.this.remove(o) != null;
+                }
+
+                @Override
+                public void clear() {
+                    ExpireMapProxy.this.clear();
+                }
+            };
+            keys = ks;
+        }
+        return ks;
+    }
+
+    @Override
+    public Collection<V> values() {
+        Collection<V> vs = vals;
+        if (vs == null) {
+            vs = new AbstractCollection<V>() {
+                @Override
+                public Iterator<V> iterator() {
+                    return new NodeIterator<V>() {
+                        @Override
+                        public V next() {
+                            return nextNode().value;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return ExpireMapProxy.this.size();
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return containsValue(o);
+                }
+
+                @Override
+                public void clear() {
+                    ExpireMapProxy.this.clear();
+                }
+            };
+            vals = vs;
+        }
+        return vs;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es = entries;
+        if (es == null) {
+            es = new AbstractSet<Entry<K, V>>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new NodeIterator<Entry<K, V>>() {
+                        @Override
+                        public Entry<K, V> next() {
+                            ExpireNode<K, V> node = nextNode();
+                            return new WriteThroughEntry(node.key, node.value);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return ExpireMapProxy.this.size();
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    if (!(o instanceof Entry)) return false;
+                    Entry<?, ?> e = (Entry<?, ?>) o;
+                    ExpireNode<K, V> node = getNode(e.getKey(), now());
+                    return node != null && node.value.equals(e.getValue());
+                }
+
+                @Override
+                public boolean remove(Object o) {
+                    if (!(o instanceof Entry)) return false;
+                    Entry<?, ?> e = (Entry<?, ?>) o;
+                    return ExpireMapProxy.this.remove(e.getKey(), e.getValue());
+                }
+
+                @Override
+                public void clear() {
+                    ExpireMapProxy.this.clear();
+                }
+            };
+            entries = es;
+        }
+        return es;
+    }
+
+    /**
+     * setValue 时写回 map，过期时间不变
+     */
+    private final class WriteThroughEntry extends SimpleEntry<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        WriteThroughEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            V old = super.setValue(Objects.requireNonNull(value));
+            replace(getKey(), value);
+            return old;
+        }
+    }
+
+    /**
+     * 遍历前清理到期的 key，遍历过程中过期的 key 仍会出现
+     */
+    private abstract class NodeIterator<E> implements Iterator<E> {
+
+        private final Iterator<ExpireNode<K, V>> iterator;
+
+        private ExpireNode<K, V> current;
+
+        NodeIterator() {
+            expire(now());
+            this.iterator = map.values().iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        ExpireNode<K, V> nextNode() {
+            return current = iterator.next();
+        }
+
+        @Override
+        public void remove() {
+            if (current == null) throw new IllegalStateException();
+            iterator.remove();
+            current.unlink();
+            removal(current.key, current.value, RemovalCause.EXPLICIT);
+            current = null;
+        }
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        ExpireNode<K, V> node = readNode(key, now());
+        return node == null ? defaultValue : node.value;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        long now = now();
+        expire(now);
+        for (ExpireNode<K, V> node : map.values()) {
+            action.accept(node.key, node.value);
+        }
+    }
+
+    /**
+     * 只替换 value，过期时间不变
+     */
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        expire(now());
+        for (ExpireNode<K, V> node : map.values()) {
+            V old = node.value;
+            node.value = Objects.requireNonNull(function.apply(node.key, old));
+            replaced(node.key, old, node.value);
+        }
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        long now = now();
+        ExpireNode<K, V> node = getNode(key, now);
+        if (node != null) return node.value;
+        return put(key, value, ExpireNode.defaultTime(now), now);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        ExpireNode<K, V> node = getNode(key, now());
+        if (node == null || !node.value.equals(value)) return false;
+        removeNode(node, RemovalCause.EXPLICIT);
+        return true;
+    }
+
+    @Override
+    public boolean evict(K key, V value) {
+        ExpireNode<K, V> node = getNode(key, now());
+        if (node == null || !node.value.equals(value)) return false;
+        removeNode(node, RemovalCause.EVICTED);
+        return true;
+    }
+
+    /**
+     * 只替换 value，过期时间不变
+     */
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        Objects.requireNonNull(newValue);
+        ExpireNode<K, V> node = getNode(key, now());
+        if (node == null || !node.value.equals(oldValue)) return false;
+        V old = node.value;
+        node.value = newValue;
+        replaced(key, old, newValue);
+        return true;
+    }
+
+    /**
+     * 只替换 value，过期时间不变
+     */
+    @Override
+    public V replace(K key, V value) {
+        Objects.requireNonNull(value);
+        ExpireNode<K, V> node = getNode(key, now());
+        if (node == null) return null;
+        V old = node.value;
+        node.value = value;
+        replaced(key, old, value);
+        return old;
+    }
+
+    /**
+     * 新增的 key 使用默认过期时间
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        long now = now();
+        ExpireNode<K, V> node = getNode(key, now);
+        if (node != null) return node.value;
+        V value = mappingFunction.apply(key);
+        if (value != null) put(key, value, ExpireNode.defaultTime(now), now);
+        return value;
+    }
+
+    /**
+     * 过期时间不变，返回 null 时删除
+     */
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        ExpireNode<K, V> node = getNode(key, now());
+        if (node == null) return null;
+        V old = node.value;
+        V value = remappingFunction.apply(key, old);
+        if (value == null) removeNode(node, RemovalCause.EXPLICIT);
+        else {
+            node.value = value;
+            replaced(key, old, value);
+        }
+        return value;
+    }
+
+    /**
+     * 已存在的 key 过期时间不变，新增的 key 使用默认过期时间，返回 null 时删除
+     */
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        long now = now();
+        ExpireNode<K, V> node = getNode(key, now);
+        V value = remappingFunction.apply(key, node == null ? null : node.value);
+        if (node == null) {
+            if (value != null) put(key, value, ExpireNode.defaultTime(now), now);
+        } else if (value == null) {
+            removeNode(node, RemovalCause.EXPLICIT);
+        } else {
+            V old = node.value;
+            node.value = value;
+            replaced(key, old, value);
+        }
+        return value;
+    }
+
+    /**
+     * 已存在的 key 过期时间不变，新增的 key 使用默认过期时间，返回 null 时删除
+     */
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        long now = now();
+        ExpireNode<K, V> node = getNode(key, now);
+        if (node == null) {
+            put(key, value, ExpireNode.defaultTime(now), now);
+            return value;
+        }
+        V old = node.value;
+        V v = remappingFunction.apply(old, value);
+        if (v == null) removeNode(node, RemovalCause.EXPLICIT);
+        else {
+            node.value = v;
+            replaced(key, old, v);
+        }
+        return v;
+    }
+
+    @Override
+    public void trim() {
+        expire(now());
+    }
+
+    @Override
+    public ExpireMapStats stats() {
+        return stats == null ? ExpireMapStats.EMPTY : stats.snapshot();
+    }
+
+    @Override
+    public long getDefaultExpire() {
+        return defaultTimeMillis;
+    }
+
+    /**
+     * 使用默认过期时间的 key 记录的是写入时间，修改后全部按新的默认时间计算
+     */
+    @Override
+    public void setDefaultExpire(long timeMillis) {
+        checkDefault(timeMillis);
+        this.defaultTimeMillis = timeMillis;
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+import org.binave.common.api.Ticker;
+import org.binave.common.collection.ExpireMap;
+import org.binave.common.serialize.Codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * {@link ExpireMap} 的快照，用于重启后预热
+ *
+ * 保存时逐个写出未过期的 key、value 及绝对过期时间点，key、value 经 {@link Codec} 编码；
+ * 加载时顺序读取，跳过已过期的记录（不解码），其余以原过期时间点写入 map。
+ * 读写都是流式的，只使用一个缓冲区，不会把整个快照放入内存。
+ *
+ * 保存时只遍历 map：
+ *      {@link ConcurrentExpireMapProxy} 的遍历不加锁，保存期间读写不受影响，
+ *      快照是弱一致的，保存过程中的修改可能写入也可能不写入；
+ *      非线程安全的 map 需要在其所属的线程中保存。
+ * 先写临时文件，完成后原子替换，保存中断不会破坏已有的快照。
+ *
+ * 使用默认过期时间的 key 按当时的过期时间点保存，加载后成为指定时间点的 key
+ *
+ * 文件格式：
+ *      int 魔数, int 版本
+ *      { int key 长度, long 过期时间点, key, int value 长度, value } ...
+ *      int -1, long 记录数
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public class ExpireMapSnapshot<K, V> {
+
+    private static final int MAGIC = 0x45584d53; // EXMS
+
+    private static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    private final Codec codec;
+
+    private final Class<K> keyType;
+
+    private final Class<V> valueType;
+
+    private final Ticker ticker;
+
+    public ExpireMapSnapshot(Codec codec, Class<K> keyType, Class<V> valueType) {
+        this(codec, keyType, valueType, Ticker.SYSTEM);
+    }
+
+    /**
+     * @param ticker 判断记录是否过期的时钟，与 map 使用同一个
+     */
+    public ExpireMapSnapshot(Codec codec, Class<K> keyType, Class<V> valueType, Ticker ticker) {
+        this.codec = Objects.requireNonNull(codec);
+        this.keyType = Objects.requireNonNull(keyType);
+        this.valueType = Objects.requireNonNull(valueType);
+        this.ticker = Objects.requireNonNull(ticker);
+    }
+
+    /**
+     * 保存未过期的 key
+     *
+     * @return 保存的记录数
+     */
+    public long save(ExpireMap<K, V> map, Path file) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION);
+            long now = ticker.millis();
+            for (Map.Entry<K, V> entry : map.entrySet()) {
+                long expire = expire(map, entry);
+                if (expire <= now) continue;
+                byte[] key = codec.encode(entry.getKey());
+                byte[] value = codec.encode(entry.getValue());
+                buffer = reserve(channel, buffer, Long.BYTES + Integer.BYTES * 2 + key.length + value.length);
+                buffer.putInt(key.length).putLong(expire).put(key).putInt(value.length).put(value);
+                ++count;
+            }
+            buffer = reserve(channel, buffer, Integer.BYTES + Long.BYTES);
+            buffer.putInt(-1).putLong(count);
+            flush(channel, buffer);
+            channel.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return count;
+    }
+
+    /**
+     * 过期时间点，已删除时为 0
+     * ExpireMapProxy 的节点上直接读取，避免遍历中查询时删除过期的 key
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> long expire(ExpireMap<K, V> map, Map.Entry<K, V> entry) {
+        if (entry instanceof ExpireNode) return ((ExpireNode<K, V>) entry).expire(map.getDefaultExpire());
+        return map.getExpire(entry.getKey());
+    }
+
+    // 保证剩余空间，不够时写出，单条记录超过缓冲区时扩大
+    private static ByteBuffer reserve(FileChannel channel, ByteBuffer buffer, int size) throws IOException {
+        if (buffer.remaining() >= size) return buffer;
+        flush(channel, buffer);
+        return buffer.capacity() >= size ? buffer : ByteBuffer.allocate(size);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * 加载未过期的记录，文件不存在时不做任何事
+     *
+     * @return 写入 map 的记录数
+     */
+    public long load(ExpireMap<K, V> map, Path file) {
+        if (!Files.exists(file)) return 0;
+        long loaded = 0, count = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.flip();
+            buffer = fill(channel, buffer, Integer.BYTES * 2);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IllegalArgumentException("not an expire map snapshot: " + file);
+            }
+            for (; ; ) {
+                buffer = fill(channel, buffer, Integer.BYTES);
+                int keyLength = buffer.getInt();
+                if (keyLength < 0) {
+                    buffer = fill(channel, buffer, Long.BYTES);
+                    if (keyLength != -1 || buffer.getLong() != count) break;
+                    return loaded;
+                }
+                buffer = fill(channel, buffer, Long.BYTES + keyLength + Integer.BYTES);
+                long expire = buffer.getLong();
+                int keyPosition = buffer.position();
+                buffer.position(keyPosition + keyLength);
+                int valueLength = buffer.getInt();
+                ++count;
+                if (expire <= ticker.millis()) {
+                    skip(channel, buffer, valueLength);
+                    continue;
+                }
+                byte[] key = new byte[keyLength];
+                buffer.position(keyPosition);
+                buffer.get(key);
+                buffer.getInt();
+                buffer = fill(channel, buffer, valueLength);
+                byte[] value = new byte[valueLength];
+                buffer.get(value);
+                K k = codec.decode(key, keyType);
+                V v = codec.decode(value, valueType);
+                // 解码期间可能已过期，过期的时间点会被 map 当作时长
+                if (expire <= ticker.millis()) continue;
+                map.put(k, expire, v);
+                ++loaded;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        throw new IllegalStateException("corrupted snapshot: " + file);
+    }
+
+    /**
+     * 保证缓冲区中有 size 字节可读，不够时从文件读入
+     */
+    private static ByteBuffer fill(FileChannel channel, ByteBuffer buffer, int size) throws IOException {
+        if (buffer.remaining() >= size) return buffer;
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(size).put(buffer);
+        } else buffer.compact();
+        while (buffer.position() < size) {
+            if (channel.read(buffer) < 0) throw new IllegalStateException("truncated snapshot");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // 跳过过期记录的 value
+    private static void skip(FileChannel channel, ByteBuffer buffer, int size) throws IOException {
+        int inBuffer = Math.min(buffer.remaining(), size);
+        buffer.position(buffer.position() + inBuffer);
+        if (size > inBuffer) {
+            channel.position(channel.position() + size - inBuffer);
+        }
+    }
+
+}
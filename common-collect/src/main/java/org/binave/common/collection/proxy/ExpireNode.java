@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 带过期时间的节点
+ *
+ * 同一时间只挂在一个双向链表上：默认过期队列，或时间轮的某个桶
+ * value、time 可以不加锁读取，链表只在持有对应的锁时修改
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+class ExpireNode<K, V> implements Map.Entry<K, V> {
+
+    final K key;
+
+    volatile V value;
+
+    /**
+     * 过期的时间点；
+     * 使用默认过期时间时，为写入时间取反，小于 0。
+     * 一次读取即可得到完整的过期信息
+     */
+    volatile long time;
+
+    // 已从 map 中移除
+    boolean retired;
+
+    ExpireNode<K, V> prev, next;
+
+    ExpireNode(K key, V value, long time) {
+        this.key = key;
+        this.value = value;
+        this.time = time;
+    }
+
+    /**
+     * 使用默认过期时间时 time 的值
+     *
+     * @param writeTime 写入时间
+     */
+    static long defaultTime(long writeTime) {
+        return ~writeTime;
+    }
+
+    static boolean byDefault(long time) {
+        return time < 0;
+    }
+
+    /**
+     * 过期的时间点
+     */
+    long expire(long defaultTimeMillis) {
+        long t = time;
+        return byDefault(t) ? ~t + defaultTimeMillis : t;
+    }
+
+    /**
+     * 链表头，首尾相连
+     */
+    static <K, V> ExpireNode<K, V> sentinel() {
+        ExpireNode<K, V> sentinel = new ExpireNode<>(null, null, 0);
+        sentinel.prev = sentinel.next = sentinel;
+        return sentinel;
+    }
+
+    /**
+     * 加到链表末尾
+     */
+    void linkLast(ExpireNode<K, V> sentinel) {
+        ExpireNode<K, V> last = sentinel.prev;
+        this.prev = last;
+        this.next = sentinel;
+        last.next = this;
+        sentinel.prev = this;
+    }
+
+    /**
+     * 从所在链表中移除，不在链表上时什么也不做
+     */
+    void unlink() {
+        if (prev == null) return;
+        prev.next = next;
+        next.prev = prev;
+        prev = next = null;
+    }
+
+    @Override
+    public K getKey() {
+        return key;
+    }
+
+    @Override
+    public V getValue() {
+        return value;
+    }
+
+    @Override
+    public V setValue(V value) {
+        V old = this.value;
+        this.value = Objects.requireNonNull(value);
+        return old;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (!(o instanceof Map.Entry)) return false;
+        Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+        return Objects.equals(key, e.getKey()) && Objects.equals(value, e.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(key) ^ Objects.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + value;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+/**
+ * 访问频率的估算（Count-Min Sketch）
+ *
+ * 4 行计数，每行 width 个 4 bit 的计数，最大 15，按行连续存放在 long 数组中。
+ * 一个元素在每行中各对应一个计数，位置由同一个 hash 的两半做双重散列得到，频率为其中的最小值。
+ * 加一时只增加等于最小值的计数（保守更新），减少 hash 冲突造成的高估。
+ * 累计次数达到容量的 10 倍时，所有计数减半，使旧的热点逐渐冷却
+ *
+ * 非线程安全
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+final class FrequencySketch {
+
+    private static final int DEPTH = 4;
+
+    private static final int MAX = 15;
+
+    // 每个 4 bit 计数去掉最高位，右移一位后使用
+    private static final long HALF_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+
+    // 每行的计数个数，2 的幂
+    private final int width;
+
+    private final int sampleSize;
+
+    private int size;
+
+    /**
+     * @param capacity 预计的元素个数
+     */
+    FrequencySketch(long capacity) {
+        int n = (int) Math.min(Math.max(capacity, 16), 1 << 26);
+        this.width = Integer.highestOneBit(n - 1) << 1;
+        this.table = new long[DEPTH * width >>> 4];
+        this.sampleSize = (int) Math.min(10L * n, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 估算的访问次数，0 ~ 15
+     */
+    int frequency(Object e) {
+        long hash = hash(e);
+        return min((int) hash, (int) (hash >>> 32) | 1);
+    }
+
+    /**
+     * 访问次数加一
+     * 只增加等于最小值的计数，位置在两遍中各算一次，不分配数组
+     */
+    void increment(Object e) {
+        long hash = hash(e);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        int min = min(h1, h2);
+        if (min == MAX) return;
+        for (int row = 0; row < DEPTH; row++) {
+            int slot = slot(row, h1 + row * h2);
+            if (get(slot) == min) table[slot >>> 4] += 1L << ((slot & 15) << 2);
+        }
+        if (++size >= sampleSize) halve();
+    }
+
+    // 各行计数的最小值
+    private int min(int h1, int h2) {
+        int min = MAX;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, get(slot(row, h1 + row * h2)));
+        }
+        return min;
+    }
+
+    // 计数在整个表中的位置
+    private int slot(int row, int h) {
+        return row * width + (h & (width - 1));
+    }
+
+    private int get(int slot) {
+        return (int) (table[slot >>> 4] >>> ((slot & 15) << 2)) & MAX;
+    }
+
+    // 全部减半
+    private void halve() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & HALF_MASK;
+        }
+        size >>>= 1;
+    }
+
+    // MurmurHash3 的 fmix64
+    private static long hash(Object e) {
+        long h = e.hashCode();
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+}
@@ -0,0 +1,563 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+import org.binave.common.api.SourceBy;
+import org.binave.common.api.Ticker;
+import org.binave.common.collection.ExpireMap;
+import org.binave.common.collection.ExpireMapStats;
+import org.binave.common.collection.StatsCounter;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 给 {@link ExpireMap} 增加加载
+ *
+ * get 未命中时通过 loader 加载并写入，同一个 key 同时只有一个线程加载，其他线程等待其结果。
+ * 设置了 refreshAheadMillis 时，读到剩余时间不超过该值的 key，在 executor 中异步重新加载，
+ * 期间继续返回旧的 value；重新加载完成后只替换 value，过期方式和过期时间不变，已被其他写入覆盖时放弃。
+ * 同一个过期时间只重新加载一次。
+ *
+ * getAll 中未命中的 key 合并为一次 bulkLoader 调用。
+ *
+ * loader 返回 null 时不写入；抛出的异常传给所有等待的线程。
+ * loader 中加载同一个 key 会等待自己，抛出 {@link IllegalStateException}。
+ * 只有 get、get(K, long)、getAll 会加载，其他方法直接使用被代理的 map
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public class LoadingExpireMapProxy<K, V> implements ExpireMap<K, V>, ExpireMapHooks<K, V> {
+
+    private final ExpireMap<K, V> map;
+
+    private final SourceBy<K, V> loader;
+
+    private final SourceBy<Set<K>, Map<K, V>> bulkLoader;
+
+    private final long refreshAheadMillis;
+
+    private final Executor executor;
+
+    private final Ticker ticker;
+
+    private final StatsCounter stats;
+
+    // 正在加载、重新加载的 key
+    private final ConcurrentHashMap<K, Load<V>> loading = new ConcurrentHashMap<>();
+
+    // 已重新加载的 key 和当时的过期时间点
+    private final ConcurrentHashMap<K, Long> refreshed = new ConcurrentHashMap<>();
+
+    public LoadingExpireMapProxy(ExpireMap<K, V> map, SourceBy<K, V> loader) {
+        this(map, loader, 0);
+    }
+
+    /**
+     * @param refreshAheadMillis 剩余时间不超过该值时异步重新加载，0 为不重新加载
+     */
+    public LoadingExpireMapProxy(ExpireMap<K, V> map, SourceBy<K, V> loader, long refreshAheadMillis) {
+        this(map, loader, null, refreshAheadMillis, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param map                被代理的 map
+     * @param loader             加载单个 key
+     * @param bulkLoader         批量加载，返回值中缺少的 key 视为不存在；为 null 时逐个使用 loader
+     * @param refreshAheadMillis 剩余时间不超过该值时异步重新加载，0 为不重新加载
+     * @param executor           执行重新加载
+     */
+    public LoadingExpireMapProxy(ExpireMap<K, V> map, SourceBy<K, V> loader,
+                                 SourceBy<Set<K>, Map<K, V>> bulkLoader,
+                                 long refreshAheadMillis, Executor executor) {
+        this(map, loader, bulkLoader, refreshAheadMillis, executor, Ticker.SYSTEM);
+    }
+
+    /**
+     * @param ticker             判断是否需要重新加载的时钟，与被代理的 map 使用同一个
+     */
+    public LoadingExpireMapProxy(ExpireMap<K, V> map, SourceBy<K, V> loader,
+                                 SourceBy<Set<K>, Map<K, V>> bulkLoader,
+                                 long refreshAheadMillis, Executor executor, Ticker ticker) {
+        this(map, loader, bulkLoader, refreshAheadMillis, executor, ticker, null);
+    }
+
+    /**
+     * @param stats              加载的统计，为 null 时不统计；命中、过期由被代理的 map 统计
+     */
+    public LoadingExpireMapProxy(ExpireMap<K, V> map, SourceBy<K, V> loader,
+                                 SourceBy<Set<K>, Map<K, V>> bulkLoader,
+                                 long refreshAheadMillis, Executor executor, Ticker ticker, StatsCounter stats) {
+        if (refreshAheadMillis < 0) {
+            throw new IllegalArgumentException("refresh ahead must not be negative: " + refreshAheadMillis);
+        }
+        this.map = Objects.requireNonNull(map);
+        this.loader = Objects.requireNonNull(loader);
+        this.bulkLoader = bulkLoader;
+        this.refreshAheadMillis = refreshAheadMillis;
+        this.executor = Objects.requireNonNull(executor);
+        this.ticker = Objects.requireNonNull(ticker);
+        this.stats = stats;
+    }
+
+    private long now() {
+        return ticker.millis();
+    }
+
+    // 调用 loader，返回 null 记为失败
+    private V loadValue(K key) {
+        if (stats == null) return loader.create(key);
+        long start = ticker.nanos();
+        V value;
+        try {
+            value = loader.create(key);
+        } catch (RuntimeException | Error e) {
+            stats.recordLoadFailure(ticker.nanos() - start);
+            throw e;
+        }
+        if (value == null) stats.recordLoadFailure(ticker.nanos() - start);
+        else stats.recordLoadSuccess(ticker.nanos() - start);
+        return value;
+    }
+
+    /* ******** 加载 ******** */
+
+    /**
+     * 命中时检查是否需要重新加载
+     */
+    private V hit(K key, V value) {
+        if (value != null && refreshAheadMillis > 0) {
+            long expire = map.getExpire(key);
+            if (expire != 0 && expire - now() <= refreshAheadMillis && !refreshed(key, expire))
+                refresh(key, value, expire);
+        }
+        return value;
+    }
+
+    // 过期时间已经变化的记录直接删除
+    private boolean refreshed(K key, long expire) {
+        Long done = refreshed.get(key);
+        if (done == null) return false;
+        if (done == expire) return true;
+        refreshed.remove(key, done);
+        return false;
+    }
+
+    /**
+     * 同一个 key 只有一个线程加载，其他线程等待
+     *
+     * @param timeMillis 过期时间，规则同 {@link #put(Object, long, Object)}；小于 0 时使用默认过期时间
+     */
+    private V load(K key, long timeMillis) {
+        Load<V> future = new Load<>(Thread.currentThread());
+        Load<V> running = loading.putIfAbsent(key, future);
+        if (running != null) return join(key, running);
+        try {
+            // 拿到加载权之前可能刚被加载完，已经记录过未命中
+            V value = ExpireMapHooks.peekIn(map, key);
+            if (value == null) {
+                value = loadValue(key);
+                if (value != null) put(key, value, timeMillis);
+            }
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    private void put(K key, V value, long timeMillis) {
+        if (timeMillis < 0) map.put(key, value);
+        else map.put(key, timeMillis, value);
+    }
+
+    /**
+     * 异步重新加载，已有加载进行中时跳过
+     *
+     * @param expire 读到的过期时间点，替换后不变
+     */
+    private void refresh(K key, V old, long expire) {
+        Load<V> future = new Load<>(null);
+        if (loading.putIfAbsent(key, future) != null) return;
+        try {
+            executor.execute(() -> {
+                future.owner = Thread.currentThread();
+                try {
+                    V value = loadValue(key);
+                    if (value != null) {
+                        // 只替换 value，期间被覆盖时放弃，已过期时写入
+                        if (map.replace(key, old, value)) refreshed.put(key, expire);
+                        else map.putIfAbsent(key, value);
+                    }
+                    future.complete(value);
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    loading.remove(key, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loading.remove(key, future);
+            future.complete(old);
+        }
+    }
+
+    // 等待自己的加载会死锁
+    private static <V> V join(Object key, Load<V> future) {
+        if (future.owner == Thread.currentThread()) {
+            throw new IllegalStateException("recursive load: " + key);
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * 批量获取，未命中的 key 合并为一次加载
+     *
+     * @return 按 keys 的顺序，不包含不存在的 key
+     */
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        Map<K, V> found = new HashMap<>();
+        Set<K> misses = new LinkedHashSet<>();
+        for (K key : keys) {
+            V value = hit(key, map.get(key));
+            if (value != null) found.put(key, value);
+            else misses.add(key);
+        }
+
+        if (!misses.isEmpty()) {
+            Map<K, Load<V>> claimed = new LinkedHashMap<>(), waiting = new HashMap<>();
+            for (K key : misses) {
+                Load<V> future = new Load<>(Thread.currentThread());
+                Load<V> running = loading.putIfAbsent(key, future);
+                if (running == null) claimed.put(key, future);
+                else waiting.put(key, running);
+            }
+            try {
+                loadAll(claimed, found);
+            } finally {
+                for (Map.Entry<K, Load<V>> entry : claimed.entrySet())
+                    loading.remove(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<K, Load<V>> entry : waiting.entrySet()) {
+                V value = join(entry.getKey(), entry.getValue());
+                if (value != null) found.put(entry.getKey(), value);
+            }
+        }
+
+        Map<K, V> result = new LinkedHashMap<>();
+        for (K key : keys) {
+            V value = found.get(key);
+            if (value != null) result.put(key, value);
+        }
+        return result;
+    }
+
+    // 加载已认领的 key
+    private void loadAll(Map<K, Load<V>> claimed, Map<K, V> found) {
+        Set<K> keys = new LinkedHashSet<>();
+        for (Map.Entry<K, Load<V>> entry : claimed.entrySet()) {
+            V value = ExpireMapHooks.peekIn(map, entry.getKey());
+            if (value == null) {
+                keys.add(entry.getKey());
+            } else {
+                found.put(entry.getKey(), value);
+                entry.getValue().complete(value);
+            }
+        }
+        if (keys.isEmpty()) return;
+        try {
+            Map<K, V> loaded;
+            if (bulkLoader == null) {
+                loaded = new HashMap<>();
+                for (K key : keys) loaded.put(key, loadValue(key));
+            } else loaded = bulkLoad(keys);
+            for (K key : keys) {
+                V value = loaded == null ? null : loaded.get(key);
+                if (value != null) {
+                    map.put(key, value);
+                    found.put(key, value);
+                }
+                claimed.get(key).complete(value);
+            }
+        } catch (RuntimeException | Error e) {
+            for (K key : keys) claimed.get(key).completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    // 一次批量加载记为一次
+    private Map<K, V> bulkLoad(Set<K> keys) {
+        if (stats == null) return bulkLoader.create(Collections.unmodifiableSet(keys));
+        long start = ticker.nanos();
+        try {
+            Map<K, V> loaded = bulkLoader.create(Collections.unmodifiableSet(keys));
+            stats.recordLoadSuccess(ticker.nanos() - start);
+            return loaded;
+        } catch (RuntimeException | Error e) {
+            stats.recordLoadFailure(ticker.nanos() - start);
+            throw e;
+        }
+    }
+
+    /* ******** ExpireMap ******** */
+
+    /**
+     * 被代理的 map 的统计，加上本类记录的加载
+     */
+    @Override
+    public ExpireMapStats stats() {
+        return stats == null ? map.stats() : map.stats().plus(stats.snapshot());
+    }
+
+    /**
+     * 未命中时加载
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        V value = map.get(key);
+        return value != null ? hit((K) key, value) : load((K) key, -1);
+    }
+
+    /**
+     * 取出并续时，未命中时加载，使用指定的过期时间；
+     * timeMillis 不大于 0 时，加载的 value 使用默认过期时间
+     */
+    @Override
+    public V get(K key, long timeMillis) {
+        V value = map.get(key, timeMillis);
+        return value != null ? hit(key, value) : load(key, timeMillis > 0 ? timeMillis : -1);
+    }
+
+    /**
+     * 不加载
+     */
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        return map.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public V peek(Object key) {
+        return ExpireMapHooks.peekIn(map, key);
+    }
+
+    @Override
+    public boolean evict(K key, V value) {
+        return ExpireMapHooks.evictFrom(map, key, value);
+    }
+
+    @Override
+    public long getExpire(K key) {
+        return map.getExpire(key);
+    }
+
+    @Override
+    public void addExpire(K key, long timeMillis) {
+        map.addExpire(key, timeMillis);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return map.containsValue(value);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return map.put(key, value);
+    }
+
+    @Override
+    public V put(K key, long timeMillis, V value) {
+        return map.put(key, timeMillis, value);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return map.putIfAbsent(key, value);
+    }
+
+    @Override
+    public V putIfAbsent(K key, long timeMillis, V value) {
+        return map.putIfAbsent(key, timeMillis, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        map.putAll(m);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m, long timeMillis) {
+        map.putAll(m, timeMillis);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return map.remove(key);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return map.remove(key, value);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        return map.replace(key, oldValue, newValue);
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        return map.replace(key, value);
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        map.replaceAll(function);
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        return map.computeIfAbsent(key, mappingFunction);
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return map.computeIfPresent(key, remappingFunction);
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return map.compute(key, remappingFunction);
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        return map.merge(key, value, remappingFunction);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        map.forEach(action);
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+        refreshed.clear();
+    }
+
+    /**
+     * 同时清理已过期的重新加载记录
+     */
+    @Override
+    public void trim() {
+        map.trim();
+        long now = now();
+        refreshed.values().removeIf(expire -> expire <= now);
+    }
+
+    @Override
+    public long getDefaultExpire() {
+        return map.getDefaultExpire();
+    }
+
+    @Override
+    public void setDefaultExpire(long timeMillis) {
+        map.setDefaultExpire(timeMillis);
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return map.keySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return map.values();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return map.entrySet();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this || map.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return map.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return map.toString();
+    }
+
+    /**
+     * 加载的结果，记录执行加载的线程
+     */
+    private static final class Load<V> extends CompletableFuture<V> {
+
+        // 异步重新加载开始前为 null
+        volatile Thread owner;
+
+        Load(Thread owner) {
+            this.owner = owner;
+        }
+
+    }
+
+}
@@ -17,104 +17,176 @@
 package org.binave.common.collection.proxy;
 
 
-import org.binave.common.api.SyncProxy;
+import org.binave.common.collection.MapDelta;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * 代理 {@link java.util.Map}，用于同步更新所有实例
+ * 发布、pin 及旧实例的回收见 {@link AbstractSyncProxy}
+ *
+ * 除 syncUpdate 整体替换外，可以通过 {@link #syncApply} 增量更新：
+ * 修改叠加在当前实例上，开销与修改的个数成正比，发布后的实例只读。
+ * 当前实例之后不能再被修改；新旧实例共享未修改的部分，
+ * 被共享的实例在所有基于它的实例都不再被持有之后才交给 reclaimer，增量生成的实例不交给 reclaimer。
+ * 当前实例为 {@link org.binave.common.collection.PersistentHashMap} 时，
+ * 增量更新生成新的版本，保留的旧版本只占用修改部分的内存
  *
  * @author bin jin
  * @since 1.8
  */
-public class MapProxy<K, V> implements Map<K, V>, SyncProxy<Map<K, V>> {
+public class MapProxy<K, V> extends AbstractSyncProxy<Map<K, V>> implements Map<K, V> {
 
-    private Map<K, V> map;
+    private final List<Consumer<? super MapDelta<K, V>>> listeners = new CopyOnWriteArrayList<>();
 
-    @Override
-    public void syncUpdate(Map<K, V> map) {
-        this.map = map;
+    public MapProxy() {
     }
 
-    @Override
-    public boolean isNull() {
-        return map == null;
+    /**
+     * @param reclaimer 旧实例不再被持有时调用
+     */
+    public MapProxy(Consumer<? super Map<K, V>> reclaimer) {
+        super(reclaimer);
+    }
+
+    /**
+     * 增量更新，同一个 key 同时出现在两者中时以 upserts 为准
+     *
+     * @param upserts  新增或修改的键值
+     * @param removals 删除的键
+     * @return 实际生效的修改，值不变的键不计入
+     */
+    public MapDelta<K, V> syncApply(Map<? extends K, ? extends V> upserts, Collection<? extends K> removals) {
+        synchronized (updateLock()) {
+            Map<K, V> current = current();
+            MapDelta<K, V> delta = DeltaMap.normalize(current, upserts, removals);
+            if (delta.isEmpty()) return delta;
+            Map<K, V> next = DeltaMap.apply(current, delta);
+            syncDerive(next, next instanceof DeltaMap);
+            fire(listeners, delta);
+            return delta;
+        }
+    }
+
+    public MapDelta<K, V> syncApply(MapDelta<K, V> delta) {
+        return syncApply(delta.upserts(), delta.removed());
+    }
+
+    /**
+     * 与新的完整实例比较，只发布差异
+     * 差异超过当前元素个数的 1/4 时直接发布 next
+     *
+     * @return 差异
+     */
+    public MapDelta<K, V> syncDiff(Map<K, V> next) {
+        synchronized (updateLock()) {
+            Map<K, V> current = current();
+            MapDelta<K, V> delta = MapDelta.diff(current, next);
+            if (delta.size() <= current.size() >> 2) return syncApply(delta);
+            syncUpdate(next);
+            fire(listeners, delta);
+            return delta;
+        }
+    }
+
+    /**
+     * 增量更新发布后在更新的线程中同步通知，syncUpdate 不通知
+     */
+    public void addListener(Consumer<? super MapDelta<K, V>> listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeListener(Consumer<? super MapDelta<K, V>> listener) {
+        listeners.remove(listener);
+    }
+
+    private Map<K, V> current() {
+        Map<K, V> map = target();
+        return map != null ? map : Collections.emptyMap();
     }
 
     @Override
     public int size() {
-        return this.map.size();
+        return target().size();
     }
 
     @Override
     public boolean isEmpty() {
-        return this.map.isEmpty();
+        return target().isEmpty();
     }
 
     @Override
     public boolean containsKey(Object key) {
-        return this.map.containsKey(key);
+        return target().containsKey(key);
     }
 
     @Override
     public boolean containsValue(Object value) {
-        return this.map.containsValue(value);
+        return target().containsValue(value);
     }
 
     @Override
     public V get(Object key) {
-        return this.map.get(key);
+        return target().get(key);
     }
 
     @Override
     public V put(K key, V value) {
-        return this.map.put(key, value);
+        return target().put(key, value);
     }
 
     @Override
     public V remove(Object key) {
-        return this.map.remove(key);
+        return target().remove(key);
     }
 
     @Override
     public void putAll(Map<? extends K, ? extends V> m) {
-        this.map.putAll(m);
+        target().putAll(m);
     }
 
     @Override
     public void clear() {
-        this.map.clear();
+        target().clear();
     }
 
     @Override
     public Set<K> keySet() {
-        return this.map.keySet();
+        return target().keySet();
     }
 
     @Override
     public Collection<V> values() {
-        return this.map.values();
+        return target().values();
     }
 
     @Override
     public Set<Entry<K, V>> entrySet() {
-        return this.map.entrySet();
+        return target().entrySet();
     }
 
     @Override
     public String toString() {
+        Map<K, V> map = target();
         return map != null ? map.toString() : "{}";
     }
 
     @Override
     public boolean equals(Object obj) {
+        Map<K, V> map = target();
         return map != null && map.equals(obj);
     }
 
     @Override
     public int hashCode() {
+        Map<K, V> map = target();
         return map != null ? map.hashCode() : -1;
     }
 }
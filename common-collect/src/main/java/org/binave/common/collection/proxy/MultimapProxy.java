@@ -16,136 +16,202 @@
 
 package org.binave.common.collection.proxy;
 
-import org.binave.common.api.SyncProxy;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multiset;
 
+import org.binave.common.collection.MapDelta;
+
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * 代理 {@link com.google.common.collect.Multimap}，用于同步更新所有实例
+ * 发布、pin 及旧实例的回收见 {@link AbstractSyncProxy}
+ *
+ * 可以通过 {@link #syncApply} 以 key 为单位增量更新，见 {@link MapProxy}。
+ * 差异按 asMap() 计算，值的集合整体比较；写入的值复制为与当前实例的值集合同类的集合，
+ * 值集合为 Set 时去重、按 Set 比较
  *
  * @author bin jin
  * @since 1.8
  */
-public class MultimapProxy<K, V> implements Multimap<K, V>, SyncProxy<Multimap<K, V>> {
+public class MultimapProxy<K, V> extends AbstractSyncProxy<Multimap<K, V>> implements Multimap<K, V> {
 
-    private Multimap<K, V> multimap;
+    private final List<Consumer<? super MapDelta<K, Collection<V>>>> listeners = new CopyOnWriteArrayList<>();
 
-    @Override
-    public void syncUpdate(Multimap<K, V> multimap) {
-        this.multimap = multimap;
+    public MultimapProxy() {
     }
 
-    @Override
-    public boolean isNull() {
-        return multimap == null;
+    /**
+     * @param reclaimer 旧实例不再被持有时调用
+     */
+    public MultimapProxy(Consumer<? super Multimap<K, V>> reclaimer) {
+        super(reclaimer);
+    }
+
+    /**
+     * 增量更新，key 的值整体替换，空集合视为删除
+     *
+     * @param upserts  新增或修改的 key 及其全部值
+     * @param removals 删除的 key
+     * @return 实际生效的修改
+     */
+    public MapDelta<K, Collection<V>> syncApply(Map<? extends K, ? extends Collection<V>> upserts,
+                                                Collection<? extends K> removals) {
+        synchronized (updateLock()) {
+            Multimap<K, V> current = target();
+            MapDelta<K, Collection<V>> delta = DeltaMultimap.normalize(current, upserts, removals);
+            if (delta.isEmpty()) return delta;
+            syncDerive(DeltaMultimap.apply(current, delta), true);
+            fire(listeners, delta);
+            return delta;
+        }
+    }
+
+    public MapDelta<K, Collection<V>> syncApply(MapDelta<K, Collection<V>> delta) {
+        return syncApply(delta.upserts(), delta.removed());
+    }
+
+    /**
+     * 与新的完整实例比较，只发布差异
+     * 差异超过当前 key 个数的 1/4 时直接发布 next
+     *
+     * @return 差异
+     */
+    public MapDelta<K, Collection<V>> syncDiff(Multimap<K, V> next) {
+        synchronized (updateLock()) {
+            Multimap<K, V> current = target();
+            Map<K, Collection<V>> map = current != null ? current.asMap() : Collections.emptyMap();
+            MapDelta<K, Collection<V>> delta = MapDelta.diff(map, next.asMap());
+            if (delta.size() <= map.size() >> 2) return syncApply(delta);
+            syncUpdate(next);
+            fire(listeners, delta);
+            return delta;
+        }
+    }
+
+    /**
+     * 增量更新发布后在更新的线程中同步通知，syncUpdate 不通知
+     */
+    public void addListener(Consumer<? super MapDelta<K, Collection<V>>> listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeListener(Consumer<? super MapDelta<K, Collection<V>>> listener) {
+        listeners.remove(listener);
     }
 
     @Override
     public int size() {
-        return multimap.size();
+        return target().size();
     }
 
     @Override
     public boolean isEmpty() {
-        return this.multimap.isEmpty();
+        return target().isEmpty();
     }
 
     @Override
     public boolean containsKey(Object key) {
-        return this.multimap.containsKey(key);
+        return target().containsKey(key);
     }
 
     @Override
     public boolean containsValue(Object value) {
-        return this.multimap.containsValue(value);
+        return target().containsValue(value);
     }
 
     @Override
     public boolean containsEntry(Object key, Object value) {
-        return this.multimap.containsEntry(key, value);
+        return target().containsEntry(key, value);
     }
 
     @Override
     public boolean put(K key, V value) {
-        return this.multimap.put(key, value);
+        return target().put(key, value);
     }
 
     @Override
     public boolean remove(Object key, Object value) {
-        return this.multimap.remove(key, value);
+        return target().remove(key, value);
     }
 
     @Override
     public boolean putAll(K key, Iterable<? extends V> values) {
-        return this.multimap.putAll(key, values);
+        return target().putAll(key, values);
     }
 
     @Override
     public boolean putAll(Multimap<? extends K, ? extends V> multimap) {
-        return this.multimap.putAll(multimap);
+        return target().putAll(multimap);
     }
 
     @Override
     public Collection<V> replaceValues(K key, Iterable<? extends V> values) {
-        return this.multimap.replaceValues(key, values);
+        return target().replaceValues(key, values);
     }
 
     @Override
     public Collection<V> removeAll(Object key) {
-        return this.multimap.removeAll(key);
+        return target().removeAll(key);
     }
 
     @Override
     public void clear() {
-        this.multimap.clear();
+        target().clear();
     }
 
     @Override
     public Collection<V> get(K key) {
-        return this.multimap.get(key);
+        return target().get(key);
     }
 
     @Override
     public Set<K> keySet() {
-        return this.multimap.keySet();
+        return target().keySet();
     }
 
     @Override
     public Multiset<K> keys() {
-        return this.multimap.keys();
+        return target().keys();
     }
 
     @Override
     public Collection<V> values() {
-        return this.multimap.values();
+        return target().values();
     }
 
     @Override
     public Collection<Map.Entry<K, V>> entries() {
-        return this.multimap.entries();
+        return target().entries();
     }
 
     @Override
     public Map<K, Collection<V>> asMap() {
-        return this.multimap.asMap();
+        return target().asMap();
     }
 
     @Override
     public String toString() {
+        Multimap<K, V> multimap = target();
         return multimap != null ? multimap.toString() : "{}";
     }
 
     @Override
     public boolean equals(Object obj) {
+        Multimap<K, V> multimap = target();
         return multimap != null && multimap.equals(obj);
     }
 
     @Override
     public int hashCode() {
+        Multimap<K, V> multimap = target();
         return multimap != null ? multimap.hashCode() : -1;
     }
 }
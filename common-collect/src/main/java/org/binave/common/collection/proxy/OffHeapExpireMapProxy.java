@@ -0,0 +1,720 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+import org.binave.common.api.Ticker;
+import org.binave.common.collection.ExpireMap;
+import org.binave.common.serialize.Codec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * value 存放在堆外的 {@link ExpireMap}
+ *
+ * value 经 {@link Codec} 编码后写入 slab（direct 内存，或文件映射的 MappedByteBuffer），
+ * 堆内只保留 key 到地址的索引（{@link AddressTable}，基本类型数组，没有节点对象），读取时再解码，
+ * 也可以通过 {@link #withBuffer} 在回调中直接读取编码后的字节。
+ *
+ * 写入只在当前 slab 末尾追加，slab 整块回收：
+ *      其中的记录都被覆盖、删除，或者都已过期（按 slab 内最晚的过期时间）时，放回空闲列表。
+ * 默认过期时间的写入按时间顺序落在各个 slab 中，过期后依次整块回收，不需要逐条释放。
+ * 空间用完且没有可回收的 slab 时，写入抛出 IllegalStateException。
+ *
+ * 过期时间的规则同 {@link ExpireMapProxy}；过期的 key 在读取、扩容和 trim 时删除，
+ * size() 包含尚未清理的过期 key，需要准确值时先调用 {@link #trim()}。
+ * 不接受 null key、value，非线程安全
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public class OffHeapExpireMapProxy<K, V> extends AbstractMap<K, V> implements ExpireMap<K, V>, Closeable {
+
+    // 记录头，value 的字节数
+    private static final int HEADER = Integer.BYTES;
+
+    private static final int GENERATION_MASK = 0xffff;
+
+    private static final int MAX_SLABS = 1 << 16;
+
+    private final AddressTable<K> index;
+
+    private final Codec codec;
+
+    private final Class<V> type;
+
+    private final int slabSize;
+
+    private final int maxSlabs;
+
+    private final FileChannel channel;
+
+    private final Ticker ticker;
+
+    private final List<Slab> slabs = new ArrayList<>();
+
+    private final Deque<Slab> free = new ArrayDeque<>();
+
+    // 正在写入的 slab
+    private Slab current;
+
+    private boolean closed;
+
+    // 正在执行的 withBuffer 回调个数，不为 0 时不能 close
+    private int reading;
+
+    private Set<Entry<K, V>> entries;
+
+    /**
+     * direct 内存，slab 为 4MB
+     *
+     * @param maximumBytes 堆外空间上限
+     */
+    public OffHeapExpireMapProxy(Codec codec, Class<V> type, long defaultTimeMillis, long maximumBytes) {
+        this(codec, type, defaultTimeMillis, 4 << 20, maximumBytes, null, Ticker.SYSTEM);
+    }
+
+    /**
+     * @param codec             value 的编码
+     * @param type              value 的类型，用于解码
+     * @param defaultTimeMillis 默认过期时间，毫秒
+     * @param slabSize          每个 slab 的字节数，单个 value 编码后不能超过
+     * @param maximumBytes      堆外空间上限，最多 65536 个 slab
+     * @param file              映射的文件，为 null 时使用 direct 内存
+     * @param ticker            时钟
+     */
+    public OffHeapExpireMapProxy(Codec codec, Class<V> type, long defaultTimeMillis,
+                                 int slabSize, long maximumBytes, File file, Ticker ticker) {
+        if (slabSize <= HEADER) {
+            throw new IllegalArgumentException("slab size too small: " + slabSize);
+        }
+        if (maximumBytes < slabSize || maximumBytes / slabSize > MAX_SLABS) {
+            throw new IllegalArgumentException("maximum bytes must hold 1 ~ " + MAX_SLABS + " slabs: " + maximumBytes);
+        }
+        this.index = new AddressTable<>(defaultTimeMillis, ticker, this::release);
+        this.codec = Objects.requireNonNull(codec);
+        this.type = Objects.requireNonNull(type);
+        this.slabSize = slabSize;
+        this.maxSlabs = (int) (maximumBytes / slabSize);
+        this.ticker = ticker;
+        if (file == null) {
+            this.channel = null;
+        } else {
+            try {
+                this.channel = new RandomAccessFile(file, "rw").getChannel();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private long now() {
+        return ticker.millis();
+    }
+
+    /* ******** slab ******** */
+
+    /**
+     * 地址：slab 序号 16 bit，slab 代数 16 bit，偏移 32 bit。
+     * slab 回收后代数加一，旧地址不再生效
+     */
+    private static final class Slab {
+
+        private final int id;
+
+        private final ByteBuffer buffer;
+
+        private int generation;
+
+        private int position;
+
+        // 未被覆盖、删除的记录数
+        private int live;
+
+        // 指定过期时间的记录中，最晚的过期时间点
+        private long deadline;
+
+        // 默认过期时间的记录中，最晚的写入时间，没有为 -1
+        private long defaultWrite = -1;
+
+        private boolean free;
+
+        Slab(int id, ByteBuffer buffer) {
+            this.id = id;
+            this.buffer = buffer;
+        }
+
+        boolean dead(long now, long defaultTimeMillis) {
+            return live == 0 || now >= deadline && (defaultWrite < 0 || now >= defaultWrite + defaultTimeMillis);
+        }
+
+        void reset() {
+            generation = (generation + 1) & GENERATION_MASK;
+            position = live = 0;
+            deadline = 0;
+            defaultWrite = -1;
+        }
+
+        long address(int offset) {
+            return (long) id << 48 | (long) generation << 32 | offset;
+        }
+
+    }
+
+    private ByteBuffer allocate(int id) {
+        if (channel == null) return ByteBuffer.allocateDirect(slabSize);
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, (long) id * slabSize, slabSize);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Slab nextSlab() {
+        if (closed) throw new IllegalStateException("closed");
+        sweep(now());
+        Slab slab = free.poll();
+        if (slab != null) {
+            slab.free = false;
+        } else if (slabs.size() < maxSlabs) {
+            slab = new Slab(slabs.size(), allocate(slabs.size()));
+            slabs.add(slab);
+        } else if (current != null && current.dead(now(), index.getDefaultExpire())) {
+            slab = current;
+            slab.reset();
+        } else {
+            throw new IllegalStateException("off-heap space exhausted: " + (long) maxSlabs * slabSize);
+        }
+        return slab;
+    }
+
+    /**
+     * 整块回收已无有效记录的 slab
+     */
+    private void sweep(long now) {
+        long defaultTimeMillis = index.getDefaultExpire();
+        for (Slab slab : slabs) {
+            if (slab != current && !slab.free && slab.dead(now, defaultTimeMillis)) recycle(slab);
+        }
+    }
+
+    private void recycle(Slab slab) {
+        slab.reset();
+        slab.free = true;
+        free.add(slab);
+    }
+
+    // 地址所在的 slab，已回收时返回 null
+    private Slab slab(long address) {
+        Slab slab = slabs.get((int) (address >>> 48));
+        return slab.generation == ((int) (address >>> 32) & GENERATION_MASK) ? slab : null;
+    }
+
+    private long write(V value) {
+        byte[] bytes = codec.encode(Objects.requireNonNull(value));
+        int size = HEADER + bytes.length;
+        if (size > slabSize) {
+            throw new IllegalArgumentException("encoded value larger than slab: " + bytes.length);
+        }
+        if (current == null || current.position + size > slabSize) current = nextSlab();
+        int offset = current.position;
+        ByteBuffer buffer = current.buffer.duplicate();
+        buffer.position(offset);
+        buffer.putInt(bytes.length).put(bytes);
+        current.position += size;
+        ++current.live;
+        return current.address(offset);
+    }
+
+    private V read(long address) {
+        ByteBuffer buffer = slab(address).buffer.duplicate();
+        buffer.position((int) address);
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return codec.decode(bytes, type);
+    }
+
+    // 记录被覆盖、删除、过期
+    private void release(long address) {
+        Slab slab = slab(address);
+        if (slab != null && --slab.live == 0 && slab != current) recycle(slab);
+    }
+
+    /**
+     * 记录所在 slab 的最晚过期
+     *
+     * @param time 过期时间点，或 {@link ExpireNode#defaultTime(long)}
+     */
+    private void touch(long address, long time) {
+        Slab slab = slab(address);
+        if (slab == null) return;
+        if (ExpireNode.byDefault(time)) slab.defaultWrite = Math.max(slab.defaultWrite, ~time);
+        else slab.deadline = Math.max(slab.deadline, time);
+    }
+
+    /**
+     * 以只读 ByteBuffer 读取编码后的 value，不解码、不复制
+     *
+     * buffer 只在回调中有效，不要保存到回调之外：close 会立即释放 slab 的内存，
+     * 之后再读取会访问已释放的内存。回调中不要写入本 map，写入可能回收 buffer 所在的 slab
+     *
+     * @param reader 读取 buffer，key 不存在时不调用
+     * @return reader 的返回值，key 不存在时返回 null
+     * @throws IllegalStateException 回调中调用 close
+     */
+    public <R> R withBuffer(K key, Function<? super ByteBuffer, ? extends R> reader) {
+        Objects.requireNonNull(reader);
+        int slot = index.slot(key, now());
+        if (slot < 0) return null;
+        long address = index.address(slot);
+        ByteBuffer buffer = slab(address).buffer.duplicate();
+        int offset = (int) address;
+        buffer.limit(offset + HEADER + buffer.getInt(offset)).position(offset + HEADER);
+        ++reading;
+        try {
+            return reader.apply(buffer.slice().asReadOnlyBuffer());
+        } finally {
+            --reading;
+        }
+    }
+
+    /**
+     * 已分配的堆外字节数
+     */
+    public long allocatedBytes() {
+        return (long) slabs.size() * slabSize;
+    }
+
+    /**
+     * 清空，释放所有 slab 的内存或映射，并关闭映射的文件；之后不能再写入
+     *
+     * @throws IllegalStateException 在 {@link #withBuffer} 的回调中调用
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        if (reading > 0) throw new IllegalStateException("close while reading a buffer");
+        closed = true;
+        clear();
+        for (Slab slab : slabs) free(slab.buffer);
+        slabs.clear();
+        free.clear();
+        if (channel != null) channel.close();
+    }
+
+    /**
+     * 立即释放 direct 内存或解除映射，不等待 GC；不支持时交给 GC
+     */
+    private static void free(ByteBuffer buffer) {
+        if (!buffer.isDirect()) return;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                // 1.8，DirectBuffer.cleaner().clean()
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object c = cleaner.invoke(buffer);
+                if (c != null) c.getClass().getMethod("clean").invoke(c);
+                return;
+            }
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+        }
+    }
+
+    /* ******** ExpireMap ******** */
+
+    /**
+     * 包含尚未清理的过期 key
+     */
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return index.size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return index.slot(key, now()) >= 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        int slot = index.slot(key, now());
+        return slot < 0 ? null : read(index.address(slot));
+    }
+
+    /**
+     * 取出并续时，过期时间的规则同 {@link ExpireMapProxy#put(Object, long, Object)}
+     */
+    @Override
+    public V get(K key, long timeMillis) {
+        long now = now();
+        int slot = index.slot(key, now);
+        if (slot < 0) return null;
+        long address = index.address(slot), expire = ExpireMapProxy.deadline(timeMillis, now);
+        index.time(slot, expire);
+        touch(address, expire);
+        return read(address);
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        V value = get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * @return 过期的时间点，不存在时返回 0
+     */
+    @Override
+    public long getExpire(K key) {
+        int slot = index.slot(key, now());
+        return slot < 0 ? 0 : index.expireAt(slot);
+    }
+
+    /**
+     * 续时
+     * 如果数值大于现在，则认为是新的时间点。
+     * 否则在原过期时间上增加，负数为缩短
+     */
+    @Override
+    public void addExpire(K key, long timeMillis) {
+        long now = now();
+        int slot = index.slot(key, now);
+        if (slot < 0) return;
+        long expire = timeMillis > now ? timeMillis : Math.max(index.expireAt(slot) + timeMillis, 0);
+        index.time(slot, expire);
+        touch(index.address(slot), expire);
+    }
+
+    // 旧值先解码再释放；写入期间刚过期、所在 slab 已回收时为 null
+    private V replaced(long old) {
+        if (slab(old) == null) return null;
+        V value = read(old);
+        release(old);
+        return value;
+    }
+
+    /**
+     * 写入，已存在时释放旧记录
+     *
+     * @param time   过期时间点，或 {@link ExpireNode#defaultTime(long)}
+     * @param decode 是否解码旧值
+     */
+    private V put(K key, V value, long time, long now, boolean decode) {
+        Objects.requireNonNull(key);
+        long address = write(value);
+        touch(address, time);
+        int slot = index.slot(key, now);
+        if (slot < 0) {
+            index.insert(key, address, time, now);
+            return null;
+        }
+        long old = index.address(slot);
+        index.address(slot, address);
+        index.time(slot, time);
+        if (decode) return replaced(old);
+        release(old);
+        return null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        long now = now();
+        return put(key, value, ExpireNode.defaultTime(now), now, true);
+    }
+
+    @Override
+    public V put(K key, long timeMillis, V value) {
+        long now = now();
+        return put(key, value, ExpireMapProxy.deadline(timeMillis, now), now, true);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        V old = get(key);
+        return old != null ? old : put(key, value);
+    }
+
+    @Override
+    public V putIfAbsent(K key, long timeMillis, V value) {
+        V old = get(key);
+        return old != null ? old : put(key, timeMillis, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            long now = now();
+            put(entry.getKey(), entry.getValue(), ExpireNode.defaultTime(now), now, false);
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m, long timeMillis) {
+        for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            long now = now();
+            put(entry.getKey(), entry.getValue(), ExpireMapProxy.deadline(timeMillis, now), now, false);
+        }
+    }
+
+    private void remove(int slot) {
+        long address = index.address(slot);
+        index.delete(slot);
+        release(address);
+    }
+
+    @Override
+    public V remove(Object key) {
+        int slot = index.slot(key, now());
+        if (slot < 0) return null;
+        V value = read(index.address(slot));
+        remove(slot);
+        return value;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        int slot = index.slot(key, now());
+        if (slot < 0 || !read(index.address(slot)).equals(value)) return false;
+        remove(slot);
+        return true;
+    }
+
+    /**
+     * 替换槽位上的 value，过期时间不变
+     */
+    private V replace(int slot, V value) {
+        long old = index.address(slot), address = write(value);
+        index.address(slot, address);
+        touch(address, index.time(slot));
+        return replaced(old);
+    }
+
+    /**
+     * 替换 value，过期时间不变
+     */
+    @Override
+    public V replace(K key, V value) {
+        int slot = index.slot(key, now());
+        return slot < 0 ? null : replace(slot, value);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        int slot = index.slot(key, now());
+        if (slot < 0 || !read(index.address(slot)).equals(oldValue)) return false;
+        replace(slot, newValue);
+        return true;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        long now = now();
+        for (int i = 0; i < index.capacity(); i++) {
+            if (!index.occupied(i) || index.expireAt(i) <= now) continue;
+            replace(i, function.apply(index.key(i), read(index.address(i))));
+        }
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        V value = get(key);
+        if (value != null) return value;
+        value = mappingFunction.apply(key);
+        if (value != null) put(key, value);
+        return value;
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        V value = get(key);
+        if (value == null) return null;
+        return replaceOrRemove(key, remappingFunction.apply(key, value));
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        V value = get(key);
+        V result = remappingFunction.apply(key, value);
+        if (value != null) return replaceOrRemove(key, result);
+        if (result != null) put(key, result);
+        return result;
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        V old = get(key);
+        if (old == null) {
+            put(key, value);
+            return value;
+        }
+        return replaceOrRemove(key, remappingFunction.apply(old, value));
+    }
+
+    // 已存在的 key，保持过期时间
+    private V replaceOrRemove(K key, V value) {
+        int slot = index.slot(key, now());
+        if (slot < 0) return value;
+        if (value == null) remove(slot);
+        else replace(slot, value);
+        return value;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        index.forEach((k, address) -> action.accept(k, read(address)));
+    }
+
+    @Override
+    public void clear() {
+        index.clear();
+        for (Slab slab : slabs) {
+            if (!slab.free) recycle(slab);
+        }
+        current = null;
+    }
+
+    /**
+     * 清理过期的 key，并整块回收 slab
+     */
+    @Override
+    public void trim() {
+        long now = now();
+        index.trim(now);
+        sweep(now);
+    }
+
+    @Override
+    public long getDefaultExpire() {
+        return index.getDefaultExpire();
+    }
+
+    @Override
+    public void setDefaultExpire(long timeMillis) {
+        index.setDefaultExpire(timeMillis);
+    }
+
+    /**
+     * 遍历时解码，跳过已过期的 key，setValue 保持过期时间。
+     * 遍历中只能通过迭代器删除
+     */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es = entries;
+        if (es == null) {
+            es = entries = new AbstractSet<Entry<K, V>>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return index.size();
+                }
+
+                @Override
+                public void clear() {
+                    OffHeapExpireMapProxy.this.clear();
+                }
+            };
+        }
+        return es;
+    }
+
+    /**
+     * setValue 时写回 map，过期时间不变
+     */
+    private final class WriteThroughEntry extends SimpleEntry<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        WriteThroughEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            super.setValue(value);
+            return replace(getKey(), value);
+        }
+    }
+
+    /**
+     * 从一个空槽位之后遍历一圈，见 {@link AddressTable#start()}
+     */
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+
+        private final long now = now();
+
+        private final int start = index.start(), mask = index.capacity() - 1;
+
+        // 已检查的槽位数
+        private int visited;
+
+        private int next = -1, last = -1;
+
+        @Override
+        public boolean hasNext() {
+            while (next < 0 && visited < mask + 1) {
+                int slot = (start + ++visited) & mask;
+                if (index.occupied(slot) && index.expireAt(slot) > now) next = slot;
+            }
+            return next >= 0;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            int slot = last = next;
+            next = -1;
+            return new WriteThroughEntry(index.key(slot), read(index.address(slot)));
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) throw new IllegalStateException();
+            OffHeapExpireMapProxy.this.remove(last);
+            // 后面的元素可能前移到 last 及之后，从 last 重新检查
+            visited = ((last - start) & mask) - 1;
+            next = last = -1;
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+import org.binave.common.collection.RemovalCause;
+import org.binave.common.collection.RemovalListener;
+import org.binave.common.collection.RemovalNotification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 把移除通知异步、批量地交给 executor
+ *
+ * 作为 map 的 {@link RemovalListener} 使用，移除的线程只把通知放入有界队列，
+ * 同一时间只有一个任务在 executor 中按批取出并调用 consumer，批内按移除的先后排列。
+ *
+ * 队列满时移除的线程等待，直到 consumer 取走一批（背压）；
+ * executor 拒绝时在移除的线程中投递，不会等待没有 consumer 的队列。
+ * 因此 consumer 中不要修改产生通知的 map。
+ *
+ * writer 在移除的线程中同步调用，先于入队，用于 write-behind 等需要在移除前完成的写入
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public class RemovalDispatcher<K, V> implements RemovalListener<K, V> {
+
+    private final Executor executor;
+
+    private final BlockingQueue<RemovalNotification<K, V>> queue;
+
+    private final int batchSize;
+
+    private final Consumer<List<RemovalNotification<K, V>>> consumer;
+
+    private final RemovalListener<K, V> writer;
+
+    // 是否已有投递任务
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * @param executor  执行 consumer
+     * @param capacity  队列容量
+     * @param batchSize 每批最多的通知数
+     * @param consumer  批量处理通知
+     */
+    public RemovalDispatcher(Executor executor, int capacity, int batchSize,
+                             Consumer<List<RemovalNotification<K, V>>> consumer) {
+        this(executor, capacity, batchSize, consumer, null);
+    }
+
+    /**
+     * @param writer 在移除的线程中同步调用，可以为 null
+     */
+    public RemovalDispatcher(Executor executor, int capacity, int batchSize,
+                             Consumer<List<RemovalNotification<K, V>>> consumer, RemovalListener<K, V> writer) {
+        if (capacity <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("capacity and batch size must be positive: " + capacity + ", " + batchSize);
+        }
+        this.executor = Objects.requireNonNull(executor);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.consumer = Objects.requireNonNull(consumer);
+        this.writer = writer;
+    }
+
+    @Override
+    public void onRemoval(K key, V value, RemovalCause cause) {
+        if (writer != null) writer.onRemoval(key, value, cause);
+        RemovalNotification<K, V> notification = new RemovalNotification<>(key, value, cause);
+        if (!queue.offer(notification)) {
+            schedule();
+            try {
+                queue.put(notification);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for removal queue", e);
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * 等待投递的通知数
+     */
+    public int pending() {
+        return queue.size();
+    }
+
+    private void schedule() {
+        if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) return;
+        try {
+            executor.execute(this::deliver);
+        } catch (RejectedExecutionException e) {
+            // 已持有投递权，直接在当前线程投递
+            deliver();
+        }
+    }
+
+    private void deliver() {
+        for (; ; ) {
+            // consumer 可能保留批次，每批使用新的 List
+            List<RemovalNotification<K, V>> batch = new ArrayList<>(Math.min(batchSize, queue.size()));
+            queue.drainTo(batch, batchSize);
+            if (batch.isEmpty()) {
+                scheduled.set(false);
+                // 放弃前又有新的通知入队
+                if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) return;
+                continue;
+            }
+            try {
+                consumer.accept(batch);
+            } catch (Throwable e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+
+}
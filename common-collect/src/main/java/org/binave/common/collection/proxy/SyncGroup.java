@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多个 {@link AbstractSyncProxy} 的原子替换
+ *
+ * 配置重新加载时逐个 syncUpdate，请求可能读到 A 表的新版本与 B 表的旧版本。
+ * 加入组后，成员的被代理对象存放在组的"代"中，一代是所有成员的一组实例。
+ * 事务暂存多个成员的新实例，提交时生成新的一代，只做一次 volatile 写入，
+ * 读取不加锁：
+ *
+ *      SyncGroup group = new SyncGroup();
+ *      group.join(itemTable);
+ *      group.join(shopTable);
+ *
+ *      group.begin()
+ *              .stage(itemTable, newItems)
+ *              .stage(shopTable, newShops)
+ *              .commit();
+ *
+ * 成员的单次调用总是读取最新的一代，先后读取的版本不会倒退：
+ * 读到 A 的新版本之后，再读 B 不会是旧版本。
+ * 需要多个成员严格属于同一代时，使用 {@link #pin()}：
+ *
+ *      try (SyncGroup.Snapshot snapshot = group.pin()) {
+ *          Map<Integer, Item> items = snapshot.get(itemTable);
+ *          Table<Integer, Integer, Shop> shops = snapshot.get(shopTable);
+ *          ...
+ *      }
+ *
+ * 每一代持有各成员当前版本的引用，一代不再被持有时释放这些引用，
+ * 不再被任何一代或 pin 持有的实例交给成员的 reclaimer 回收。
+ * 成员直接调用 syncUpdate 等同于只包含它的事务。成员加入后不能退出
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public class SyncGroup {
+
+    private final List<AbstractSyncProxy<?>> members = new ArrayList<>();
+
+    private volatile Generation current = new Generation(new Object[0], new AbstractSyncProxy.Version<?>[0], 0);
+
+    /**
+     * 加入组，当前的被代理对象成为组中的值
+     *
+     * @throws IllegalStateException 已经加入了其它组
+     */
+    public synchronized void join(AbstractSyncProxy<?> proxy) {
+        Objects.requireNonNull(proxy);
+        // 持有成员的锁，期间成员不能 syncUpdate，版本不变
+        synchronized (proxy) {
+            if (proxy.group() != null) throw new IllegalStateException("already in a group");
+            Generation old = current;
+            int slot = members.size();
+            AbstractSyncProxy.Version<?> version = proxy.version();
+
+            Object[] targets = new Object[slot + 1];
+            AbstractSyncProxy.Version<?>[] versions = new AbstractSyncProxy.Version<?>[slot + 1];
+            System.arraycopy(old.targets, 0, targets, 0, slot);
+            System.arraycopy(old.versions, 0, versions, 0, slot);
+            targets[slot] = version.value;
+            versions[slot] = version; // 成员发布时持有的引用转交给新的一代
+            for (int i = 0; i < slot; i++) versions[i].retain();
+            // 先发布包含该成员的一代，再让成员从组中读取，并发的读取不会越界
+            publish(old, targets, versions);
+            members.add(proxy);
+            proxy.joined(this, slot);
+        }
+    }
+
+    /**
+     * 开始事务
+     */
+    public Transaction begin() {
+        return new Transaction();
+    }
+
+    /**
+     * 固定当前一代，关闭前其中的实例不会被回收
+     */
+    public Snapshot pin() {
+        for (; ; ) {
+            Generation g = current;
+            if (g.acquire()) return new Snapshot(g);
+        }
+    }
+
+    /**
+     * 提交次数，每次提交、加入成员时加 1
+     */
+    public long epoch() {
+        return current.epoch;
+    }
+
+    public synchronized int size() {
+        return members.size();
+    }
+
+    Object target(int slot) {
+        return current.targets[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    <E> AbstractSyncProxy.Version<E> version(int slot) {
+        return (AbstractSyncProxy.Version<E>) current.versions[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized long commit(Map<AbstractSyncProxy<?>, Object> staged) {
+        Generation old = current;
+        Object[] targets = old.targets.clone();
+        AbstractSyncProxy.Version<?>[] versions = old.versions.clone();
+        boolean[] changed = new boolean[versions.length];
+        for (Map.Entry<AbstractSyncProxy<?>, Object> entry : staged.entrySet()) {
+            AbstractSyncProxy<Object> proxy = (AbstractSyncProxy<Object>) entry.getKey();
+            int slot = proxy.slot();
+            targets[slot] = entry.getValue();
+            versions[slot] = proxy.next(entry.getValue());
+            changed[slot] = true;
+        }
+        // 未修改的成员，新的一代也持有一份引用
+        for (int i = 0; i < versions.length; i++) {
+            if (changed[i]) old.versions[i].owner.retired();
+            else versions[i].retain();
+        }
+        return publish(old, targets, versions);
+    }
+
+    /**
+     * 发布新的一代，释放旧一代的发布引用
+     */
+    private long publish(Generation old, Object[] targets, AbstractSyncProxy.Version<?>[] versions) {
+        Generation g = new Generation(targets, versions, old.epoch + 1);
+        current = g;
+        old.release();
+        return g.epoch;
+    }
+
+    /**
+     * 所有成员的一组实例，引用计数：发布时为 1，每次 pin 加 1
+     */
+    private static final class Generation {
+
+        private final Object[] targets;
+
+        private final AbstractSyncProxy.Version<?>[] versions;
+
+        private final long epoch;
+
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        Generation(Object[] targets, AbstractSyncProxy.Version<?>[] versions, long epoch) {
+            this.targets = targets;
+            this.versions = versions;
+            this.epoch = epoch;
+        }
+
+        boolean acquire() {
+            for (int count; (count = refs.get()) > 0; )
+                if (refs.compareAndSet(count, count + 1)) return true;
+            return false;
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0)
+                for (AbstractSyncProxy.Version<?> version : versions) version.release();
+        }
+    }
+
+    /**
+     * 暂存多个成员的新实例，一次提交，只能提交一次
+     */
+    public final class Transaction {
+
+        private Map<AbstractSyncProxy<?>, Object> staged = new IdentityHashMap<>();
+
+        private Transaction() {
+        }
+
+        /**
+         * 同一个成员多次暂存，以最后一次为准
+         *
+         * @throws IllegalArgumentException 不是本组的成员
+         */
+        public <E> Transaction stage(AbstractSyncProxy<E> proxy, E target) {
+            if (staged == null) throw new IllegalStateException("transaction committed");
+            if (proxy.group() != SyncGroup.this) throw new IllegalArgumentException("not a member: " + proxy);
+            staged.put(proxy, target);
+            return this;
+        }
+
+        /**
+         * 所有暂存的实例同时生效
+         *
+         * @return 新的一代的编号
+         */
+        public long commit() {
+            if (staged == null) throw new IllegalStateException("transaction committed");
+            Map<AbstractSyncProxy<?>, Object> m = staged;
+            staged = null;
+            return SyncGroup.this.commit(m);
+        }
+    }
+
+    /**
+     * 被固定的一代，关闭后释放，重复关闭无效
+     */
+    public static final class Snapshot implements AutoCloseable {
+
+        private Generation generation;
+
+        private Snapshot(Generation generation) {
+            this.generation = generation;
+        }
+
+        /**
+         * 成员在这一代中的实例
+         *
+         * @throws IllegalArgumentException 在这一代之后才加入，或不是本组的成员
+         */
+        @SuppressWarnings("unchecked")
+        public <E> E get(AbstractSyncProxy<E> proxy) {
+            Generation g = generation;
+            if (g == null) throw new IllegalStateException("snapshot closed");
+            int slot = proxy.slot();
+            if (proxy.group() == null || slot >= g.versions.length || g.versions[slot].owner != proxy)
+                throw new IllegalArgumentException("not a member: " + proxy);
+            return (E) g.targets[slot];
+        }
+
+        /**
+         * 固定的一代的编号
+         */
+        public long epoch() {
+            if (generation == null) throw new IllegalStateException("snapshot closed");
+            return generation.epoch;
+        }
+
+        @Override
+        public void close() {
+            Generation g = generation;
+            if (g == null) return;
+            generation = null;
+            g.release();
+        }
+    }
+
+}
@@ -16,140 +16,205 @@
 
 package org.binave.common.collection.proxy;
 
-import org.binave.common.api.SyncProxy;
 import com.google.common.collect.Table;
 
+import org.binave.common.collection.MapDelta;
+
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * 代理 {@link com.google.common.collect.Table}，用于同步更新所有实例
+ * 发布、pin 及旧实例的回收见 {@link AbstractSyncProxy}
+ *
+ * 可以通过 {@link #syncApply} 以行为单位增量更新，见 {@link MapProxy}。
+ * 差异按 rowMap() 计算，行整体比较
  *
  * @author bin jin
  * @since 1.8
  */
-public class TableProxy<R, C, V> implements Table<R, C, V>, SyncProxy<Table<R, C, V>> {
+public class TableProxy<R, C, V> extends AbstractSyncProxy<Table<R, C, V>> implements Table<R, C, V> {
 
-    private Table<R, C, V> table;
+    private final List<Consumer<? super MapDelta<R, Map<C, V>>>> listeners = new CopyOnWriteArrayList<>();
 
-    @Override
-    public void syncUpdate(Table<R, C, V> table) {
-        this.table = table;
+    public TableProxy() {
     }
 
-    @Override
-    public boolean isNull() {
-        return table == null;
+    /**
+     * @param reclaimer 旧实例不再被持有时调用
+     */
+    public TableProxy(Consumer<? super Table<R, C, V>> reclaimer) {
+        super(reclaimer);
+    }
+
+    /**
+     * 增量更新，行整体替换，空行视为删除
+     *
+     * @param upserts  新增或修改的行
+     * @param removals 删除的行
+     * @return 实际生效的修改
+     */
+    public MapDelta<R, Map<C, V>> syncApply(Map<? extends R, ? extends Map<C, V>> upserts,
+                                            Collection<? extends R> removals) {
+        synchronized (updateLock()) {
+            Table<R, C, V> current = target();
+            MapDelta<R, Map<C, V>> delta = DeltaTable.normalize(current, upserts, removals);
+            if (delta.isEmpty()) return delta;
+            syncDerive(DeltaTable.apply(current, delta), true);
+            fire(listeners, delta);
+            return delta;
+        }
+    }
+
+    public MapDelta<R, Map<C, V>> syncApply(MapDelta<R, Map<C, V>> delta) {
+        return syncApply(delta.upserts(), delta.removed());
+    }
+
+    /**
+     * 与新的完整实例比较，只发布差异
+     * 差异超过当前行数的 1/4 时直接发布 next
+     *
+     * @return 差异
+     */
+    public MapDelta<R, Map<C, V>> syncDiff(Table<R, C, V> next) {
+        synchronized (updateLock()) {
+            Table<R, C, V> current = target();
+            Map<R, Map<C, V>> rows = current != null ? current.rowMap() : Collections.emptyMap();
+            MapDelta<R, Map<C, V>> delta = MapDelta.diff(rows, next.rowMap());
+            if (delta.size() <= rows.size() >> 2) return syncApply(delta);
+            syncUpdate(next);
+            fire(listeners, delta);
+            return delta;
+        }
+    }
+
+    /**
+     * 增量更新发布后在更新的线程中同步通知，syncUpdate 不通知
+     */
+    public void addListener(Consumer<? super MapDelta<R, Map<C, V>>> listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeListener(Consumer<? super MapDelta<R, Map<C, V>>> listener) {
+        listeners.remove(listener);
     }
 
     @Override
     public boolean contains(Object rowKey, Object columnKey) {
-        return this.table.contains(rowKey, columnKey);
+        return target().contains(rowKey, columnKey);
     }
 
     @Override
     public boolean containsRow(Object rowKey) {
-        return this.table.containsRow(rowKey);
+        return target().containsRow(rowKey);
     }
 
     @Override
     public boolean containsColumn(Object columnKey) {
-        return this.table.containsColumn(columnKey);
+        return target().containsColumn(columnKey);
     }
 
     @Override
     public boolean containsValue(Object value) {
-        return this.table.containsValue(value);
+        return target().containsValue(value);
     }
 
     @Override
     public V get(Object rowKey, Object columnKey) {
-        return this.table.get(rowKey, columnKey);
+        return target().get(rowKey, columnKey);
     }
 
     @Override
     public boolean isEmpty() {
-        return this.table.isEmpty();
+        return target().isEmpty();
     }
 
     @Override
     public int size() {
-        return this.table.size();
+        return target().size();
     }
 
     @Override
     public void clear() {
-        this.table.clear();
+        target().clear();
     }
 
     @Override
     public V put(R rowKey, C columnKey, V value) {
-        return (V) this.table.put(rowKey, columnKey, value);
+        return (V) target().put(rowKey, columnKey, value);
     }
 
     @Override
     public void putAll(Table<? extends R, ? extends C, ? extends V> table) {
-        this.table.putAll(table);
+        target().putAll(table);
     }
 
     @Override
     public V remove(Object rowKey, Object columnKey) {
-        return (V) this.table.remove(rowKey, columnKey);
+        return (V) target().remove(rowKey, columnKey);
     }
 
     @Override
     public Map<C, V> row(R rowKey) {
-        return this.table.row(rowKey);
+        return target().row(rowKey);
     }
 
     @Override
     public Map<R, V> column(C columnKey) {
-        return this.table.column(columnKey);
+        return target().column(columnKey);
     }
 
     @Override
     public Set<Cell<R, C, V>> cellSet() {
-        return this.table.cellSet();
+        return target().cellSet();
     }
 
     @Override
     public Set<R> rowKeySet() {
-        return this.table.rowKeySet();
+        return target().rowKeySet();
     }
 
     @Override
     public Set<C> columnKeySet() {
-        return this.table.columnKeySet();
+        return target().columnKeySet();
     }
 
     @Override
     public Collection<V> values() {
-        return this.table.values();
+        return target().values();
     }
 
     @Override
     public Map<R, Map<C, V>> rowMap() {
-        return this.table.rowMap();
+        return target().rowMap();
     }
 
     @Override
     public Map<C, Map<R, V>> columnMap() {
-        return this.table.columnMap();
+        return target().columnMap();
     }
 
     @Override
     public String toString() {
+        Table<R, C, V> table = target();
         return table != null ? table.toString() : "{}";
     }
 
     @Override
     public boolean equals(Object obj) {
+        Table<R, C, V> table = target();
         return table != null && table.equals(obj);
     }
 
     @Override
     public int hashCode() {
+        Table<R, C, V> table = target();
         return table != null ? table.hashCode() : -1;
     }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.collection.proxy;
+
+import java.util.function.Consumer;
+
+/**
+ * 分层时间轮
+ *
+ * 共 6 层，每层 64 个桶，第 n 层每个桶跨 64^n 毫秒：
+ *      1ms、64ms、4s、4.4min、4.7h、12.4d
+ * 过期时间越远，放在越高的层；时间推进到高层的桶时，桶内节点降到低层，
+ * 最后在第 0 层精确到毫秒过期。超出最高层范围的节点放在最高层，转到时重新放置。
+ *
+ * 推进时只访问经过的桶，开销与过期（和降层）的节点数成正比，与总数无关
+ *
+ * 非线程安全
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+final class TimerWheel<K, V> {
+
+    private static final int BITS = 6;
+
+    private static final int BUCKETS = 1 << BITS;
+
+    private static final int MASK = BUCKETS - 1;
+
+    private static final int LEVELS = 6;
+
+    private final ExpireNode<K, V>[][] wheel;
+
+    // 已经推进到的时间
+    private long time;
+
+    TimerWheel(long now) {
+        this.time = now;
+        this.wheel = newWheel();
+        clear();
+    }
+
+    // 泛型数组只能以原始类型创建，桶中只放入本时间轮的节点
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K, V> ExpireNode<K, V>[][] newWheel() {
+        return new ExpireNode[LEVELS][BUCKETS];
+    }
+
+    /**
+     * 按 node.time 放入对应的桶
+     */
+    void schedule(ExpireNode<K, V> node) {
+        // 已过期的放在当前桶，下次推进时处理
+        long when = Math.max(node.time, time);
+        long delta = when - time;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) ++level;
+        node.linkLast(wheel[level][(int) ((when >>> (BITS * level)) & MASK)]);
+    }
+
+    /**
+     * 推进到 now，到期的节点已从时间轮移除后交给 evict
+     *
+     * evict 中不要修改时间轮
+     */
+    void advance(long now, Consumer<ExpireNode<K, V>> evict) {
+        long previous = time;
+        // 时钟回拨时不处理
+        if (now <= previous) return;
+        time = now;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = BITS * level;
+            long previousTicks = previous >>> shift, currentTicks = now >>> shift;
+            // 本层没有经过新的桶，更高层也不会有
+            if (currentTicks == previousTicks) break;
+            expire(level, previousTicks, currentTicks - previousTicks, now, evict);
+        }
+    }
+
+    // 处理从 previousTicks 到当前的桶，最多转一圈
+    private void expire(int level, long previousTicks, long delta, long now, Consumer<ExpireNode<K, V>> evict) {
+        ExpireNode<K, V>[] buckets = wheel[level];
+        int start = (int) (previousTicks & MASK);
+        int steps = (int) Math.min(delta + 1, BUCKETS);
+        for (int i = 0; i < steps; i++) {
+            ExpireNode<K, V> sentinel = buckets[(start + i) & MASK];
+            ExpireNode<K, V> node = sentinel.next;
+            if (node == sentinel) continue;
+            // 整桶摘下，重新放置的节点可能回到同一个桶
+            sentinel.prev.next = null;
+            sentinel.prev = sentinel.next = sentinel;
+            while (node != null) {
+                ExpireNode<K, V> next = node.next;
+                node.prev = node.next = null;
+                if (node.time <= now) evict.accept(node);
+                else schedule(node);
+                node = next;
+            }
+        }
+    }
+
+    /**
+     * 清空所有的桶
+     */
+    void clear() {
+        for (ExpireNode<K, V>[] buckets : wheel) {
+            for (int i = 0; i < BUCKETS; i++) buckets[i] = ExpireNode.sentinel();
+        }
+    }
+
+}
@@ -77,4 +77,135 @@ public class ArrayUtil {
         return copy;
     }
 
+    /**
+     * 向 int[] 数组左面加入空位
+     *
+     * @param original  原数组
+     * @param offset    向右移动的位移
+     * @param newLength 新长度
+     * @return 新数组
+     */
+    public static int[] offsetCopyOf(int[] original, int offset, int newLength) {
+        if (offset < 0) throw new IllegalArgumentException("offset: " + offset);
+        int[] copy = new int[newLength];
+        System.arraycopy(original, 0, copy, offset, original.length);
+        return copy;
+    }
+
+    /**
+     * 向 long[] 数组左面加入空位
+     *
+     * @param original  原数组
+     * @param offset    向右移动的位移
+     * @param newLength 新长度
+     * @return 新数组
+     */
+    public static long[] offsetCopyOf(long[] original, int offset, int newLength) {
+        if (offset < 0) throw new IllegalArgumentException("offset: " + offset);
+        long[] copy = new long[newLength];
+        System.arraycopy(original, 0, copy, offset, original.length);
+        return copy;
+    }
+
+    /**
+     * 向 double[] 数组左面加入空位
+     *
+     * @param original  原数组
+     * @param offset    向右移动的位移
+     * @param newLength 新长度
+     * @return 新数组
+     */
+    public static double[] offsetCopyOf(double[] original, int offset, int newLength) {
+        if (offset < 0) throw new IllegalArgumentException("offset: " + offset);
+        double[] copy = new double[newLength];
+        System.arraycopy(original, 0, copy, offset, original.length);
+        return copy;
+    }
+
+    /**
+     * 容纳 bits 个位需要的 long 数组长度
+     */
+    public static int bitWords(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    /**
+     * 测试位
+     *
+     * @param bits  位图
+     * @param index 位索引
+     */
+    public static boolean bitGet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public static void bitSet(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    public static void bitClear(long[] bits, int index) {
+        bits[index >>> 6] &= ~(1L << index);
+    }
+
+    /**
+     * 统计 [from, to] 区间中为 1 的位数
+     *
+     * @param bits  位图
+     * @param from  起始位索引（包含）
+     * @param to    结束位索引（包含）
+     */
+    public static int bitCount(long[] bits, int from, int to) {
+        if (from > to) return 0;
+        int u = from >>> 6, end = to >>> 6;
+        long headMask = -1L << from, tailMask = -1L >>> (63 - (to & 63));
+        if (u == end) return Long.bitCount(bits[u] & headMask & tailMask);
+        int count = Long.bitCount(bits[u] & headMask);
+        while (++u < end) count += Long.bitCount(bits[u]);
+        return count + Long.bitCount(bits[end] & tailMask);
+    }
+
+    /**
+     * 在 [from, to] 区间中查找第一个为 1 的位
+     *
+     * @param bits  位图
+     * @param from  起始位索引（包含）
+     * @param to    结束位索引（包含）
+     * @return 没有则返回 -1
+     */
+    public static int nextSetBit(long[] bits, int from, int to) {
+        if (from > to) return -1;
+        int u = from >>> 6, end = to >>> 6;
+        long word = bits[u] & (-1L << from);
+        for (; ; ) {
+            if (word != 0) {
+                int index = (u << 6) + Long.numberOfTrailingZeros(word);
+                return index <= to ? index : -1;
+            }
+            if (++u > end) return -1;
+            word = bits[u];
+        }
+    }
+
+    /**
+     * 在 [from, to] 区间中查找最后一个为 1 的位
+     *
+     * @param bits  位图
+     * @param from  起始位索引（包含）
+     * @param to    结束位索引（包含）
+     * @return 没有则返回 -1
+     */
+    public static int prevSetBit(long[] bits, int from, int to) {
+        if (from > to) return -1;
+        int u = to >>> 6, end = from >>> 6;
+        long word = bits[u] & (-1L >>> (63 - (to & 63)));
+        for (; ; ) {
+            if (word != 0) {
+                int index = (u << 6) + 63 - Long.numberOfLeadingZeros(word);
+                return index >= from ? index : -1;
+            }
+            if (--u < end) return -1;
+            word = bits[u];
+        }
+    }
+
 }
@@ -15,6 +15,10 @@
 
 package com.twitter.service.snowflake;
 
+import org.binave.common.api.Ticker;
+
+import java.util.Objects;
+
 /**
  * 雪花算法
  * https://github.com/twitter-archive/snowflake/blob/scala_28/src/main/scala/com/twitter/service/snowflake/IdWorker.scala
@@ -64,12 +68,22 @@ public class IdWorker {
     private long dataCenterId;  // 数据中心 ID(0~31)
     private long sequence = 0L; // 毫秒内序列(0~4095)
 
+    private final Ticker ticker;    // 时钟
 
     /**
      * @param workerId      实例 ID (0~31)
      * @param dataCenterId  数据中心 ID (0~31)
      */
     public IdWorker(long workerId, long dataCenterId) {
+        this(workerId, dataCenterId, Ticker.SYSTEM);
+    }
+
+    /**
+     * @param workerId      实例 ID (0~31)
+     * @param dataCenterId  数据中心 ID (0~31)
+     * @param ticker        时钟，使用缓存时钟时，同一毫秒序列用尽后会等待时钟更新
+     */
+    public IdWorker(long workerId, long dataCenterId, Ticker ticker) {
         if (workerId > MAX_WORKER_ID || workerId < 0) {
             throw new IllegalArgumentException(
                     String.format("worker Id can't be greater than %d or less than 0", MAX_WORKER_ID)
@@ -82,6 +96,7 @@ public class IdWorker {
         }
         this.workerId = workerId;
         this.dataCenterId = dataCenterId;
+        this.ticker = Objects.requireNonNull(ticker);
     }
 
     /**
@@ -137,7 +152,7 @@ public class IdWorker {
     }
 
     private long timeGen() {
-        return System.currentTimeMillis();
+        return ticker.millis();
     }
 
 }
@@ -16,6 +16,8 @@
 
 package org.binave.common.util;
 
+import org.binave.common.api.Ticker;
+
 import java.util.Calendar;
 import java.util.TimeZone;
 
@@ -394,6 +396,24 @@ public enum FutureTime {
         return getSeconds(timePoint, size, isWatch, isTimeLag, System.currentTimeMillis());
     }
 
+    /**
+     * 以 ticker 的当前时间为基础
+     *
+     * @see #getMillisecond(int, int, boolean, boolean, long)
+     */
+    public long getMillisecond(int timePoint, int size, boolean isWatch, boolean isTimeLag, Ticker ticker) {
+        return getMillisecond(timePoint, size, isWatch, isTimeLag, ticker.millis());
+    }
+
+    /**
+     * 以 ticker 的当前时间为基础
+     *
+     * @see #getSeconds(int, int, boolean, boolean, long)
+     */
+    public int getSeconds(int timePoint, int size, boolean isWatch, boolean isTimeLag, Ticker ticker) {
+        return getSeconds(timePoint, size, isWatch, isTimeLag, ticker.millis());
+    }
+
     /**
      * 测试传入参数
      *
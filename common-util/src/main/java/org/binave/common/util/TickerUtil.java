@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2017 bin jin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.binave.common.util;
+
+import org.binave.common.api.Ticker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 时钟工具
+ *
+ *      system()    系统时钟
+ *      nanoTime()  以 nanoTime 推算毫秒值，不受系统时间调整的影响
+ *      cached()    由一个守护线程按精度更新的缓存时钟，读取毫秒值只是一次 volatile 读
+ *      manual()    手动拨动的时钟，用于测试
+ *
+ * @author bin jin
+ * @since 1.8
+ */
+public class TickerUtil {
+
+    /**
+     * 系统时钟
+     */
+    public static Ticker system() {
+        return Ticker.SYSTEM;
+    }
+
+    private static final Ticker NANO_TIME = new NanoTimeTicker();
+
+    /**
+     * 以创建时的系统时间为起点，按 nanoTime 推算，单调递增
+     */
+    public static Ticker nanoTime() {
+        return NANO_TIME;
+    }
+
+    private static volatile CachedTicker cached;
+
+    /**
+     * 共用的缓存时钟，精度 1 毫秒，第一次调用时启动
+     */
+    public static Ticker cached() {
+        CachedTicker ticker = cached;
+        if (ticker == null) {
+            synchronized (TickerUtil.class) {
+                if ((ticker = cached) == null) cached = ticker = new CachedTicker(1);
+            }
+        }
+        return ticker;
+    }
+
+    /**
+     * 新的缓存时钟，不用时需要关闭
+     *
+     * @param resolutionMillis 更新间隔，毫秒
+     */
+    public static CachedTicker cached(long resolutionMillis) {
+        return new CachedTicker(resolutionMillis);
+    }
+
+    /**
+     * 手动时钟，从当前时间开始
+     */
+    public static ManualTicker manual() {
+        return new ManualTicker(System.currentTimeMillis());
+    }
+
+    /**
+     * 手动时钟
+     *
+     * @param millis 初始的毫秒值
+     */
+    public static ManualTicker manual(long millis) {
+        return new ManualTicker(millis);
+    }
+
+    private static final class NanoTimeTicker implements Ticker {
+
+        private final long baseMillis = System.currentTimeMillis();
+
+        private final long baseNanos = System.nanoTime();
+
+        @Override
+        public long millis() {
+            return baseMillis + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - baseNanos);
+        }
+
+        @Override
+        public long nanos() {
+            return System.nanoTime();
+        }
+
+    }
+
+    /**
+     * 缓存时钟
+     *
+     * 守护线程每隔 resolution 更新一次毫秒值，读到的值最多落后一个 resolution。
+     * 系统时间回拨时保持不变，直到追上之前的值。
+     * 纳秒值用于计算耗时，直接读取 System.nanoTime()，不缓存
+     */
+    public static final class CachedTicker implements Ticker, AutoCloseable {
+
+        private final long resolutionNanos;
+
+        private final Thread thread;
+
+        private volatile long millis;
+
+        private volatile boolean closed;
+
+        private CachedTicker(long resolutionMillis) {
+            if (resolutionMillis <= 0) {
+                throw new IllegalArgumentException("resolution must be positive: " + resolutionMillis);
+            }
+            this.resolutionNanos = TimeUnit.MILLISECONDS.toNanos(resolutionMillis);
+            this.millis = System.currentTimeMillis();
+            this.thread = new Thread(this::run, "cached-ticker-" + resolutionMillis + "ms");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void run() {
+            while (!closed) {
+                LockSupport.parkNanos(this, resolutionNanos);
+                millis = Math.max(millis, System.currentTimeMillis());
+            }
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public long nanos() {
+            return System.nanoTime();
+        }
+
+        /**
+         * 停止更新，之后读到的毫秒值是最后一次更新的值
+         */
+        @Override
+        public void close() {
+            closed = true;
+            LockSupport.unpark(thread);
+        }
+
+    }
+
+    /**
+     * 手动时钟
+     *
+     * 只在 set、advance 时变化，毫秒值与纳秒值同步前进
+     */
+    public static final class ManualTicker implements Ticker {
+
+        private final AtomicLong nanos = new AtomicLong();
+
+        private final long baseMillis;
+
+        private ManualTicker(long millis) {
+            this.baseMillis = millis;
+        }
+
+        @Override
+        public long millis() {
+            return baseMillis + TimeUnit.NANOSECONDS.toMillis(nanos.get());
+        }
+
+        @Override
+        public long nanos() {
+            return nanos.get();
+        }
+
+        /**
+         * 前进一段时间，不能为负
+         */
+        public ManualTicker advance(long duration, TimeUnit unit) {
+            if (duration < 0) throw new IllegalArgumentException("duration must not be negative: " + duration);
+            nanos.addAndGet(unit.toNanos(duration));
+            return this;
+        }
+
+        /**
+         * 前进若干毫秒
+         */
+        public ManualTicker advance(long millis) {
+            return advance(millis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * 拨到指定的毫秒值，可以回拨
+         */
+        public ManualTicker set(long millis) {
+            nanos.set(TimeUnit.MILLISECONDS.toNanos(millis - baseMillis));
+            return this;
+        }
+
+    }
+
+}